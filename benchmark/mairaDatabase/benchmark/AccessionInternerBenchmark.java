@@ -0,0 +1,72 @@
+package mairaDatabase.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mairaDatabase.utils.AccessionInterner;
+import mairaDatabase.utils.FastaReader;
+import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
+import mairaDatabase.utils.SparseString;
+
+/**
+ * Compares a HashMap keyed by SparseString, as used for accession to node maps
+ * before, against the AccessionInterner. Both intern the accessions of a FASTA
+ * file and then resolve them again a number of times, the interner directly
+ * from the accession bytes. Reports time and bytes allocated by the
+ * benchmark thread and checks that both assign the same ids.
+ *
+ * Usage: AccessionInternerBenchmark file.faa [rounds]
+ */
+public class AccessionInternerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		File file = new File(args[0]);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<byte[]> accs = new ArrayList<>();
+		try (FastaIterator it = FastaReader.iterate(file, false)) {
+			for (FastaEntry e : it)
+				accs.add(e.getSparseName().getData());
+		}
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		for (int round = 1; round <= rounds; round++) {
+			long bytes = bean.getThreadAllocatedBytes(threadId), time = System.nanoTime();
+			Map<SparseString, Integer> map = new HashMap<>();
+			for (byte[] acc : accs)
+				map.putIfAbsent(new SparseString(acc.clone()), map.size());
+			long checksum = 0;
+			for (int r = 0; r < 10; r++) {
+				for (byte[] acc : accs)
+					checksum += map.get(new SparseString(acc.clone()));
+			}
+			long mapNanos = System.nanoTime() - time, mapBytes = bean.getThreadAllocatedBytes(threadId) - bytes;
+
+			bytes = bean.getThreadAllocatedBytes(threadId);
+			time = System.nanoTime();
+			AccessionInterner interner = new AccessionInterner();
+			for (byte[] acc : accs)
+				interner.intern(acc, 0, acc.length);
+			long checksum2 = 0;
+			for (int r = 0; r < 10; r++) {
+				for (byte[] acc : accs)
+					checksum2 += interner.get(acc, 0, acc.length);
+			}
+			long internerNanos = System.nanoTime() - time,
+					internerBytes = bean.getThreadAllocatedBytes(threadId) - bytes;
+
+			if (checksum != checksum2 || map.size() != interner.size())
+				throw new IllegalStateException("ERROR: maps disagree on " + file);
+			System.out.println(String.format(
+					"round %d: %,d accessions; HashMap<SparseString> %,dms, %,d MB allocated; interner %,dms, %,d MB allocated (%,d KB held)",
+					round, interner.size(), mapNanos / 1000000, mapBytes >>> 20, internerNanos / 1000000,
+					internerBytes >>> 20, interner.getMemoryFootprint() >>> 10));
+		}
+	}
+
+}
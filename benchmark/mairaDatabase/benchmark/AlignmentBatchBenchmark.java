@@ -0,0 +1,77 @@
+package mairaDatabase.benchmark;
+
+import java.io.File;
+import java.util.List;
+
+import mairaDatabase.refseq.utils.aliHelper.AlignmentBatch;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore.Backend;
+import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
+
+/**
+ * Compares reading the adjacency of every query accession as AlignmentInfo
+ * objects against reading it into one reused AlignmentBatch, applying the
+ * identity/coverage filter of the clustering step in both cases.
+ *
+ * Usage: AlignmentBatchBenchmark aliFolder genus [sqlite|mapped] [rounds]
+ */
+public class AlignmentBatchBenchmark {
+
+	private final static int MIN_ID = 80;
+
+	public static void main(String[] args) throws Exception {
+		String aliFolder = args[0];
+		String genus = args[1];
+		Backend backend = args.length > 2 ? Backend.parse(args[2]) : Backend.SQLITE;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		String table = genus + "_clusterTable";
+
+		AlignmentStore store = AlignmentStore.open(backend, aliFolder, genus, new File(aliFolder));
+		try {
+			int[] counts = store.getAlignmentCounts(table);
+			for (int round = 0; round < rounds; round++) {
+				long time = System.nanoTime();
+				long hits = runObjects(store, table, counts);
+				long objectMillis = (System.nanoTime() - time) / 1000000;
+				time = System.nanoTime();
+				long batchHits = runBatch(store, table, counts);
+				long batchMillis = (System.nanoTime() - time) / 1000000;
+				System.out.println(String.format("round %d: objects %,dms, batch %,dms (%,d / %,d hits)", round + 1,
+						objectMillis, batchMillis, hits, batchHits));
+			}
+		} finally {
+			store.close();
+		}
+	}
+
+	private static long runObjects(AlignmentStore store, String table, int[] counts) {
+		long hits = 0;
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] == 0)
+				continue;
+			List<AlignmentInfo> alis = store.getAlignments(id, table);
+			for (AlignmentInfo ali : alis) {
+				if (ali.getQueryId() != ali.getRefId() && ali.getIdentity() > MIN_ID && ali.getRefCoverage() > MIN_ID)
+					hits++;
+			}
+		}
+		return hits;
+	}
+
+	private static long runBatch(AlignmentStore store, String table, int[] counts) {
+		long hits = 0;
+		AlignmentBatch alis = new AlignmentBatch();
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] == 0)
+				continue;
+			store.getAlignments(id, table, alis);
+			for (int i = 0; i < alis.size(); i++) {
+				if (alis.getQueryId(i) != alis.getRefId(i) && alis.getIdentity(i) > MIN_ID
+						&& alis.getRefCoverage(i) > MIN_ID)
+					hits++;
+			}
+		}
+		return hits;
+	}
+
+}
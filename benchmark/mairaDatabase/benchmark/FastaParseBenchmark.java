@@ -0,0 +1,96 @@
+package mairaDatabase.benchmark;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import mairaDatabase.utils.FastaReader;
+import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
+import mairaDatabase.utils.SparseString;
+
+/**
+ * Measures the parse throughput of FastaReader against a line-based parser
+ * that decodes every line into a String, as FastaReader did before. Both
+ * parsers build the SparseString name and sequence of every entry and touch
+ * the sequence length. Without duplicate checks.
+ *
+ * Usage: FastaParseBenchmark file.faa[.gz] [rounds]
+ */
+public class FastaParseBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		File file = new File(args[0]);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		double mb = file.length() / (double) (1 << 20);
+		for (int round = 1; round <= rounds; round++) {
+			long time = System.nanoTime();
+			long[] lineCounts = parseLines(file);
+			double lineSeconds = (System.nanoTime() - time) / 1e9;
+			time = System.nanoTime();
+			long[] byteCounts = parseBytes(file);
+			double byteSeconds = (System.nanoTime() - time) / 1e9;
+			if (lineCounts[0] != byteCounts[0] || lineCounts[1] != byteCounts[1])
+				throw new IllegalStateException("ERROR: parsers disagree on " + file);
+			System.out.println(String.format(
+					"round %d: %,d entries, %,d residues; line-based %.1f MB/s (%.2fs), byte-level %.1f MB/s (%.2fs)",
+					round, byteCounts[0], byteCounts[1], mb / lineSeconds, lineSeconds, mb / byteSeconds, byteSeconds));
+		}
+	}
+
+	private static long[] parseBytes(File file) throws IOException {
+		long entries = 0, residues = 0;
+		try (FastaIterator it = FastaReader.iterate(file, false)) {
+			for (FastaEntry e : it) {
+				entries++;
+				residues += e.getSequenceLength();
+			}
+		}
+		return new long[] { entries, residues };
+	}
+
+	private static long[] parseLines(File file) throws IOException {
+		long entries = 0, residues = 0;
+		BufferedReader buf;
+		try {
+			buf = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))));
+		} catch (ZipException | EOFException e) {
+			buf = new BufferedReader(new FileReader(file));
+		}
+		try {
+			String line, name = "";
+			boolean readSequence = false;
+			StringBuilder seqBuilder = new StringBuilder();
+			while (true) {
+				line = buf.readLine();
+				if ((line == null || line.startsWith(">")) && seqBuilder.length() != 0 && !name.isEmpty()) {
+					SparseString sequence = new SparseString(seqBuilder.toString());
+					new SparseString(name);
+					entries++;
+					residues += sequence.toString().length();
+				}
+				if (line == null)
+					break;
+				if (line.startsWith(">")) {
+					seqBuilder = new StringBuilder();
+					name = line.substring(1).split(" ")[0];
+					readSequence = true;
+				} else if (line.startsWith("+")) {
+					readSequence = false;
+				} else if (readSequence) {
+					seqBuilder.append(line);
+				}
+			}
+		} finally {
+			buf.close();
+		}
+		return new long[] { entries, residues };
+	}
+
+}
@@ -0,0 +1,128 @@
+package mairaDatabase.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import mairaDatabase.utils.MairaIndex;
+
+/**
+ * Compares point lookups of taxids and factors in the SQLite tables of a
+ * maira.db against the exported MairaIndex, which is built first if it is
+ * missing. Both sides are checked to return the same values. acc2dominator is
+ * indexed by dominator in SQLite, so its rows are only checked against the
+ * index in one scan.
+ *
+ * Usage: MairaIndexBenchmark maira.db [lookups]
+ */
+public class MairaIndexBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String databaseFile = args[0];
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		Class.forName("org.sqlite.JDBC");
+		try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + databaseFile)) {
+			File indexFile = MairaIndex.getFile(databaseFile);
+			if (!indexFile.exists())
+				MairaIndex.build(c, indexFile);
+
+			long time = System.nanoTime();
+			MairaIndex index = MairaIndex.open(indexFile);
+			long openNanos = System.nanoTime() - time;
+			int[] ns = index.getFactorNs();
+			List<String> accs = sample(c, ns, lookups);
+
+			PreparedStatement taxidStmt = c.prepareStatement("SELECT taxid FROM acc2taxids WHERE acc = ?");
+			PreparedStatement[] factorStmts = new PreparedStatement[ns.length];
+			for (int i = 0; i < ns.length; i++)
+				factorStmts[i] = c.prepareStatement("SELECT factor FROM factors_" + ns[i] + " WHERE acc = ?");
+
+			time = System.nanoTime();
+			List<Object[]> sqlResults = new ArrayList<>(accs.size());
+			for (String acc : accs) {
+				Object[] result = new Object[1 + ns.length];
+				List<Integer> taxids = new ArrayList<>();
+				taxidStmt.setString(1, acc);
+				ResultSet rs = taxidStmt.executeQuery();
+				while (rs.next())
+					taxids.add(rs.getInt(1));
+				Collections.sort(taxids);
+				result[0] = taxids.toString();
+				for (int i = 0; i < ns.length; i++) {
+					factorStmts[i].setString(1, acc);
+					rs = factorStmts[i].executeQuery();
+					result[1 + i] = rs.next() ? rs.getFloat(1) : Float.NaN;
+				}
+				sqlResults.add(result);
+			}
+			long sqlNanos = Math.max(1, System.nanoTime() - time);
+
+			time = System.nanoTime();
+			List<Object[]> indexResults = new ArrayList<>(accs.size());
+			for (String acc : accs) {
+				Object[] result = new Object[1 + ns.length];
+				int[] taxids = index.getTaxids(acc);
+				Arrays.sort(taxids);
+				result[0] = Arrays.toString(taxids);
+				for (int i = 0; i < ns.length; i++)
+					result[1 + i] = index.getFactor(acc, ns[i]);
+				indexResults.add(result);
+			}
+			long indexNanos = Math.max(1, System.nanoTime() - time);
+
+			int mismatches = 0;
+			for (int i = 0; i < accs.size(); i++) {
+				if (!Arrays.equals(sqlResults.get(i), indexResults.get(i)))
+					mismatches++;
+			}
+			int dominators = 0, dominatorMismatches = 0;
+			try (Statement stmt = c.createStatement()) {
+				ResultSet rs = stmt.executeQuery("SELECT acc, dominator FROM acc2dominator");
+				while (rs.next()) {
+					dominators++;
+					if (!rs.getString(2).equals(index.getDominator(rs.getString(1))))
+						dominatorMismatches++;
+				}
+			}
+			System.out.println(String.format("index: %,d accessions, %,d MB, opened in %,dus", index.size(),
+					indexFile.length() >>> 20, openNanos / 1000));
+			System.out.println(String.format("sqlite: %,d lookups, %,dns/lookup", accs.size(), sqlNanos / accs.size()));
+			System.out.println(String.format("index:  %,d lookups, %,dns/lookup", accs.size(), indexNanos / accs.size()));
+			System.out.println(String.format("mismatches: %,d", mismatches));
+			System.out.println(String.format("dominators: %,d checked, %,d mismatches", dominators, dominatorMismatches));
+			index.close();
+		}
+	}
+
+	/**
+	 * Samples accessions of acc2taxids and factors plus a few unknown ones.
+	 */
+	private static List<String> sample(Connection c, int[] ns, int lookups) throws Exception {
+		List<String> accs = new ArrayList<>();
+		try (Statement stmt = c.createStatement()) {
+			List<String> tables = new ArrayList<>(Arrays.asList("acc2taxids"));
+			if (ns.length > 0)
+				tables.add("factors_" + ns[0]);
+			for (String table : tables) {
+				ResultSet rs = stmt.executeQuery(
+						"SELECT acc FROM " + table + " WHERE rowid % MAX(1, (SELECT COUNT(*) FROM " + table + ") / "
+								+ lookups + ") = 0 LIMIT " + lookups / 2);
+				while (rs.next())
+					accs.add(rs.getString(1));
+			}
+		}
+		for (int i = 0; i < lookups / 100; i++)
+			accs.add("XX_" + i);
+		Collections.shuffle(accs, new Random(0));
+		return accs;
+	}
+
+}
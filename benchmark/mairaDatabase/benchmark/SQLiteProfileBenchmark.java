@@ -0,0 +1,70 @@
+package mairaDatabase.benchmark;
+
+import java.io.File;
+
+import mairaDatabase.refseq.utils.aliHelper.AlignmentBatch;
+import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
+import mairaDatabase.utils.SQLiteProfile;
+
+/**
+ * Ingests the same alignment tab file with every SQLite profile, once in
+ * indexed and once in bulk-load mode, and then reads the adjacency of every
+ * query accession. Each run uses a fresh database below the output folder and
+ * logs the query plans SQLite picks after the ingest.
+ *
+ * Usage: SQLiteProfileBenchmark alignments.tab outFolder [profiles]
+ */
+public class SQLiteProfileBenchmark {
+
+	private final static String GENUS = "Benchmark";
+
+	public static void main(String[] args) throws Exception {
+		File tab = new File(args[0]);
+		File outFolder = new File(args[1]);
+		String[] profiles = args.length > 2 ? args[2].split(",") : new String[] { "default", "balanced", "fast" };
+		String table = GENUS + "_clusterTable";
+		for (String name : profiles) {
+			SQLiteProfile profile = SQLiteProfile.parse(name);
+			SQLiteProfile.select(profile);
+			for (boolean bulkLoad : new boolean[] { false, true }) {
+				File folder = new File(outFolder, profile.name().toLowerCase() + (bulkLoad ? "_bulk" : "_indexed"));
+				folder.mkdirs();
+				for (File f : folder.listFiles())
+					f.delete();
+				SQLAlignmentDatabase db = new SQLAlignmentDatabase(folder.getPath(), GENUS, folder);
+				try {
+					long time = System.nanoTime();
+					db.addAlignmentTable(table, null, tab, false, bulkLoad);
+					long ingestNanos = Math.max(1, System.nanoTime() - time);
+					db.explainQueryPlans(table);
+					int[] counts = db.getAlignmentCounts(table);
+					long rows = 0;
+					for (int count : counts)
+						rows += count;
+					time = System.nanoTime();
+					long read = readAll(db, table, counts);
+					long readNanos = Math.max(1, System.nanoTime() - time);
+					System.out.println(String.format("%s %s: ingest %,d rows/s (%,dms), read %,d rows/s (%,dms)",
+							profile.name().toLowerCase(), bulkLoad ? "bulk-load" : "indexed",
+							rows * 1000000000L / ingestNanos, ingestNanos / 1000000, read * 1000000000L / readNanos,
+							readNanos / 1000000));
+				} finally {
+					db.close();
+				}
+			}
+		}
+	}
+
+	private static long readAll(SQLAlignmentDatabase db, String table, int[] counts) {
+		long rows = 0;
+		AlignmentBatch alis = new AlignmentBatch();
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] == 0)
+				continue;
+			db.getAlignments(id, table, alis);
+			rows += alis.size();
+		}
+		return rows;
+	}
+
+}
@@ -1,12 +1,15 @@
 package mairaDatabase.main;
 
 import java.io.File;
+import java.io.IOException;
 
 import mairaDatabase.refseq.RefseqManager;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentDatabaseRegistry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore.Backend;
 
 public class Main {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 
 		if (args.length != 5 && args.length != 6) {
 			System.out.println("SRC|TMP|DB|CORES|MEMORY|Taxa");
@@ -19,7 +22,8 @@ public class Main {
 		int cores = Integer.parseInt(args[3]);
 		int memory = Integer.parseInt(args[4]);
 		String genera = args.length > 5 ? args[5] : null;
-		new RefseqManager().run(src, tmp, aliFolder, cores, memory, genera.trim().split(","), "diamond");
+		new RefseqManager().run(src, tmp, aliFolder, cores, memory, genera.trim().split(","), "diamond",
+				Backend.SQLITE, AlignmentDatabaseRegistry.DEFAULT_MAX_OPEN_FILES, false, null);
 
 	}
 
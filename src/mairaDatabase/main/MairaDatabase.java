@@ -1,6 +1,7 @@
 package mairaDatabase.main;
 
 import java.io.File;
+import java.io.IOException;
 
 import jloda.fx.util.ArgsOptions;
 import jloda.fx.util.ResourceManagerFX;
@@ -10,6 +11,9 @@ import jloda.util.PeakMemoryUsageMonitor;
 import jloda.util.ProgramProperties;
 import jloda.util.UsageException;
 import mairaDatabase.refseq.RefseqManager;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentDatabaseRegistry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore.Backend;
+import mairaDatabase.utils.SQLiteProfile;
 
 public class MairaDatabase {
 
@@ -31,7 +35,7 @@ public class MairaDatabase {
 		}
 	}
 
-	private void run(String[] args) throws CanceledException, UsageException {
+	private void run(String[] args) throws CanceledException, UsageException, IOException {
 		
         final ArgsOptions options = new ArgsOptions(args, this, "MAIRA Database - automatically computes a complete current version of the MAIRA database.");
         options.setVersion(ProgramProperties.getProgramVersion());
@@ -46,6 +50,11 @@ public class MairaDatabase {
 		int memory;
 		String generaInput;
 		String diamondBin;
+		String alignmentStore;
+		int maxOpenFiles;
+		String sqliteProfile;
+		boolean tabFiles;
+		String baseDatabase;
 		
 		srcPath = options.getOptionMandatory("-f", "srcFolder", "Folder for the computed database files", "");
 		tmpPath = options.getOptionMandatory("-t", "tmpFolder", "Temporary folder used for speeding-up the computation (eg. /dev/shm)", "");
@@ -54,11 +63,19 @@ public class MairaDatabase {
 		memory = options.getOption("-m", "memory", "Available working memory in GB (default max)", (int) Math.round(Runtime.getRuntime().maxMemory() / Math.pow(10,9)));
 		generaInput = options.getOption("-g", "genera", "Genera to be considered in the database (default all)", "");
 		diamondBin = options.getOption("-d", "diamond", "Path of DIAMOND binary", "diamond");
+		alignmentStore = options.getOption("-s", "alignmentStore", "Backend for reading alignments (sqlite or mapped)", "sqlite");
+		maxOpenFiles = options.getOption("-n", "maxOpenFiles", "Maximum number of alignment database handles kept open", AlignmentDatabaseRegistry.DEFAULT_MAX_OPEN_FILES);
+		sqliteProfile = options.getOption("-l", "sqliteProfile", "SQLite tuning profile (default, balanced or fast)", "default");
+		tabFiles = options.getOption("-w", "writeTabFiles", "Also write the maira.db tables as tab files (for debugging)", false);
+		baseDatabase = options.getOption("-b", "baseDatabase", "maira.db of a previous release to be refreshed incrementally (default rebuild)", "");
 		
 		File src = new File(srcPath);
 		File tmp = new File(tmpPath);
 		String[] genera = generaInput.isEmpty() ? null : generaInput.trim().split(",");
-		new RefseqManager().run(src, tmp, aliPath, cores, memory, genera, diamondBin);
+		SQLiteProfile.select(SQLiteProfile.parse(sqliteProfile));
+		new RefseqManager().run(src, tmp, aliPath, cores, memory, genera, diamondBin,
+				Backend.parse(alignmentStore), maxOpenFiles, tabFiles,
+				baseDatabase.isEmpty() ? null : new File(baseDatabase));
 		 
 	}
 
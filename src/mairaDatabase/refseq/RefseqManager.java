@@ -1,6 +1,7 @@
 package mairaDatabase.refseq;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalTime;
 
@@ -12,6 +13,8 @@ import mairaDatabase.refseq.step2_filtering.FilterManager;
 import mairaDatabase.refseq.utils.BashHelper;
 import mairaDatabase.refseq.utils.Cleaner;
 import mairaDatabase.refseq.utils.NewickTaxTreeWriter;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentDatabaseRegistry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore.Backend;
 import mairaDatabase.utils.SQLMairaDatabase;
 import mairaDatabase.utils.SQLMappingDatabase;
 import mairaDatabase.utils.taxTree.TaxDump;
@@ -26,7 +29,7 @@ public class RefseqManager {
 	public final static int MIN_LENGTH = 100;
 
 	public void run(File src, File tmp, String aliDir, int cores, double blockSize, String[] genera,
-			String diamondBin) {
+			String diamondBin, Backend backend, int maxOpenFiles, boolean tabFiles, File previousMairaDb) throws IOException {
 
 		long time = System.currentTimeMillis();
 
@@ -36,32 +39,36 @@ public class RefseqManager {
 		File database = new File(srcPath + File.separator + "refseq_mapping.db");
 		File tmpDir = tmp == null ? src : tmp;
 		SQLMappingDatabase mappingDatabase = new SQLMappingDatabase(database.getAbsolutePath(), tmpDir);
+		File mairaDb = new File(srcPath + File.separator + "maira.db");
+		mairaDb.delete();
+		SQLMairaDatabase mairaDatabase = new SQLMairaDatabase(mairaDb.getAbsolutePath(), tmpDir);
+		mairaDatabase.setVersion(srcFolder.getName(), previousMairaDb);
+		if (tabFiles)
+			mairaDatabase.writeTabFiles(new File(srcPath + File.separator + "maira_tables"));
 
 		new NCBIDownloader().run(srcPath);
 		TaxTree taxTree = new TaxDump().parse(srcPath);
 		ProteinDownloadManager proteinDownloadManager = new ProteinDownloadManager();
-		proteinDownloadManager.run(srcPath, mappingDatabase, taxTree, cores, genera);
+		proteinDownloadManager.run(srcPath, mappingDatabase, mairaDatabase, taxTree, cores, genera);
 
 		String rank = "genus";
+		SQLMappingDatabase mappingReader = new SQLMappingDatabase(mappingDatabase, true);
+		AlignmentDatabaseRegistry registry = new AlignmentDatabaseRegistry(aliDir, tmpDir, backend, maxOpenFiles);
 		ClusterManager clusterManager = new ClusterManager();
-		clusterManager.runClustering(rank, srcPath, aliDir, proteinDownloadManager.getProteinFolder(), taxTree,
-				mappingDatabase, cores, blockSize, CLUSTER_MARKER_ID, CLUSTER_GENUS_ID, CLUSTER_DISJOIN_ID,
+		clusterManager.runClustering(rank, srcPath, registry, proteinDownloadManager.getProteinFolder(), taxTree,
+				mappingReader, mairaDatabase, cores, blockSize, CLUSTER_MARKER_ID, CLUSTER_GENUS_ID, CLUSTER_DISJOIN_ID,
 				CLUSTER_DISJOIN_COV, tmp, diamondBin);
 		MarkerManager markerManager = new MarkerManager();
-		markerManager.runMarker(rank, srcPath, aliDir, clusterManager.getMarkerClusterOutputFolder(), taxTree,
-				mappingDatabase, cores, blockSize, MARKER_ID, tmp, diamondBin);
+		markerManager.runMarker(rank, srcPath, registry, clusterManager.getMarkerClusterOutputFolder(), taxTree,
+				mappingReader, cores, blockSize, MARKER_ID, tmp, diamondBin);
 		FilterManager filterManager = new FilterManager();
-		filterManager.run(rank, srcPath, aliDir, tmpDir, markerManager.getMarkerOutputFolder(), taxTree,
-				mappingDatabase, MAX_PROTEINS_PER_GCF, CLUSTER_MARKER_ID, cores);
+		filterManager.run(rank, srcPath, registry, markerManager.getMarkerOutputFolder(), taxTree, mappingReader,
+				mairaDatabase, MAX_PROTEINS_PER_GCF, CLUSTER_MARKER_ID, cores);
+		registry.close();
+		mappingReader.close();
 
-		File mairaDb = new File(srcPath + File.separator + "maira.db");
-		mairaDb.delete();
-		SQLMairaDatabase mairaDatabase = new SQLMairaDatabase(mairaDb.getAbsolutePath(), tmpDir);
-		mairaDatabase.createAcc2taxidTable(proteinDownloadManager.getMappingFile());
-		mairaDatabase.createFactorsTable(filterManager.getWeightFiles());
-		mairaDatabase.createProtCountsTable(proteinDownloadManager.getProteinCountsFile());
-		mairaDatabase.createAcc2DominatorsTable(clusterManager.getGenusDominationFile());
-		mairaDatabase.createSpecies2disjointTable(clusterManager.getSpeciesDisjoinFile());
+		mairaDatabase.finish();
+		mairaDatabase.exportIndex();
 
 		NewickTaxTreeWriter.run(srcFolder, mairaDatabase);
 		BashHelper.apply(srcPath, filterManager.getMarkerDatabase(), clusterManager.getGenusFolder());
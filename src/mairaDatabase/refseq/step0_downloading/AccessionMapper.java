@@ -9,10 +9,12 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import mairaDatabase.refseq.utils.AssemblyParser;
 import mairaDatabase.utils.FastaReader;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.ResourceLoader;
 import mairaDatabase.utils.SQLMappingDatabase;
 import mairaDatabase.utils.Statistics;
 import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
 import mairaDatabase.utils.taxTree.TaxNode;
 import mairaDatabase.utils.taxTree.TaxTree;
 
@@ -53,7 +55,8 @@ public class AccessionMapper {
 	private Map<String, String> gcfToAssemblyLevel;
 	private Map<Integer, Map<Integer, List<Double>>> proteinCounts;
 
-	public void run(String src, File downloadFolder, int cores, SQLMappingDatabase mappingDatabase, TaxTree taxTree)
+	public void run(String src, File downloadFolder, int cores, SQLMappingDatabase mappingDatabase, MairaSink mairaSink,
+			TaxTree taxTree)
 			throws IOException {
 
 		accMappingFile = new File(src + File.separator + "acc2gcfs2taxid.tab");
@@ -88,6 +91,7 @@ public class AccessionMapper {
 						List<Double> counts = proteinCounts.get(taxid).get(a.getPriority());
 						int median = (int) Math.round(Statistics.getMedian(counts));
 						writer.write(taxid + "\t" + median + "\n");
+						mairaSink.addProteinCount(taxid, median);
 						break;
 					}
 				}
@@ -96,7 +100,7 @@ public class AccessionMapper {
 		proteinCounts.clear();
 		
 		mappingDatabase.createGcf2size2taxidTable(gcfMappingFile);
-		mappingDatabase.createAcc2gcf2taxidTable(accMappingFile);
+		mappingDatabase.createAcc2gcf2taxidTable(accMappingFile, mairaSink);
 		mappingDatabase.createSpecies2sizeTable(avgSizeMappingFile);
 
 	}
@@ -137,14 +141,14 @@ public class AccessionMapper {
 					int speciesId = getRankTaxid(v, "species");
 					int genusId = getRankTaxid(v, "genus");
 					double proteinCounter = 0;
-					for (FastaEntry token : FastaReader.read(faaFile)) {
-						String acc = token.getName();
-						proteinCounter++;
-						try {
+					try (FastaIterator tokens = FastaReader.iterate(faaFile)) {
+						for (FastaEntry token : tokens) {
+							String acc = token.getName();
+							proteinCounter++;
 							accWriter.write(acc + "\t" + gcf + "\t" + taxid + "\n");
-						} catch (IOException e) {
-							e.printStackTrace();
 						}
+					} catch (IOException | UncheckedIOException e) {
+						e.printStackTrace();
 					}
 					AssemblyLevel assLevel = getAssemblyLevel(gcf);
 					if (speciesId != -1) {
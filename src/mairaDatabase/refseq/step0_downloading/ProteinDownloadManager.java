@@ -16,8 +16,12 @@ import jloda.util.Pair;
 import jloda.util.Triplet;
 import mairaDatabase.refseq.utils.AssemblyParser;
 import mairaDatabase.refseq.utils.Downloader;
+import mairaDatabase.utils.FastaIndex;
 import mairaDatabase.utils.FastaReader;
 import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
+import mairaDatabase.utils.InputFactory;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.ResourceLoader;
 import mairaDatabase.utils.SQLMappingDatabase;
 import mairaDatabase.utils.taxTree.TaxNode;
@@ -37,7 +41,8 @@ public class ProteinDownloadManager {
 
 	private AccessionMapper accessionMapper;
 
-	public void run(String srcPath, SQLMappingDatabase mappingDatabase, TaxTree taxTree, int cores, String[] genera) {
+	public void run(String srcPath, SQLMappingDatabase mappingDatabase, MairaSink mairaSink, TaxTree taxTree, int cores,
+			String[] genera) {
 
 		this.downloadThreads = cores * 2;
 
@@ -75,11 +80,15 @@ public class ProteinDownloadManager {
 			threads = new ArrayList<>();
 			for (int i = 0; i < downloadThreads; i++)
 				threads.add(new ProteinDownloadingThread(refseqProteins, proteinToFile));
+			InputFactory.resetStatistics();
 			rL.runThreads(downloadThreads, threads, ftpLinks.size());
+			System.out.println(InputFactory.getStatistics());
 
 			// updating mapping database
 			accessionMapper = new AccessionMapper();
-			accessionMapper.run(srcPath, refseqProteins, cores, mappingDatabase, taxTree);
+			InputFactory.resetStatistics();
+			accessionMapper.run(srcPath, refseqProteins, cores, mappingDatabase, mairaSink, taxTree);
+			System.out.println(InputFactory.getStatistics());
 
 			// collecting protein data
 			System.out
@@ -94,7 +103,9 @@ public class ProteinDownloadManager {
 			int numOfFiles = 0;
 			for (File dir : refseqProteins.listFiles(File::isDirectory))
 				numOfFiles += dir.listFiles().length;
+			InputFactory.resetStatistics();
 			rL.runThreads(cores, threads, numOfFiles);
+			System.out.println(InputFactory.getStatistics());
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -125,10 +136,13 @@ public class ProteinDownloadManager {
 				Set<String> seenAccessionSet = new HashSet<>();
 				File out = new File(proteinFolder + "/" + dir.getName().replace("\\s+", "_") + ".faa");
 				if (out.exists()) {
-					ArrayList<FastaEntry> tokens = FastaReader.read(out);
-					for (FastaEntry e : tokens) {
-						if (!e.getSequence().isEmpty())
-							addSeenAccession(seenAccessionSet, e.getName());
+					try (FastaIterator tokens = FastaReader.iterate(out, false)) {
+						for (FastaEntry e : tokens) {
+							if (e.getSequenceLength() > 0)
+								addSeenAccession(seenAccessionSet, e.getName());
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
 					}
 				}
 
@@ -138,13 +152,14 @@ public class ProteinDownloadManager {
 					try {
 						for (File f : files) {
 							if (f.isFile()) {
-								ArrayList<FastaEntry> tokens = FastaReader.read(f);
-								for (FastaEntry e : tokens) {
-									String acc = e.getName();
-									String seq = e.getSequence();
-									if (!isSeenAccession(seenAccessionSet, acc)) {
-										addSeenAccession(seenAccessionSet, acc);
-										writer.write(">" + acc + "\n" + seq + "\n");
+								// duplicates are skipped through seenAccessionSet
+								try (FastaIterator tokens = FastaReader.iterate(f, false)) {
+									for (FastaEntry e : tokens) {
+										String acc = e.getName();
+										if (!isSeenAccession(seenAccessionSet, acc)) {
+											addSeenAccession(seenAccessionSet, acc);
+											e.write(writer);
+										}
 									}
 								}
 							}
@@ -153,6 +168,7 @@ public class ProteinDownloadManager {
 					} finally {
 						writer.close();
 					}
+					FastaIndex.build(out);
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
@@ -237,7 +253,7 @@ public class ProteinDownloadManager {
 							}
 
 							File localFaaFile = new File(localFolder + File.separator + remoteFaaFile);
-							if (FastaReader.read(localFaaFile) == null) {
+							if (!FastaReader.isReadable(localFaaFile)) {
 								proteinToFile.remove(remoteFaaFile);
 								localFaaFile.delete();
 							} else
@@ -3,7 +3,6 @@ package mairaDatabase.refseq.step1_clustering;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -13,10 +12,14 @@ import java.util.List;
 import mairaDatabase.refseq.step1_clustering.Clustering.ClusteringMode;
 import mairaDatabase.refseq.utils.DiamondRunner;
 import mairaDatabase.refseq.utils.Formatter;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentDatabaseRegistry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
 import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
 import mairaDatabase.utils.FastaReader;
 import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
 import mairaDatabase.utils.FileUtils;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.ResourceLoader;
 import mairaDatabase.utils.SQLMappingDatabase;
 import mairaDatabase.utils.taxTree.TaxTree;
@@ -24,17 +27,20 @@ import mairaDatabase.utils.taxTree.TaxTree;
 public class ClusterManager {
 
 	private ResourceLoader rL = new ResourceLoader();
-	private File genusDominationFile, speciesDisjoinFile;
 	private File genusFolder;
 	private File markerClusterOutputFolder;
+	private AlignmentDatabaseRegistry registry;
 
 	private List<File> faaFiles;
 	private int faaFilePointer = 0;
 
-	public void runClustering(String rank, String srcPath, String aliFolder, File proteinFolder, TaxTree taxTree,
-			SQLMappingDatabase mappingDatabase, int cores, double blockSize, int minMarkerIdentity,
+	public void runClustering(String rank, String srcPath, AlignmentDatabaseRegistry registry, File proteinFolder,
+			TaxTree taxTree, SQLMappingDatabase mappingDatabase, MairaSink mairaSink, int cores, double blockSize,
+			int minMarkerIdentity,
 			int minGenusIdentity, int minDisjoinIdentity, int minDisjoinCoverage, File tmpFile, String diamondBin) {
 
+		this.registry = registry;
+
 		try {
 
 			markerClusterOutputFolder = new File(srcPath + File.separator + rank + "_marker_proteins_clustered");
@@ -54,28 +60,24 @@ public class ClusterManager {
 			List<Runnable> collectNewProteinsThreads = new ArrayList<>();
 			faaFilePointer = 0;
 			for (int i = 0; i < cores; i++)
-				collectNewProteinsThreads.add(new CollectNewProteinsThread(tmpFile, aliFolder));
+				collectNewProteinsThreads.add(new CollectNewProteinsThread());
 			rL.runThreads(cores, collectNewProteinsThreads, totalFileLength);
 
 			System.out.println(">Running DIAMOND on " + faaFiles.size() + " protein " + ((n == 1) ? "set" : "sets"));
 			List<Runnable> alignProteinsThreads = new ArrayList<>();
 			faaFilePointer = 0;
 			for (int i = 0; i < cores; i++)
-				alignProteinsThreads.add(new AlignProteinsThread(tmpFile, aliFolder, cores, blockSize,
-						minMarkerIdentity, mappingDatabase, diamondBin));
+				alignProteinsThreads.add(new AlignProteinsThread(tmpFile, cores, blockSize,
+						minMarkerIdentity, diamondBin));
 			rL.runThreads(1, alignProteinsThreads, totalFileLength);
 			
 			if (rank.equals("genus")) {
 
 				System.out.println(">Computing cross species genome disjoints for " + faaFiles.size() + " "
 						+ ((n == 1) ? "genus" : "genera"));
-				speciesDisjoinFile = new File(srcPath + File.separator + "species2disjoin.tab");
-				speciesDisjoinFile.delete();
-				try (BufferedWriter speciesDisjoinWriter = new BufferedWriter(new FileWriter(speciesDisjoinFile))) {
-					faaFilePointer = 0;
-					new SpeciesDisjoinComparatorThread(speciesDisjoinWriter, aliFolder, tmpFile, minDisjoinIdentity,
-							minDisjoinCoverage, mappingDatabase, cores).run();
-				}
+				faaFilePointer = 0;
+				new SpeciesDisjoinComparatorThread(mairaSink, minDisjoinIdentity, minDisjoinCoverage, mappingDatabase,
+						cores).run();
 
 			}
 
@@ -84,24 +86,20 @@ public class ClusterManager {
 			List<Runnable> clusterProteinsForMarkerDbThreads = new ArrayList<>();
 			faaFilePointer = 0;
 			for (int i = 0; i < cores; i++)
-				clusterProteinsForMarkerDbThreads.add(new ClusterProteinsThread(tmpFile, markerClusterOutputFolder,
-						null, aliFolder, minMarkerIdentity, mappingDatabase, taxTree, ClusteringMode.MARKER_DB));
+				clusterProteinsForMarkerDbThreads.add(new ClusterProteinsThread(markerClusterOutputFolder, null,
+						minMarkerIdentity, mappingDatabase, taxTree, ClusteringMode.MARKER_DB));
 			rL.runThreads(cores, clusterProteinsForMarkerDbThreads, totalFileLength);
 
 			if (rank.equals("genus")) {
 
 				System.out.println(
 						">Clustering for genus db " + faaFiles.size() + " protein " + ((n == 1) ? "set" : "sets"));
-				genusDominationFile = new File(srcPath + File.separator + "acc2dominator.tab");
-				genusDominationFile.delete();
 				List<Runnable> clusterProteinsForGenusDbThreads = new ArrayList<>();
-				try (BufferedWriter dominationWriter = new BufferedWriter(new FileWriter(genusDominationFile))) {
-					faaFilePointer = 0;
-					for (int i = 0; i < cores; i++)
-						clusterProteinsForGenusDbThreads.add(new ClusterProteinsThread(tmpFile, null, dominationWriter,
-								aliFolder, minGenusIdentity, mappingDatabase, taxTree, ClusteringMode.GENUS_DB));
-					rL.runThreads(cores, clusterProteinsForGenusDbThreads, totalFileLength);
-				}
+				faaFilePointer = 0;
+				for (int i = 0; i < cores; i++)
+					clusterProteinsForGenusDbThreads.add(new ClusterProteinsThread(null, mairaSink, minGenusIdentity,
+							mappingDatabase, taxTree, ClusteringMode.GENUS_DB));
+				rL.runThreads(cores, clusterProteinsForGenusDbThreads, totalFileLength);
 
 			}
 
@@ -127,28 +125,12 @@ public class ClusterManager {
 		return faaFile.getName().split("\\.")[0];
 	}
 
-	public File getGenusDominationFile() {
-		return genusDominationFile;
-	}
-
 	public File getMarkerClusterOutputFolder() {
 		return markerClusterOutputFolder;
 	}
 
-	public File getSpeciesDisjoinFile() {
-		return speciesDisjoinFile;
-	}
-
 	private class CollectNewProteinsThread implements Runnable {
 
-		private File tmpFile;
-		private String aliFolder;
-
-		public CollectNewProteinsThread(File tmpFile, String aliFolder) {
-			this.tmpFile = tmpFile;
-			this.aliFolder = aliFolder;
-		}
-
 		@Override
 		public void run() {
 			File faaFile;
@@ -156,7 +138,7 @@ public class ClusterManager {
 				try {
 					String genus = Formatter
 							.removeNonAlphanumerics(faaFile.getName().split("\\-")[1].replaceAll("\\.faa", ""));
-					SQLAlignmentDatabase alignmentDatabase = createAlignmentDatabase(aliFolder, genus, tmpFile);
+					AlignmentStore alignmentDatabase = registry.getReader(genus);
 					try {
 						File oldFile = new File(faaFile.getAbsolutePath().replaceAll("\\.faa", "_old.faa"));
 						oldFile.delete();
@@ -165,18 +147,18 @@ public class ClusterManager {
 						newFile.delete();
 						newFile.createNewFile();
 						try (BufferedWriter newWriter = new BufferedWriter(new FileWriter(newFile));
-								BufferedWriter oldWriter = new BufferedWriter(new FileWriter(oldFile));) {
-							List<FastaEntry> tokens = FastaReader.read(faaFile);
+								BufferedWriter oldWriter = new BufferedWriter(new FileWriter(oldFile));
+								FastaIterator tokens = FastaReader.iterate(faaFile)) {
 							for (FastaEntry token : tokens) {
 								String acc = token.getName();
 								if (!alignmentDatabase.containsAcc(acc))
-									newWriter.write(">" + acc + "\n" + token.getSequence() + "\n");
+									token.write(newWriter);
 								else
-									oldWriter.write(">" + acc + "\n" + token.getSequence() + "\n");
+									token.write(oldWriter);
 							}
 						}
 					} finally {
-						alignmentDatabase.close();
+						registry.release(alignmentDatabase);
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -197,20 +179,15 @@ public class ClusterManager {
 	private class AlignProteinsThread implements Runnable {
 
 		private File tmpFile;
-		private String aliFolder;
 		private int cores, identity;
 		private double blockSize;
-		private SQLMappingDatabase mappingDatabase;
 		private String diamondBin;
 
-		public AlignProteinsThread(File tmpFile, String aliFolder, int cores, double blockSize, int identity,
-				SQLMappingDatabase mappingDatabase, String diamondBin) {
+		public AlignProteinsThread(File tmpFile, int cores, double blockSize, int identity, String diamondBin) {
 			this.tmpFile = tmpFile;
-			this.aliFolder = aliFolder;
 			this.cores = cores;
 			this.blockSize = blockSize;
 			this.identity = identity;
-			this.mappingDatabase = createMappingDatabase(mappingDatabase);
 			this.diamondBin = diamondBin;
 		}
 
@@ -223,7 +200,7 @@ public class ClusterManager {
 				try {
 					String genus = Formatter
 							.removeNonAlphanumerics(faaFile.getName().split("\\-")[1].replaceAll("\\.faa", ""));
-					SQLAlignmentDatabase alignmentDatabase = createAlignmentDatabase(aliFolder, genus, tmpFile);
+					SQLAlignmentDatabase alignmentDatabase = registry.getWriter(genus);
 					File newFile = new File(faaFile.getAbsolutePath().replaceAll("\\.faa", "_new.faa"));
 					newFile.createNewFile();
 					File oldFile = new File(faaFile.getAbsolutePath().replaceAll("\\.faa", "_old.faa"));
@@ -247,7 +224,7 @@ public class ClusterManager {
 					} finally {
 						newFile.delete();
 						oldFile.delete();
-						alignmentDatabase.close();
+						registry.release(alignmentDatabase);
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -260,7 +237,6 @@ public class ClusterManager {
 				}
 			}
 
-			mappingDatabase.close();
 			rL.countDown();
 
 		}
@@ -268,22 +244,19 @@ public class ClusterManager {
 
 	private class ClusterProteinsThread implements Runnable {
 
-		private BufferedWriter dominationWriter;
-		private String aliFolder, outFolder;
-		private File tmpFile;
+		private MairaSink mairaSink;
+		private String outFolder;
 		private int identity;
 		private SQLMappingDatabase mappingDatabase;
 		private ClusteringMode mode;
 		private TaxTree taxTree;
 
-		public ClusterProteinsThread(File tmpFile, File outFolder, BufferedWriter dominationWriter, String aliFolder,
-				int identity, SQLMappingDatabase mappingDatabase, TaxTree taxTree, ClusteringMode mode) {
+		public ClusterProteinsThread(File outFolder, MairaSink mairaSink, int identity,
+				SQLMappingDatabase mappingDatabase, TaxTree taxTree, ClusteringMode mode) {
 			this.outFolder = outFolder != null ? outFolder.getAbsolutePath() : null;
-			this.tmpFile = tmpFile;
-			this.dominationWriter = dominationWriter;
+			this.mairaSink = mairaSink;
 			this.identity = identity;
-			this.aliFolder = aliFolder;
-			this.mappingDatabase = createMappingDatabase(mappingDatabase);
+			this.mappingDatabase = mappingDatabase;
 			this.taxTree = taxTree;
 			this.mode = mode;
 		}
@@ -301,7 +274,7 @@ public class ClusterManager {
 						genusOutFolder.mkdir();
 						outFolder = genusOutFolder.getAbsolutePath();
 					}
-					SQLAlignmentDatabase alignmentDatabase = createAlignmentDatabase(aliFolder, genus, tmpFile);
+					AlignmentStore alignmentDatabase = registry.getReader(genus);
 					try {
 						String proteinFileName = mode == ClusteringMode.MARKER_DB
 								? faaFile.getName().replaceAll("\\.faa", "_clustered.faa")
@@ -309,9 +282,9 @@ public class ClusterManager {
 						File proteinOutFile = new File(outFolder + File.separator + proteinFileName);
 						proteinOutFile.delete();
 						new Clustering().run(genusId, genus, alignmentDatabase, mappingDatabase, taxTree, faaFile,
-								proteinOutFile, dominationWriter, identity, mode);
+								proteinOutFile, mairaSink, identity, mode);
 					} finally {
-						alignmentDatabase.close();
+						registry.release(alignmentDatabase);
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -323,7 +296,6 @@ public class ClusterManager {
 					e.printStackTrace();
 				}
 			}
-			mappingDatabase.close();
 			rL.countDown();
 		}
 
@@ -331,21 +303,17 @@ public class ClusterManager {
 
 	private class SpeciesDisjoinComparatorThread {
 
-		private BufferedWriter speciesDisjoinWriter;
-		private String aliFolder;
-		private File tmpFile;
+		private MairaSink mairaSink;
 		private int minIdentity, minCoverage;
 		private SQLMappingDatabase mappingDatabase;
 		private int cores;
 
-		public SpeciesDisjoinComparatorThread(BufferedWriter speciesDisjoinWriter, String aliFolder, File tmpFile,
-				int identity, int coverage, SQLMappingDatabase mappingDatabase, int cores) {
-			this.speciesDisjoinWriter = speciesDisjoinWriter;
-			this.aliFolder = aliFolder;
-			this.tmpFile = tmpFile;
+		public SpeciesDisjoinComparatorThread(MairaSink mairaSink, int identity, int coverage,
+				SQLMappingDatabase mappingDatabase, int cores) {
+			this.mairaSink = mairaSink;
 			this.minIdentity = identity;
 			this.minCoverage = coverage;
-			this.mappingDatabase = createMappingDatabase(mappingDatabase);
+			this.mappingDatabase = mappingDatabase;
 			this.cores = cores;
 		}
 
@@ -356,12 +324,12 @@ public class ClusterManager {
 					String genus = Formatter
 							.removeNonAlphanumerics(faaFile.getName().split("\\-")[1].replaceAll("\\.faa", ""));
 					int genusId = Integer.parseInt(faaFile.getName().split("\\-")[0]);
-					SQLAlignmentDatabase alignmentDatabase = createAlignmentDatabase(aliFolder, genus, tmpFile);
+					AlignmentStore alignmentDatabase = registry.getReader(genus);
 					try {
 						new SpeciesDisjoinComparator2().run(faaFile, genus, genusId, alignmentDatabase, mappingDatabase,
-								speciesDisjoinWriter, minIdentity, minCoverage, cores);
+								mairaSink, minIdentity, minCoverage, cores);
 					} finally {
-						alignmentDatabase.close();
+						registry.release(alignmentDatabase);
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -373,19 +341,9 @@ public class ClusterManager {
 					e.printStackTrace();
 				}
 			}
-			mappingDatabase.close();
 			rL.countDown();
 		}
 
 	}
 
-	private synchronized SQLMappingDatabase createMappingDatabase(SQLMappingDatabase mappingDatabase) {
-		return new SQLMappingDatabase(mappingDatabase);
-	}
-
-	private synchronized SQLAlignmentDatabase createAlignmentDatabase(String aliFolder, String genus, File tmpFile)
-			throws ClassNotFoundException, SQLException {
-		return new SQLAlignmentDatabase(aliFolder, genus, tmpFile);
-	}
-
 }
@@ -1,21 +1,21 @@
 package mairaDatabase.refseq.step1_clustering;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import jloda.util.Pair;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
-import mairaDatabase.utils.FastaReader;
-import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentBatch;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentGroupReceiver;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
+import mairaDatabase.utils.AccessionIdMap;
+import mairaDatabase.utils.FastaIndex;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.SQLMappingDatabase;
-import mairaDatabase.utils.SparseString;
 import mairaDatabase.utils.taxTree.TaxTree;
 
 public class Clustering {
@@ -26,82 +26,167 @@ public class Clustering {
 
 	private int ID_THRESHOLD, COV_THRESHOLD;
 	private final static int MIN_PROTEINS_CLUSTER = 1000;
+	private final static int WINDOW_ROWS = 1 << 20, MAX_GAP_ROWS = 1 << 12;
 
-	public void run(int genusId, String genus, SQLAlignmentDatabase alignmentDatabase,
+	public void run(int genusId, String genus, AlignmentStore alignmentDatabase,
 			SQLMappingDatabase mappingDatabase, TaxTree taxTree, File faaFile, File proteinOutFile,
-			BufferedWriter dominationWriter, int MIN_ID, ClusteringMode mode) throws Exception {
+			MairaSink mairaSink, int MIN_ID, ClusteringMode mode) throws Exception {
 
 		long time = System.currentTimeMillis();
 		String table = genus + "_clusterTable";
 		COV_THRESHOLD = MIN_ID;
 		ID_THRESHOLD = MIN_ID;
-		List<FastaEntry> genusProteins = FastaReader.read(faaFile);
 
-		List<ClusterNode> clusterNodes = new ArrayList<>(genusProteins.size());
-		for (FastaEntry protein : genusProteins) {
-			SparseString acc = new SparseString(protein.getName());
-			int count = alignmentDatabase.getAlignmentCount(acc.toString(), table);
-			clusterNodes.add(new ClusterNode(acc, count));
-		}
-		Map<SparseString, ClusterNode> acc2node = new HashMap<>();
-		clusterNodes.stream().forEach(v -> acc2node.put(new SparseString(v.getAcc()), v));
-		Collections.sort(clusterNodes);
-
-		int selectedNodes = clusterNodes.size();
-		for (ClusterNode v : clusterNodes) {
-			List<AlignmentInfo> alis = alignmentDatabase.getAlignments(v.getAcc(), table);
-			for (AlignmentInfo ali : alis) {
-				ClusterNode w = acc2node.get(new SparseString(ali.getRef()));
-				boolean isSelfHit = ali.getQuery().equals(ali.getRef());
-				if (w != null && !isSelfHit && ali.getIdentity() > ID_THRESHOLD
-						&& ali.getRefCoverage() > COV_THRESHOLD) {
-					if (!v.isDominated() && !w.isDominated() && !w.isDominator()) {
-						w.setDominatedBy(v, ali);
-						selectedNodes--;
+		// only accessions and degrees are kept, the selected sequences are
+		// copied from the mapped faaFile when writing
+		long written = 0, loadedRows = 0, totalRows = 0;
+		try (FastaIndex proteins = FastaIndex.open(faaFile)) {
+			AccessionIdMap acc2id = alignmentDatabase.getAccessionIds();
+			int[] outDegrees = alignmentDatabase.getAlignmentCounts(table);
+			List<ClusterNode> clusterNodes = new ArrayList<>(proteins.size());
+			int[] clusterIds = new int[proteins.size()];
+			int maxId = -1;
+			for (int p = 0; p < proteins.size(); p++) {
+				int id = acc2id.get(proteins.getName(p));
+				int count = id >= 0 && id < outDegrees.length ? outDegrees[id] : 0;
+				clusterNodes.add(new ClusterNode(p, id, count));
+				clusterIds[p] = id;
+				maxId = Math.max(maxId, id);
+			}
+			// nodes in the order of the index entries, looked up by position when writing
+			ClusterNode[] proteinNodes = clusterNodes.toArray(new ClusterNode[clusterNodes.size()]);
+			ClusterNode[] id2node = new ClusterNode[maxId + 1];
+			for (int i = 0; i < clusterNodes.size(); i++) {
+				if (clusterIds[i] >= 0)
+					id2node[clusterIds[i]] = clusterNodes.get(i);
+			}
+			clusterIds = null;
+
+			Collections.sort(clusterNodes);
+
+			// the nodes are visited by decreasing out-degree, their candidate edges
+			// are loaded window by window, each window holding the alignments of at
+			// most WINDOW_ROWS rows, and loading stops together with the selection
+			long[] firstRows = new long[outDegrees.length + 1];
+			for (int id = 0; id < outDegrees.length; id++)
+				firstRows[id + 1] = firstRows[id] + outDegrees[id];
+			AlignmentBatch candidates = new AlignmentBatch(1 << 16);
+			int selectedNodes = clusterNodes.size(), next = 0, windows = 0;
+			boolean done = false;
+			while (!done && next < clusterNodes.size()) {
+				List<ClusterNode> window = new ArrayList<>();
+				long windowRows = 0;
+				for (; next < clusterNodes.size(); next++) {
+					ClusterNode v = clusterNodes.get(next);
+					if (!window.isEmpty() && windowRows + v.outDegree > WINDOW_ROWS)
+						break;
+					if (v.isDominated() || v.outDegree == 0)
+						continue;
+					v.window = windows;
+					window.add(v);
+					windowRows += v.outDegree;
+				}
+				if (window.isEmpty())
+					break;
+				loadCandidates(window, windows++, firstRows, id2node, alignmentDatabase, table, candidates);
+				loadedRows += windowRows;
+
+				for (ClusterNode v : window) {
+					for (int i = v.getFirstCandidate(); i < v.getLastCandidate(); i++) {
+						ClusterNode w = id2node[candidates.getRefId(i)];
+						if (!v.isDominated() && !w.isDominated() && !w.isDominator()) {
+							w.setDominatedBy(v, candidates, i);
+							selectedNodes--;
+						}
+					}
+
+					if (selectedNodes < MIN_PROTEINS_CLUSTER) {
+						done = true;
+						break;
 					}
 				}
 			}
-
-			if (selectedNodes < MIN_PROTEINS_CLUSTER)
-				break;
-		}
-		clusterNodes = null;
-
-		long written = 0;
-		try (BufferedWriter proteinsWriter = new BufferedWriter(new FileWriter(proteinOutFile))) {
-			for (FastaEntry protein : genusProteins) {
-				String acc = protein.getName();
-				String seq = protein.getSequence();
-				ClusterNode v = acc2node.get(new SparseString(acc));
-				if (!v.isDominated()) {
-					proteinsWriter.write(">" + acc + "\n" + seq + "\n");
-					written++;
-				} else if (mode == ClusteringMode.GENUS_DB) {
-					Pair<ClusterNode, AlignmentInfo> pair = v.getDominatedBy();
-					ClusterNode dominator = pair.getFirst();
-					AlignmentInfo aliInfo = pair.getSecond();
-					dominationWriter.write(v.getAcc() + "\t" + dominator.getAcc() + "\t" + aliInfo.getBtop() + "\t"
-							+ aliInfo.getQueryStart() + "\t" + aliInfo.getSubjectStart() + "\t"
-							+ aliInfo.getSubjectLen() + "\n");
+			totalRows = firstRows[outDegrees.length];
+			candidates = null;
+			clusterNodes = null;
+
+			FastaIndex.getFile(proteinOutFile).delete();
+			try (OutputStream proteinsWriter = new BufferedOutputStream(new FileOutputStream(proteinOutFile), 1 << 20)) {
+				for (int p = 0; p < proteins.size(); p++) {
+					ClusterNode v = proteinNodes[p];
+					if (!v.isDominated()) {
+						proteins.write(p, proteinsWriter);
+						written++;
+					} else if (mode == ClusteringMode.GENUS_DB) {
+						ClusterNode dominator = v.getDominator();
+						mairaSink.addDominator(genus, proteins.getName(p), proteins.getName(dominator.getEntry()),
+								alignmentDatabase.getBtop(table, v.rowId), v.qstart, v.sstart, v.slen);
+					}
 				}
 			}
-			genusProteins = null;
 		}
 
 		long runtime = (System.currentTimeMillis() - time) / 1000;
-		System.err.println(genus + ": " + written + " proteins reported (" + runtime + "s)");
+		System.err.println(genus + ": " + written + " proteins reported, " + loadedRows + " of " + totalRows
+				+ " alignments loaded (" + runtime + "s)");
+
+	}
 
+	/**
+	 * Fills the batch with the candidate edges of the window nodes. Their ids
+	 * are scanned in ascending ranges, neighbouring ids being merged into one
+	 * range as long as the rows skipped in between stay below MAX_GAP_ROWS.
+	 */
+	private void loadCandidates(List<ClusterNode> window, int windowId, long[] firstRows, ClusterNode[] id2node,
+			AlignmentStore alignmentDatabase, String table, AlignmentBatch candidates) {
+		candidates.reset(alignmentDatabase, table);
+		int[] ids = new int[window.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = window.get(i).id;
+		Arrays.sort(ids);
+		AlignmentGroupReceiver receiver = (queryId, alis) -> {
+			ClusterNode v = queryId < id2node.length ? id2node[queryId] : null;
+			if (v == null || v.window != windowId)
+				return;
+			int first = candidates.size();
+			for (int i = 0; i < alis.size(); i++) {
+				int refId = alis.getRefId(i);
+				ClusterNode w = refId < id2node.length ? id2node[refId] : null;
+				boolean isSelfHit = queryId == refId;
+				if (w != null && !isSelfHit && alis.getIdentity(i) > ID_THRESHOLD
+						&& alis.getRefCoverage(i) > COV_THRESHOLD)
+					candidates.add(alis, i);
+			}
+			v.setCandidates(first, candidates.size());
+		};
+		int from = ids[0], to = ids[0] + 1;
+		for (int i = 1; i < ids.length; i++) {
+			if (firstRows[ids[i]] - firstRows[to] > MAX_GAP_ROWS) {
+				alignmentDatabase.forEachAlignmentGroup(table, from, to, receiver);
+				from = ids[i];
+			}
+			to = ids[i] + 1;
+		}
+		alignmentDatabase.forEachAlignmentGroup(table, from, to, receiver);
 	}
 
 	public class ClusterNode implements Comparable<ClusterNode> {
 
 		private int outDegree;
-		private SparseString acc;
-		private Pair<ClusterNode, AlignmentInfo> dominatedBy;
+		private int entry, id, window = -1;
+		private ClusterNode dominator;
+		private long rowId;
+		private int qstart, sstart, slen;
+		private int firstCandidate = 0, lastCandidate = 0;
 		private boolean isDominator = false;
 
-		public ClusterNode(SparseString acc, int outDegree) {
-			this.acc = acc;
+		/**
+		 * The node of the protein at the given entry of the FastaIndex, id being
+		 * its qacc_id.
+		 */
+		public ClusterNode(int entry, int id, int outDegree) {
+			this.entry = entry;
+			this.id = id;
 			this.outDegree = outDegree;
 		}
 
@@ -110,21 +195,46 @@ public class Clustering {
 			return Integer.compare(v.outDegree, outDegree);
 		}
 
-		public String getAcc() {
-			return acc.toString();
+		public int getEntry() {
+			return entry;
+		}
+
+		/**
+		 * Candidate edges are the rows first (inclusive) to last (exclusive) of the
+		 * candidate batch of the current window.
+		 */
+		public void setCandidates(int first, int last) {
+			this.firstCandidate = first;
+			this.lastCandidate = last;
+		}
+
+		public int getFirstCandidate() {
+			return firstCandidate;
+		}
+
+		public int getLastCandidate() {
+			return lastCandidate;
 		}
 
-		public void setDominatedBy(ClusterNode v, AlignmentInfo aliInfo) {
+		/**
+		 * Keeps the dominating alignment, as the candidate batch is reused by the
+		 * next window.
+		 */
+		public void setDominatedBy(ClusterNode v, AlignmentBatch candidates, int i) {
 			v.setDominator(true);
-			dominatedBy = new Pair<>(v, aliInfo);
+			dominator = v;
+			rowId = candidates.getRowId(i);
+			qstart = candidates.getQueryStart(i);
+			sstart = candidates.getSubjectStart(i);
+			slen = candidates.getSubjectLen(i);
 		}
 
 		public boolean isDominated() {
-			return dominatedBy != null;
+			return dominator != null;
 		}
 
-		public Pair<ClusterNode, AlignmentInfo> getDominatedBy() {
-			return dominatedBy;
+		public ClusterNode getDominator() {
+			return dominator;
 		}
 
 		public boolean isDominator() {
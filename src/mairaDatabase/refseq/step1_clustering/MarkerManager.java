@@ -4,7 +4,6 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -15,9 +14,12 @@ import java.util.Set;
 
 import mairaDatabase.refseq.utils.DiamondRunner;
 import mairaDatabase.refseq.utils.Formatter;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentDatabaseRegistry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
 import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
 import mairaDatabase.utils.FastaReader;
 import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
 import mairaDatabase.utils.FileUtils;
 import mairaDatabase.utils.ResourceLoader;
 import mairaDatabase.utils.SQLMappingDatabase;
@@ -31,14 +33,16 @@ public class MarkerManager {
 	private int faaFilePointer = 0;
 	private Set<String> oldAccessions = new HashSet<>();
 	private Set<String> newAccessions = new HashSet<>();
+	private AlignmentDatabaseRegistry registry;
 
-	public void runMarker(String rank, String srcPath, String aliFolder, File markerClusterFolder, TaxTree taxTree,
-			SQLMappingDatabase mappingDatabase, int cores, double blockSize, int identity, File tmpFile,
-			String diamondBin) {
+	public void runMarker(String rank, String srcPath, AlignmentDatabaseRegistry registry, File markerClusterFolder,
+			TaxTree taxTree, SQLMappingDatabase mappingDatabase, int cores, double blockSize, int identity,
+			File tmpFile, String diamondBin) {
+
+		this.registry = registry;
 
 		try {
 
-			SQLAlignmentDatabase genusAliDatabase = createAlignmentDatabase(aliFolder, "Genus", tmpFile);
 			markerOutputFolder = new File(srcPath + File.separator + rank + "_marker_proteins");
 			markerOutputFolder.mkdir();
 			faaFiles = new ArrayList<>(Arrays.asList(
@@ -53,8 +57,7 @@ public class MarkerManager {
 			List<Runnable> collectNewProteinsThreads = new ArrayList<>();
 			faaFilePointer = 0;
 			for (int i = 0; i < cores; i++)
-				collectNewProteinsThreads
-						.add(new CollectNewProteinsThread(tmpFile, markerOutputFolder.getAbsolutePath(), aliFolder));
+				collectNewProteinsThreads.add(new CollectNewProteinsThread(markerOutputFolder.getAbsolutePath()));
 			rL.runThreads(cores, collectNewProteinsThreads, totalFileLength);
 
 			System.out.println(">Collecting old proteins");
@@ -73,32 +76,37 @@ public class MarkerManager {
 				appendToFile(f, newProteins, newAccessions);
 			newAccessions = null;
 
-			System.out.println(">Aligning new vs old proteins using DIAMOND");
-			rL.setTime();
-			File oldDb = DiamondRunner.makedb(oldProteins, cores, diamondBin);
-			oldDb.deleteOnExit();
-			File tabFile1 = DiamondRunner.blastp(oldDb, newProteins, tmpFile, identity, blockSize, cores, diamondBin);
-			genusAliDatabase.addAlignmentTable("Genus" + "_markerTable", null, tabFile1, false);
-			tabFile1.delete();
-			oldDb.delete();
-			rL.getUptime();
-
-			System.out.println(">Aligning old vs new proteins using DIAMOND");
-			rL.setTime();
-			File newDb = DiamondRunner.makedb(newProteins, cores, diamondBin);
-			newDb.deleteOnExit();
-			File tabFile2 = DiamondRunner.blastp(newDb, oldProteins, tmpFile, identity, blockSize, cores, diamondBin);
-			genusAliDatabase.addAlignmentTable("Genus" + "_markerTable", null, tabFile2, false);
-			tabFile2.delete();
-			rL.getUptime();
-
-			System.out.println(">Aligning new vs new proteins using DIAMOND");
-			rL.setTime();
-			File tabFile3 = DiamondRunner.blastp(newDb, newProteins, tmpFile, identity, blockSize, cores, diamondBin);
-			genusAliDatabase.addAlignmentTable("Genus" + "_markerTable", null, tabFile3, false);
-			tabFile3.delete();
-			newDb.delete();
-			rL.getUptime();
+			SQLAlignmentDatabase genusAliDatabase = registry.getWriter("Genus");
+			try {
+				System.out.println(">Aligning new vs old proteins using DIAMOND");
+				rL.setTime();
+				File oldDb = DiamondRunner.makedb(oldProteins, cores, diamondBin);
+				oldDb.deleteOnExit();
+				File tabFile1 = DiamondRunner.blastp(oldDb, newProteins, tmpFile, identity, blockSize, cores, diamondBin);
+				genusAliDatabase.addAlignmentTable("Genus" + "_markerTable", null, tabFile1, false);
+				tabFile1.delete();
+				oldDb.delete();
+				rL.getUptime();
+
+				System.out.println(">Aligning old vs new proteins using DIAMOND");
+				rL.setTime();
+				File newDb = DiamondRunner.makedb(newProteins, cores, diamondBin);
+				newDb.deleteOnExit();
+				File tabFile2 = DiamondRunner.blastp(newDb, oldProteins, tmpFile, identity, blockSize, cores, diamondBin);
+				genusAliDatabase.addAlignmentTable("Genus" + "_markerTable", null, tabFile2, false);
+				tabFile2.delete();
+				rL.getUptime();
+
+				System.out.println(">Aligning new vs new proteins using DIAMOND");
+				rL.setTime();
+				File tabFile3 = DiamondRunner.blastp(newDb, newProteins, tmpFile, identity, blockSize, cores, diamondBin);
+				genusAliDatabase.addAlignmentTable("Genus" + "_markerTable", null, tabFile3, false);
+				tabFile3.delete();
+				newDb.delete();
+				rL.getUptime();
+			} finally {
+				registry.release(genusAliDatabase);
+			}
 
 			oldProteins.delete();
 			newProteins.delete();
@@ -107,8 +115,8 @@ public class MarkerManager {
 			List<Runnable> selectMarkersThreads = new ArrayList<>();
 			faaFilePointer = 0;
 			for (int i = 0; i < cores; i++)
-				selectMarkersThreads.add(new SelectMarkersThread(tmpFile, identity, aliFolder, markerOutputFolder,
-						taxTree, mappingDatabase));
+				selectMarkersThreads.add(new SelectMarkersThread(identity, markerOutputFolder, taxTree,
+						mappingDatabase));
 			rL.runThreads(cores, selectMarkersThreads, totalFileLength);
 
 			// removing new files
@@ -138,20 +146,17 @@ public class MarkerManager {
 
 	private class SelectMarkersThread implements Runnable {
 
-		private String outFolder, aliFolder;
-		private File tmpFile;
+		private String outFolder;
 		private int identity;
 		private TaxTree taxTree;
 		private SQLMappingDatabase mappingDatabase;
 
-		public SelectMarkersThread(File tmpFile, int identity, String aliFolder, File outFolder, TaxTree taxTree,
+		public SelectMarkersThread(int identity, File outFolder, TaxTree taxTree,
 				SQLMappingDatabase mappingDatabase) {
-			this.tmpFile = tmpFile;
 			this.identity = identity;
-			this.aliFolder = aliFolder;
 			this.outFolder = outFolder.getAbsolutePath();
 			this.taxTree = taxTree;
-			this.mappingDatabase = createMappingDatabase(mappingDatabase);
+			this.mappingDatabase = mappingDatabase;
 		}
 
 		@Override
@@ -162,20 +167,19 @@ public class MarkerManager {
 					String genus = Formatter.removeNonAlphanumerics(
 							faaFile.getName().split("\\-")[1].replaceAll("_clustered\\.faa", ""));
 					int genusId = Integer.parseInt(faaFile.getName().split("\\-")[0]);
-					SQLAlignmentDatabase alignmentDatabase = createAlignmentDatabase(aliFolder, "Genus", tmpFile);
+					AlignmentStore alignmentDatabase = registry.getReader("Genus");
 					try {
 						File outFile = new File(outFolder + File.separator + genusId + "-" + genus + "_marker.faa");
 						new Selecting().run(genus, taxTree, mappingDatabase, alignmentDatabase, faaFile, outFile,
 								identity, identity);
 					} finally {
-						alignmentDatabase.close();
+						registry.release(alignmentDatabase);
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
 				rL.reportProgress(faaFile.length());
 			}
-			mappingDatabase.close();
 			rL.countDown();
 		}
 
@@ -183,15 +187,12 @@ public class MarkerManager {
 
 	private class CollectNewProteinsThread implements Runnable {
 
-		private File tmpFile;
-		private String outFolder, aliFolder;
+		private String outFolder;
 		private List<File> newFiles = new ArrayList<>();
 		private List<File> oldFiles = new ArrayList<>();
 
-		public CollectNewProteinsThread(File tmpFile, String outFolder, String aliFolder) {
-			this.tmpFile = tmpFile;
+		public CollectNewProteinsThread(String outFolder) {
 			this.outFolder = outFolder;
-			this.aliFolder = aliFolder;
 		}
 
 		@Override
@@ -202,7 +203,7 @@ public class MarkerManager {
 				try {
 					String genus = Formatter.removeNonAlphanumerics(
 							faaFile.getName().split("\\-")[1].replaceAll("_clustered\\.faa", ""));
-					SQLAlignmentDatabase sqlAliDatabase = createAlignmentDatabase(aliFolder, "Genus", tmpFile);
+					AlignmentStore sqlAliDatabase = registry.getReader("Genus");
 					try {
 						File newFile = new File(outFolder + File.separator + genus + "_new.faa");
 						newFile.createNewFile();
@@ -211,19 +212,17 @@ public class MarkerManager {
 						oldFile.createNewFile();
 						oldFiles.add(oldFile);
 						try (BufferedWriter newWriter = new BufferedWriter(new FileWriter(newFile));
-								BufferedWriter oldWriter = new BufferedWriter(new FileWriter(oldFile))) {
-							ArrayList<FastaEntry> tokens = FastaReader.read(faaFile);
+								BufferedWriter oldWriter = new BufferedWriter(new FileWriter(oldFile));
+								FastaIterator tokens = FastaReader.iterate(faaFile)) {
 							for (FastaEntry o : tokens) {
-								String acc = o.getName();
-								String entry = ">" + acc + "\n" + o.getSequence() + "\n";
-								if (!sqlAliDatabase.containsAcc(acc))
-									newWriter.write(entry);
+								if (!sqlAliDatabase.containsAcc(o.getName()))
+									o.write(newWriter);
 								else
-									oldWriter.write(entry);
+									o.write(oldWriter);
 							}
 						}
 					} finally {
-						sqlAliDatabase.close();
+						registry.release(sqlAliDatabase);
 					}
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -235,21 +234,14 @@ public class MarkerManager {
 		}
 	}
 
-	private synchronized SQLMappingDatabase createMappingDatabase(SQLMappingDatabase mappingDatabase) {
-		return new SQLMappingDatabase(mappingDatabase);
-	}
-
-	private synchronized SQLAlignmentDatabase createAlignmentDatabase(String aliFolder, String genus, File tmpFile)
-			throws ClassNotFoundException, SQLException {
-		return new SQLAlignmentDatabase(aliFolder, genus, tmpFile);
-	}
-
 	private void appendToFile(File source, File target, Set<String> addedAccession) throws IOException {
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(target, true))) {
-			for (FastaEntry token : FastaReader.read(source)) {
+		// duplicates are skipped through addedAccession
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(target, true));
+				FastaIterator tokens = FastaReader.iterate(source, false)) {
+			for (FastaEntry token : tokens) {
 				if (!addedAccession.contains(token.getName())) {
 					addedAccession.add(token.getName());
-					writer.write(">" + token.getName() + "\n" + token.getSequence() + "\n");
+					token.write(writer);
 				}
 			}
 		}
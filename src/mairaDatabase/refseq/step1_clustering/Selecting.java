@@ -1,16 +1,17 @@
 package mairaDatabase.refseq.step1_clustering;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import mairaDatabase.refseq.RefseqManager;
 import mairaDatabase.refseq.utils.Formatter;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
-import mairaDatabase.utils.FastaReader;
-import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentBatch;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
+import mairaDatabase.utils.AccessionIdMap;
+import mairaDatabase.utils.FastaIndex;
 import mairaDatabase.utils.SQLMappingDatabase;
 import mairaDatabase.utils.taxTree.TaxNode;
 import mairaDatabase.utils.taxTree.TaxTree;
@@ -22,39 +23,51 @@ public class Selecting {
 	private final static int MIN_PROTEINS_SELECT = 100;
 
 	public void run(String genus, TaxTree taxTree, SQLMappingDatabase mappingDatabase,
-			SQLAlignmentDatabase alignmentDatabase, File faaFile, File outFile, int MIN_COV, int MIN_ID) {
+			AlignmentStore alignmentDatabase, File faaFile, File outFile, int MIN_COV, int MIN_ID) {
 
 		this.COV_THRESHOLD = MIN_COV;
 		this.ID_THRESHOLD = MIN_ID;
 		this.taxTree = taxTree;
-		List<FastaEntry> clusteringProteins = FastaReader.read(faaFile);
 		long time = System.currentTimeMillis();
 
-		int selectedNodes = clusteringProteins.size();
+		String table = "Genus_markerTable";
+		AlignmentBatch alis = new AlignmentBatch();
+		int selectedNodes = 0;
 		try {
-			try (BufferedWriter writer = new BufferedWriter(new FileWriter(outFile))) {
-				for (FastaEntry protein : clusteringProteins) {
-					String acc = protein.getName();
-					List<AlignmentInfo> alis = alignmentDatabase.getAlignments(acc, "Genus_markerTable");
+			// the selected sequences are copied from the mapped faaFile
+			FastaIndex.getFile(outFile).delete();
+			// alignments are resolved by id, the accessions are looked up once per genus
+			AccessionIdMap acc2id = alignmentDatabase.getAccessionIds();
+			String[] accessions = alignmentDatabase.getAccessions();
+			try (FastaIndex clusteringProteins = FastaIndex.open(faaFile);
+					OutputStream writer = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 20)) {
+				selectedNodes = clusteringProteins.size();
+				for (int p = 0; p < clusteringProteins.size(); p++) {
+					int accId = acc2id.get(clusteringProteins.getName(p));
+					if (accId != AccessionIdMap.NO_ID)
+						alignmentDatabase.getAlignments(accId, table, alis);
+					else
+						alis.reset(alignmentDatabase, table);
 					boolean selectProtein = true;
-					if (protein.getSequenceLength() < RefseqManager.MIN_LENGTH)
+					if (clusteringProteins.getSequenceLength(p) < RefseqManager.MIN_LENGTH)
 						selectProtein = false;
 					else if (selectedNodes > MIN_PROTEINS_SELECT) {
-						for (AlignmentInfo ali : alis) {
-							String refGenus = getRank(mappingDatabase.getTaxIdByAcc(ali.getRef()), "genus");
+						for (int i = 0; i < alis.size(); i++) {
+							String ref = accessions[alis.getRefId(i)];
+							String refGenus = getRank(mappingDatabase.getTaxIdByAcc(ref), "genus");
 							if (refGenus == null) {
 								selectProtein = false;
 								break;
-							} else if (!refGenus.equals(genus) && ali.getIdentity() > ID_THRESHOLD
-									&& (ali.getQueryCoverage() > COV_THRESHOLD
-											|| ali.getRefCoverage() > COV_THRESHOLD)) {
+							} else if (!refGenus.equals(genus) && alis.getIdentity(i) > ID_THRESHOLD
+									&& (alis.getQueryCoverage(i) > COV_THRESHOLD
+											|| alis.getRefCoverage(i) > COV_THRESHOLD)) {
 								selectProtein = false;
 								break;
 							}
 						}
 					}
 					if (selectProtein)
-						writer.write(">" + acc + "\n" + protein.getSequence() + "\n");
+						clusteringProteins.write(p, writer);
 					else
 						selectedNodes--;
 				}
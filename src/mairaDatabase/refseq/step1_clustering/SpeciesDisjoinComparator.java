@@ -1,6 +1,5 @@
 package mairaDatabase.refseq.step1_clustering;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -19,6 +18,8 @@ import jloda.util.Pair;
 import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
 import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
 import mairaDatabase.utils.ResourceLoader;
+import mairaDatabase.utils.GenomeMetadata;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.SQLMappingDatabase;
 
 public class SpeciesDisjoinComparator {
@@ -39,7 +40,7 @@ public class SpeciesDisjoinComparator {
 	private Set<Integer> sourceSpeciesIds, targetSpeciesIds;
 
 	public void run(File faaFile, String genus, int genusId, SQLAlignmentDatabase alignmentDatabase,
-			SQLMappingDatabase mappingDatabase, BufferedWriter speciesDisjoinWriter, int MIN_ID, int MIN_COV,
+			SQLMappingDatabase mappingDatabase, MairaSink mairaSink, int MIN_ID, int MIN_COV,
 			int cores) {
 
 		System.out.println(">Assessing species disjoints for " + genus);
@@ -85,8 +86,7 @@ public class SpeciesDisjoinComparator {
 					genomeOverlaps.clear();;
 
 					for (Entry<IntPair, Double> e : minSpeciesDisjoint.entrySet())
-						speciesDisjoinWriter
-								.write(e.getKey().getFirst() + "\t" + e.getKey().getSecond() + "\t" + e.getValue() + "\n");
+						mairaSink.addSpeciesDisjoint(genus, e.getKey().getFirst(), e.getKey().getSecond(), e.getValue());
 
 					long runtime = (System.currentTimeMillis() - time) / 1000;
 					System.err.println(
@@ -122,10 +122,10 @@ public class SpeciesDisjoinComparator {
 
 	private class SpeciesDisjointThread extends Thread {
 
-		private SQLMappingDatabase mappingDatabase;
+		private GenomeMetadata genomes;
 
 		public SpeciesDisjointThread(SQLMappingDatabase mappingDatabase) {
-			this.mappingDatabase = new SQLMappingDatabase(mappingDatabase);
+			this.genomes = mappingDatabase.getGenomeMetadata();
 		}
 
 		@Override
@@ -136,12 +136,12 @@ public class SpeciesDisjoinComparator {
 				for (Entry<IntPair, Integer> e : overlaps) {
 					IntPair genomePair = e.getKey();
 					int overlap1 = e.getValue();
-					double size1 = mappingDatabase.getSizeByGCF(genomePair.getFirst());
+					double size1 = genomes.getSize(genomePair.getFirst());
 					double disjoint1 = size1 - overlap1;
 					double disjointPerc1 = (disjoint1 / size1) * 100.;
-					Integer species1 = mappingDatabase.getSpeciesIdByGCF(genomePair.getFirst());
-					Integer species2 = mappingDatabase.getSpeciesIdByGCF(genomePair.getSecond());
-					if (species1 != null && species2 != null) {
+					int species1 = genomes.getSpeciesId(genomePair.getFirst());
+					int species2 = genomes.getSpeciesId(genomePair.getSecond());
+					if (species1 != GenomeMetadata.NO_ID && species2 != GenomeMetadata.NO_ID) {
 						IntPair speciesPair = new IntPair(species1, species2);
 						double curDisjointPerc = localMinSpeciesDisjoint.computeIfAbsent(speciesPair, key -> 100.);
 						if (disjointPerc1 < curDisjointPerc)
@@ -151,7 +151,6 @@ public class SpeciesDisjoinComparator {
 				}
 				submitSpeciesDisjoints(localMinSpeciesDisjoint);
 			}
-			mappingDatabase.close();
 			rL.countDown();
 		}
 
@@ -1,9 +1,12 @@
 package mairaDatabase.refseq.step1_clustering;
 
-import java.io.BufferedWriter;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -13,10 +16,11 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentBatch;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
+import mairaDatabase.utils.GenomeMetadata;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.ResourceLoader;
 import mairaDatabase.utils.SQLMappingDatabase;
 
@@ -31,10 +35,11 @@ public class SpeciesDisjoinComparator2 {
 
 	private Map<IntPair, Double> minSpeciesDisjoint = new ConcurrentHashMap<>();
 	private ResourceLoader rL = new ResourceLoader();
-	private Iterator<String> genomesIterator;
+	private Iterator<Integer> genomesIterator;
+	private String[] accessions;
 
-	public void run(File faaFile, String genus, int genusId, SQLAlignmentDatabase alignmentDatabase,
-			SQLMappingDatabase mappingDatabase, BufferedWriter speciesDisjoinWriter, int MIN_ID, int MIN_COV,
+	public void run(File faaFile, String genus, int genusId, AlignmentStore alignmentDatabase,
+			SQLMappingDatabase mappingDatabase, MairaSink mairaSink, int MIN_ID, int MIN_COV,
 			int cores) {
 
 		System.out.println(">Assessing species disjoints for " + genus);
@@ -44,7 +49,15 @@ public class SpeciesDisjoinComparator2 {
 			long time = System.currentTimeMillis();
 			String table = genus + "_clusterTable";
 
-			List<String> genusGenomes = mappingDatabase.getGCFByGenus(genusId);
+			// alignments are resolved by id, the accessions are looked up once per genus
+			accessions = alignmentDatabase.getAccessions();
+			String fingerprint = getFingerprint(genusId, table, alignmentDatabase, mappingDatabase, MIN_ID, MIN_COV);
+			if (mairaSink.keepSpeciesDisjoints(genus, fingerprint)) {
+				System.err.println(genus + ": species disjoints unchanged, kept from previous release");
+				return;
+			}
+
+			List<Integer> genusGenomes = mappingDatabase.getGenomeMetadata().getGenomesByGenus(genusId);
 			genomesIterator = genusGenomes.iterator();
 			List<Runnable> speciesDisjointThreads = new ArrayList<>();
 			for (int i = 0; i < cores; i++) {
@@ -55,8 +68,7 @@ public class SpeciesDisjoinComparator2 {
 			rL.runThreads(cores, speciesDisjointThreads, genusGenomes.size());
 
 			for (Entry<IntPair, Double> e : minSpeciesDisjoint.entrySet())
-				speciesDisjoinWriter
-						.write(e.getKey().getFirst() + "\t" + e.getKey().getSecond() + "\t" + e.getValue() + "\n");
+				mairaSink.addSpeciesDisjoint(genus, e.getKey().getFirst(), e.getKey().getSecond(), e.getValue());
 
 			long runtime = (System.currentTimeMillis() - time) / 1000;
 			System.err.println(
@@ -69,8 +81,52 @@ public class SpeciesDisjoinComparator2 {
 
 	}
 
-	private synchronized List<String> nextGenusGenomes() {
-		List<String> genomes = new ArrayList<>();
+	/**
+	 * Digest of all inputs of the disjoints of a genus: the thresholds, the
+	 * genomes of the genus, the number of alignments per query accession, as
+	 * alignments are only ever appended, and the genomes and species of every
+	 * accession of the alignment database. Genomes are named by their GCF
+	 * accession, which changes with every new assembly version.
+	 */
+	private String getFingerprint(int genusId, String table, AlignmentStore alignmentDatabase,
+			SQLMappingDatabase mappingDatabase, int MIN_ID, int MIN_COV) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		GenomeMetadata genomes = mappingDatabase.getGenomeMetadata();
+		update(digest, MIN_ID + "\t" + MIN_COV);
+		update(digest, getGenomes(genomes, genomes.getGenomesByGenus(genusId)));
+		int[] counts = alignmentDatabase.getAlignmentCounts(table);
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0)
+				update(digest, id + "\t" + counts[id]);
+		}
+		for (int id = 0; id < accessions.length; id++) {
+			if (accessions[id] == null)
+				continue;
+			List<Integer> gcfIds = new ArrayList<>();
+			for (int gcfId : mappingDatabase.getGcfIdsByAcc(accessions[id]))
+				gcfIds.add(gcfId);
+			update(digest, id + "\t" + accessions[id] + "\t" + getGenomes(genomes, gcfIds));
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	private static String getGenomes(GenomeMetadata genomes, List<Integer> gcfIds) {
+		List<String> names = new ArrayList<>();
+		for (int gcfId : gcfIds)
+			names.add(genomes.getGcf(gcfId) + ":" + genomes.getSpeciesId(gcfId));
+		Collections.sort(names);
+		return String.join(",", names);
+	}
+
+	private static void update(MessageDigest digest, String line) {
+		digest.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	private synchronized List<Integer> nextGenusGenomes() {
+		List<Integer> genomes = new ArrayList<>();
 		while (genomesIterator.hasNext() && genomes.size() < 10) {
 			genomes.add(genomesIterator.next());
 		}
@@ -81,14 +137,16 @@ public class SpeciesDisjoinComparator2 {
 
 		private String table;
 		private SQLMappingDatabase mappingDatabase;
-		private SQLAlignmentDatabase alignmentDatabase;
+		private GenomeMetadata genomes;
+		private AlignmentStore alignmentDatabase;
 		private int MIN_ID, MIN_COV;
 
 		public SpeciesDisjointThread(String table, SQLMappingDatabase mappingDatabase,
-				SQLAlignmentDatabase alignmentDatabase, int MIN_ID, int MIN_COV)
+				AlignmentStore alignmentDatabase, int MIN_ID, int MIN_COV)
 				throws ClassNotFoundException, SQLException {
 			this.table = table;
 			this.mappingDatabase = mappingDatabase;
+			this.genomes = mappingDatabase.getGenomeMetadata();
 			this.alignmentDatabase = alignmentDatabase;
 			this.MIN_ID = MIN_ID;
 			this.MIN_COV = MIN_COV;
@@ -96,75 +154,67 @@ public class SpeciesDisjoinComparator2 {
 
 		@Override
 		public void run() {
-			List<String> genomeBatch = null;
+			AlignmentStore alignmentDatabase;
+			try {
+				alignmentDatabase = this.alignmentDatabase.attach(mappingDatabase);
+			} catch (ClassNotFoundException | SQLException e) {
+				e.printStackTrace();
+				rL.countDown();
+				return;
+			}
+
+			AlignmentBatch alis = new AlignmentBatch();
+			List<Integer> genomeBatch = null;
 			while (!(genomeBatch = nextGenusGenomes()).isEmpty()) {
 
-				for (String gcf : genomeBatch) {
-
-					try {
-
-						mappingDatabase = new SQLMappingDatabase(mappingDatabase);
-						alignmentDatabase = new SQLAlignmentDatabase(alignmentDatabase, mappingDatabase);
-
-						Integer gcfId = mappingDatabase.getGcfId(gcf);
-						if (gcfId == null)
-							continue;
-						Integer speciesId = mappingDatabase.getSpeciesIdByGCF(gcfId);
-						if (speciesId == null)
-							continue;
-
-						TreeMap<IntPair, Integer> genomeOverlaps = new TreeMap<>();
-						Map<Integer, List<AlignmentInfo>> proteinAlignments = alignmentDatabase
-								.getGenomeProteinAlignments(gcfId, table).stream()
-								.collect(Collectors.groupingBy(AlignmentInfo::getQueryId));
-
-						for (Entry<Integer, List<AlignmentInfo>> e : proteinAlignments.entrySet()) {
-							if (e.getKey() == null)
-								continue;
-							int accId = e.getKey();
-							List<AlignmentInfo> alis = e.getValue().stream()
-									.filter(a -> a.getRefCoverage() > MIN_COV && a.getIdentity() > MIN_ID)
-									.collect(Collectors.toList());
-							AlignedProtein p = new AlignedProtein(accId, gcfId, speciesId);
-							for (AlignmentInfo ali : alis)
-								p.addDominatingNode(ali.getRefId(), alignmentDatabase);
-							for (IntPair genomePair : p.getGenomeOverlapInfo(alignmentDatabase)) {
-								int curOverlap = genomeOverlaps.computeIfAbsent(genomePair, key -> 0);
-								genomeOverlaps.put(genomePair, curOverlap + 1);
-							}
-							p.freeMemory();
+				for (int gcfId : genomeBatch) {
 
-						}
+					int speciesId = genomes.getSpeciesId(gcfId);
+					if (speciesId == GenomeMetadata.NO_ID)
+						continue;
 
-						for (Entry<IntPair, Integer> e : genomeOverlaps.entrySet()) {
-							IntPair genomePair = e.getKey();
-							int overlap1 = e.getValue();
-							double size1 = mappingDatabase.getSizeByGCF(genomePair.getFirst());
-							double disjoint1 = size1 - overlap1;
-							double disjointPerc1 = (disjoint1 / size1) * 100.;
-							Integer species1 = mappingDatabase.getSpeciesIdByGCF(genomePair.getFirst());
-							Integer species2 = mappingDatabase.getSpeciesIdByGCF(genomePair.getSecond());
-							if (species1 != null && species2 != null) {
-								IntPair speciesPair = new IntPair(species1, species2);
-								double curDisjointPerc = minSpeciesDisjoint.computeIfAbsent(speciesPair, key -> 100.);
-								if (disjointPerc1 < curDisjointPerc)
-									minSpeciesDisjoint.put(speciesPair, disjointPerc1);
-							}
+					TreeMap<IntPair, Integer> genomeOverlaps = new TreeMap<>();
+					alignmentDatabase.getGenomeProteinAlignments(gcfId, table, alis);
+
+					int i = 0;
+					while (i < alis.size()) {
+						int accId = alis.getQueryId(i);
+						AlignedProtein p = new AlignedProtein(accId, gcfId, speciesId);
+						for (; i < alis.size() && alis.getQueryId(i) == accId; i++) {
+							if (alis.getRefCoverage(i) > MIN_COV && alis.getIdentity(i) > MIN_ID)
+								p.addDominatingNode(alis.getRefId(i), alignmentDatabase, mappingDatabase);
+						}
+						for (IntPair genomePair : p.getGenomeOverlapInfo(alignmentDatabase, mappingDatabase)) {
+							int curOverlap = genomeOverlaps.computeIfAbsent(genomePair, key -> 0);
+							genomeOverlaps.put(genomePair, curOverlap + 1);
 						}
+						p.freeMemory();
 
-						rL.reportProgress(1);
+					}
 
-					} catch (ClassNotFoundException | SQLException e1) {
-						e1.printStackTrace();
+					for (Entry<IntPair, Integer> e : genomeOverlaps.entrySet()) {
+						IntPair genomePair = e.getKey();
+						int overlap1 = e.getValue();
+						double size1 = genomes.getSize(genomePair.getFirst());
+						double disjoint1 = size1 - overlap1;
+						double disjointPerc1 = (disjoint1 / size1) * 100.;
+						int species1 = genomes.getSpeciesId(genomePair.getFirst());
+						int species2 = genomes.getSpeciesId(genomePair.getSecond());
+						if (species1 != GenomeMetadata.NO_ID && species2 != GenomeMetadata.NO_ID) {
+							IntPair speciesPair = new IntPair(species1, species2);
+							double curDisjointPerc = minSpeciesDisjoint.computeIfAbsent(speciesPair, key -> 100.);
+							if (disjointPerc1 < curDisjointPerc)
+								minSpeciesDisjoint.put(speciesPair, disjointPerc1);
+						}
 					}
 
-					alignmentDatabase.close();
-					mappingDatabase.close();
+					rL.reportProgress(1);
 
 				}
 
 			}
 
+			alignmentDatabase.close();
 			rL.countDown();
 
 		}
@@ -241,30 +291,30 @@ public class SpeciesDisjoinComparator2 {
 			this.speciesId = speciesId;
 		}
 
-		public Set<IntPair> getGenomeOverlapInfo(SQLAlignmentDatabase alignmentDatabase) {
-			Set<IntPair> genomeOverlapInfo = getGenomeOverlaps(accId, alignmentDatabase);
+		public Set<IntPair> getGenomeOverlapInfo(AlignmentStore alignmentDatabase,
+				SQLMappingDatabase mappingDatabase) {
+			Set<IntPair> genomeOverlapInfo = getGenomeOverlaps(accId, alignmentDatabase, mappingDatabase);
 			for (int domId : dominatingNodeIds)
-				genomeOverlapInfo.addAll(getGenomeOverlaps(domId, alignmentDatabase));
+				genomeOverlapInfo.addAll(getGenomeOverlaps(domId, alignmentDatabase, mappingDatabase));
 			return genomeOverlapInfo;
 		}
 
-		public void addDominatingNode(int refId, SQLAlignmentDatabase alignmentDatabase) {
-			if (!getGenomeOverlaps(refId, alignmentDatabase).isEmpty())
+		public void addDominatingNode(int refId, AlignmentStore alignmentDatabase,
+				SQLMappingDatabase mappingDatabase) {
+			if (!getGenomeOverlaps(refId, alignmentDatabase, mappingDatabase).isEmpty())
 				dominatingNodeIds.add(refId);
 		}
 
-		private Set<IntPair> getGenomeOverlaps(int wId, SQLAlignmentDatabase alignmentDatabase) {
+		private Set<IntPair> getGenomeOverlaps(int wId, AlignmentStore alignmentDatabase,
+				SQLMappingDatabase mappingDatabase) {
 			Set<IntPair> genomeOverlaps = new HashSet<>();
-			List<int[]> wInfo = alignmentDatabase.getProteinGenomeInfo(wId);
-			int[] wSpecies = wInfo.stream().mapToInt(i -> i[0]).toArray();
-			int[] wGenomes = wInfo.stream().mapToInt(i -> i[1]).toArray();
-			for (int j = 0; j < wGenomes.length; j++) {
+			GenomeMetadata genomes = mappingDatabase.getGenomeMetadata();
+			for (int g2 : mappingDatabase.getGcfIdsByAcc(accessions[wId])) {
 				int g1 = gcfId;
-				int g2 = wGenomes[j];
 				int s1 = speciesId;
-				int s2 = wSpecies[j];
+				int s2 = genomes.getSpeciesId(g2);
 				IntPair info = new IntPair(g1, g2);
-				if (g1 != g2 && s1 != s2)
+				if (s2 != GenomeMetadata.NO_ID && g1 != g2 && s1 != s2)
 					genomeOverlaps.add(info);
 			}
 			return genomeOverlaps;
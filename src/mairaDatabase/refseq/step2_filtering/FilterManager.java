@@ -3,16 +3,15 @@ package mairaDatabase.refseq.step2_filtering;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import mairaDatabase.refseq.utils.Formatter;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentDatabaseRegistry;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
 import mairaDatabase.utils.FileUtils;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.ResourceLoader;
 import mairaDatabase.utils.SQLMappingDatabase;
 import mairaDatabase.utils.taxTree.TaxTree;
@@ -21,23 +20,23 @@ public class FilterManager {
 
 	private ResourceLoader rL = new ResourceLoader();
 
-	private BufferedWriter factorWriter, markerWriter;
+	private BufferedWriter markerWriter;
+	private MairaSink mairaSink;
 	private TaxTree taxTree;
 	private int MIN_ID;
-	private String aliFolder;
-	private File tmpDir, markerDatabase;
-	private Map<Integer, File> weightFiles = new HashMap<>();
+	private File markerDatabase;
+	private AlignmentDatabaseRegistry registry;
 
 	private List<File> faaFiles;
 	private int faaFilePointer = 0;
 
-	public void run(String rank, String srcPath, String aliFolder, File tmpDir, File markerDir, TaxTree taxTree,
-			SQLMappingDatabase mappingDatabase, int[] NUM_OF_PROTEINS, int MIN_ID, int cores) {
+	public void run(String rank, String srcPath, AlignmentDatabaseRegistry registry, File markerDir, TaxTree taxTree,
+			SQLMappingDatabase mappingDatabase, MairaSink mairaSink, int[] NUM_OF_PROTEINS, int MIN_ID, int cores) {
 
 		this.taxTree = taxTree;
+		this.registry = registry;
+		this.mairaSink = mairaSink;
 		this.MIN_ID = MIN_ID;
-		this.aliFolder = aliFolder;
-		this.tmpDir = tmpDir;
 		rL.setTime();
 		
 		markerDatabase = new File(srcPath + File.separator + "marker_db");
@@ -53,11 +52,7 @@ public class FilterManager {
 				markerFile.delete();
 				markerWriter = new BufferedWriter(new FileWriter(markerFile, true));
 
-				// creating factor writer
-				File weightFile = new File(srcPath + File.separator + "genus_marker_db_" + n + "_weights.tab");
-				weightFile.delete();
-				factorWriter = new BufferedWriter(new FileWriter(weightFile, true));
-				weightFiles.put(n, weightFile);
+				mairaSink.createFactorsTable(n);
 
 				System.out.println(">Filtering marker proteins");
 				try {
@@ -69,7 +64,6 @@ public class FilterManager {
 					rL.runThreads(cores, threads, threads.size());
 				} finally {
 					markerWriter.close();
-					factorWriter.close();
 				}
 
 			} catch (Exception e) {
@@ -97,7 +91,7 @@ public class FilterManager {
 		private int n;
 
 		public FilterThread(SQLMappingDatabase mappingDatabase, int n) {
-			this.mappingDatabase = createMappingDatabase(mappingDatabase);
+			this.mappingDatabase = mappingDatabase;
 			this.n = n;
 		}
 
@@ -107,34 +101,20 @@ public class FilterManager {
 			while ((faaFile = nextFaaFile()) != null) {
 				try {
 					String genus = Formatter.removeNonAlphanumerics(faaFile.getName().split("\\-")[1].replaceAll("_marker\\.faa", ""));
-					SQLAlignmentDatabase alignmentDatabase = createAlignmentDatabase(genus);
+					AlignmentStore alignmentDatabase = registry.getReader(genus);
 					try {
-						new Filtering().run(faaFile, genus, factorWriter, markerWriter, taxTree, mappingDatabase,
+						new Filtering().run(faaFile, genus, mairaSink, markerWriter, taxTree, mappingDatabase,
 								alignmentDatabase, n, MIN_ID);
 					} finally {
-						alignmentDatabase.close();
+						registry.release(alignmentDatabase);
 					}
-				} catch (ClassNotFoundException | SQLException e) {
+				} catch (Exception e) {
 					e.printStackTrace();
 				}
 				rL.reportProgress(1);
 			}
-			mappingDatabase.close();
 			rL.countDown();
 		}
 	}
 
-	private synchronized SQLMappingDatabase createMappingDatabase(SQLMappingDatabase mappingDatabase) {
-		return new SQLMappingDatabase(mappingDatabase);
-	}
-
-	private synchronized SQLAlignmentDatabase createAlignmentDatabase(String genus)
-			throws ClassNotFoundException, SQLException {
-		return new SQLAlignmentDatabase(aliFolder, genus, tmpDir);
-	}
-
-	public Map<Integer, File> getWeightFiles() {
-		return weightFiles;
-	}
-
 }
@@ -7,13 +7,14 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import mairaDatabase.refseq.RefseqManager;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase;
-import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
-import mairaDatabase.utils.FastaReader;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentBatch;
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore;
+import mairaDatabase.utils.AccessionIdMap;
+import mairaDatabase.utils.FastaIndex;
+import mairaDatabase.utils.GenomeMetadata;
+import mairaDatabase.utils.MairaSink;
 import mairaDatabase.utils.SQLMappingDatabase;
-import mairaDatabase.utils.SparseString;
 import mairaDatabase.utils.Statistics;
-import mairaDatabase.utils.FastaReader.FastaEntry;
 import mairaDatabase.utils.taxTree.TaxNode;
 import mairaDatabase.utils.taxTree.TaxTree;
 
@@ -21,85 +22,98 @@ public class Filtering {
 
 	private int ID_THRESHOLD, COV_THRESHOLD;
 	private SQLMappingDatabase mappingDatabase;
-	private SQLAlignmentDatabase alignmentDatabase;
+	private GenomeMetadata genomes;
+	private AlignmentStore alignmentDatabase;
+	private String[] accessions;
 	private String table;
 
-	public void run(File faaFile, String genus, BufferedWriter factorWriter, BufferedWriter markerWriter,
-			TaxTree taxTree, SQLMappingDatabase mappingDatabase, SQLAlignmentDatabase alignmentDatabase,
-			int MAX_PROTEINS_PER_GCF, int MIN_ID) {
+	public void run(File faaFile, String genus, MairaSink mairaSink, BufferedWriter markerWriter,
+			TaxTree taxTree, SQLMappingDatabase mappingDatabase, AlignmentStore alignmentDatabase,
+			int MAX_PROTEINS_PER_GCF, int MIN_ID) throws IOException {
 
 		this.table = genus + "_clusterTable";
 		this.COV_THRESHOLD = MIN_ID;
 		this.ID_THRESHOLD = MIN_ID;
 		this.mappingDatabase = mappingDatabase;
+		this.genomes = mappingDatabase.getGenomeMetadata();
 		this.alignmentDatabase = alignmentDatabase;
 		long time = System.currentTimeMillis();
 
-		List<FastaEntry> markerProteins = FastaReader.read(faaFile).stream()
-				.filter(p -> p.getSequenceLength() > RefseqManager.MIN_LENGTH && hasUniqueGenus(p.getName(), mappingDatabase, taxTree)).collect(Collectors.toList());
-		List<MarkerNode> markerNodes = new ArrayList<>(markerProteins.size());
-		Map<String, MarkerNode> acc2node = new HashMap<>(markerProteins.size());
-		for (FastaEntry protein : markerProteins) {
-			SparseString acc = protein.getSparseName();
-			int count = alignmentDatabase.getAlignmentCount(acc.toString(), table);
-			MarkerNode v = new MarkerNode(acc, count);
-			markerNodes.add(v);
-			acc2node.put(acc.toString(), v);
-		}
-		Collections.sort(markerNodes);
-
-		int selectedNodes = markerNodes.size();
-		Map<String, Integer> gcf2Counts = new HashMap<>();
-		try {
-			for (MarkerNode v : markerNodes) {
-				Map<String, Integer> localCounts = new HashMap<>();
-				for (String gcf : getCoveredGenomes(v, acc2node)) {
-					gcf2Counts.putIfAbsent(gcf, 0);
-					localCounts.putIfAbsent(gcf, 0);
-					localCounts.put(gcf, localCounts.get(gcf) + 1);
-					if (gcf2Counts.get(gcf) < MAX_PROTEINS_PER_GCF)
-						v.setSelected(true);
+		// marker nodes are kept by FastaIndex entry, sequences are read from
+		// the mapped faaFile when writing
+		int markerProteins = 0, selectedNodes = 0;
+		try (FastaIndex proteins = FastaIndex.open(faaFile)) {
+			List<MarkerNode> markerNodes = new ArrayList<>();
+			MarkerNode[] entry2node = new MarkerNode[proteins.size()];
+			AccessionIdMap acc2id = alignmentDatabase.getAccessionIds();
+			accessions = alignmentDatabase.getAccessions();
+			int[] outDegrees = alignmentDatabase.getAlignmentCounts(table);
+			int[] ids = new int[proteins.size()];
+			int maxId = -1;
+			for (int p = 0; p < proteins.size(); p++) {
+				ids[p] = AccessionIdMap.NO_ID;
+				String acc = proteins.getName(p);
+				if (proteins.getSequenceLength(p) > RefseqManager.MIN_LENGTH
+						&& hasUniqueGenus(acc, mappingDatabase, taxTree)) {
+					int id = acc2id.get(acc);
+					int count = id >= 0 && id < outDegrees.length ? outDegrees[id] : 0;
+					MarkerNode v = new MarkerNode(p, count);
+					markerNodes.add(v);
+					entry2node[p] = v;
+					ids[p] = id;
+					maxId = Math.max(maxId, id);
 				}
-				if (v.isSelected()) {
-					for (String gcf : localCounts.keySet()) {
-						gcf2Counts.putIfAbsent(gcf, 0);
-						gcf2Counts.put(gcf, gcf2Counts.get(gcf) + localCounts.get(gcf));
-					}
-				} else
-					selectedNodes--;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		// writing out marker proteins
-		for (FastaEntry protein : markerProteins) {
-			String acc = protein.getName();
-			if (acc2node.get(acc).isSelected()) {
-				try {
-					markerWriter.write(">" + acc + "\n" + protein.getSequence() + "\n");
-				} catch (IOException e) {
-					e.printStackTrace();
+			markerProteins = markerNodes.size();
+			MarkerNode[] id2node = new MarkerNode[maxId + 1];
+			for (int p = 0; p < ids.length; p++) {
+				if (ids[p] >= 0)
+					id2node[ids[p]] = entry2node[p];
+			}
+			ids = null;
+
+			// collecting covered genomes in one sequential scan of the table
+			alignmentDatabase.forEachAlignmentGroup(table, (queryId, alis) -> {
+				MarkerNode v = queryId < id2node.length ? id2node[queryId] : null;
+				if (v != null)
+					v.setCoveredGenomes(getCoveredGenomes(alis));
+			});
+			Collections.sort(markerNodes);
+
+			selectedNodes = markerNodes.size();
+			int[] gcf2Counts = new int[genomes.getMaxGcfId() + 1];
+			try {
+				for (MarkerNode v : markerNodes) {
+					for (int gcf : v.getCoveredGenomes()) {
+						if (gcf2Counts[gcf] < MAX_PROTEINS_PER_GCF)
+							v.setSelected(true);
+					}
+					if (v.isSelected()) {
+						for (int gcf : v.getCoveredGenomes())
+							gcf2Counts[gcf]++;
+					} else
+						selectedNodes--;
 				}
+			} catch (Exception e) {
+				e.printStackTrace();
 			}
-		}
 
-		// writing out marker protein weights
-		for (MarkerNode v : acc2node.values()) {
-			if (v.isSelected()) {
-				List<Double> gcfFactors = new ArrayList<>();
-				for (String gcf : getCoveredGenomes(v, acc2node))
-					gcfFactors.add(1. / (double) gcf2Counts.get(gcf));
-				try {
-					factorWriter.write(v.getAcc() + "\t" + Statistics.getMean(gcfFactors) + "\n");
-				} catch (Exception e) {
-					e.printStackTrace();
+			// writing out marker proteins and their weights
+			for (int p = 0; p < proteins.size(); p++) {
+				MarkerNode v = entry2node[p];
+				if (v != null && v.isSelected()) {
+					String acc = proteins.getName(p);
+					markerWriter.write(">" + acc + "\n" + proteins.getSequence(p) + "\n");
+					List<Double> gcfFactors = new ArrayList<>();
+					for (int gcf : v.getCoveredGenomes())
+						gcfFactors.add(1. / (double) gcf2Counts[gcf]);
+					mairaSink.addFactor(genus, MAX_PROTEINS_PER_GCF, acc, Statistics.getMean(gcfFactors));
 				}
 			}
 		}
 
 		long runtime = (System.currentTimeMillis() - time) / 1000;
-		System.err.println(genus + ": " + selectedNodes + "/" + markerProteins.size() + " marker proteins selected ("
+		System.err.println(genus + ": " + selectedNodes + "/" + markerProteins + " marker proteins selected ("
 				+ runtime + "s)");
 
 	}
@@ -115,13 +129,15 @@ public class Filtering {
 		return genera.size() == 1;
 	}
 
-	private Set<String> getCoveredGenomes(MarkerNode v, Map<String, MarkerNode> acc2node) {
-		List<AlignmentInfo> alis = alignmentDatabase.getAlignments(v.getAcc(), table);
-		Set<String> coveredGenomes = new HashSet<>();
-		for (AlignmentInfo ali : alis) {
-			if (ali.getIdentity() > ID_THRESHOLD && ali.getQueryCoverage() > COV_THRESHOLD) {
-				for (String gcf : mappingDatabase.getGCFByAcc(ali.getRef()))
-					coveredGenomes.add(gcf);
+	private Set<Integer> getCoveredGenomes(AlignmentBatch alis) {
+		Set<Integer> coveredGenomes = new HashSet<>();
+		for (int i = 0; i < alis.size(); i++) {
+			if (alis.getIdentity(i) > ID_THRESHOLD && alis.getQueryCoverage(i) > COV_THRESHOLD) {
+				String ref = accessions[alis.getRefId(i)];
+				for (int gcf : mappingDatabase.getGcfIdsByAcc(ref)) {
+					if (genomes.contains(gcf))
+						coveredGenomes.add(gcf);
+				}
 			}
 		}
 		return coveredGenomes;
@@ -130,11 +146,15 @@ public class Filtering {
 	public class MarkerNode implements Comparable<MarkerNode> {
 
 		private int outDegree;
-		private SparseString acc;
+		private int entry;
 		private boolean selected = false;
+		private Set<Integer> coveredGenomes = Collections.emptySet();
 
-		public MarkerNode(SparseString acc, int outDegree) {
-			this.acc = acc;
+		/**
+		 * The node of the protein at the given entry of the FastaIndex.
+		 */
+		public MarkerNode(int entry, int outDegree) {
+			this.entry = entry;
 			this.outDegree = outDegree;
 		}
 
@@ -143,8 +163,16 @@ public class Filtering {
 			return Integer.compare(v.outDegree, outDegree);
 		}
 
-		public String getAcc() {
-			return acc.toString();
+		public int getEntry() {
+			return entry;
+		}
+
+		public Set<Integer> getCoveredGenomes() {
+			return coveredGenomes;
+		}
+
+		public void setCoveredGenomes(Set<Integer> coveredGenomes) {
+			this.coveredGenomes = coveredGenomes;
 		}
 
 		public void setSelected(boolean selected) {
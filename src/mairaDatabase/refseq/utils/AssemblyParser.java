@@ -5,14 +5,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
+import mairaDatabase.utils.InputFactory;
+
 public class AssemblyParser {
 
 	public Map<Integer, ArrayList<String>> getTaxidToFTP(String src) {
 
 		HashMap<Integer, ArrayList<String>> taxidToFTP = new HashMap<>();
 		try {
-			try(BufferedReader buf = new BufferedReader(
-					new FileReader(new File(src + File.separator + "assembly_summary_refseq.txt")))){
+			try(BufferedReader buf = InputFactory
+					.openReader(new File(src + File.separator + "assembly_summary_refseq.txt"))){
 				String l;
 				while ((l = buf.readLine()) != null) {
 					if (!l.startsWith("#")) {
@@ -38,8 +40,8 @@ public class AssemblyParser {
 
 		HashMap<String, Integer> gcfToTaxID = new HashMap<>();
 		try {
-			BufferedReader buf = new BufferedReader(
-					new FileReader(new File(src + File.separator + "assembly_summary_refseq.txt")));
+			BufferedReader buf = InputFactory
+					.openReader(new File(src + File.separator + "assembly_summary_refseq.txt"));
 			String l;
 			while ((l = buf.readLine()) != null) {
 				if (!l.startsWith("#")) {
@@ -62,8 +64,8 @@ public class AssemblyParser {
 
 		HashMap<String, String> gcfToYear = new HashMap<>();
 		try {
-			BufferedReader buf = new BufferedReader(
-					new FileReader(new File(src + File.separator + "assembly_summary_refseq.txt")));
+			BufferedReader buf = InputFactory
+					.openReader(new File(src + File.separator + "assembly_summary_refseq.txt"));
 			String l;
 			while ((l = buf.readLine()) != null) {
 				if (!l.startsWith("#")) {
@@ -86,8 +88,8 @@ public class AssemblyParser {
 
 		HashMap<String, String> gcfToAssemblyLevel = new HashMap<>();
 		try {
-			BufferedReader buf = new BufferedReader(
-					new FileReader(new File(src + File.separator + "assembly_summary_refseq.txt")));
+			BufferedReader buf = InputFactory
+					.openReader(new File(src + File.separator + "assembly_summary_refseq.txt"));
 			String l;
 			while ((l = buf.readLine()) != null) {
 				if (!l.startsWith("#")) {
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import mairaDatabase.utils.AccessionGenomeIndex;
 import mairaDatabase.utils.FileUtils;
 
 public class Cleaner {
@@ -21,6 +22,7 @@ public class Cleaner {
 				f.delete();
 		}
 		database.delete();
+		AccessionGenomeIndex.getFile(database.getAbsolutePath()).delete();
 
 		// deleting folders
 		FileUtils.deleteDirectory(src.getAbsolutePath() + File.separator + "taxdump");
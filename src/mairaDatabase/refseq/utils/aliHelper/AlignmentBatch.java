@@ -0,0 +1,161 @@
+package mairaDatabase.refseq.utils.aliHelper;
+
+import java.util.Arrays;
+
+/**
+ * Reusable struct-of-arrays holder for alignments. Rows are addressed by index,
+ * accessions by their ids in the genus accession table; strings are resolved
+ * through the store only where they are needed. Query and reference coverage
+ * are computed once when a row is added. BTOPs are fetched from the source
+ * store by rowid on request.
+ */
+public class AlignmentBatch {
+
+	private int size = 0;
+	private int[] queryIds, refIds;
+	private int[] qstart, qend, qlen, sstart, send, slen;
+	private float[] identity;
+	private double[] queryCoverage, refCoverage;
+	private long[] rowIds;
+	private AlignmentStore store;
+	private String table;
+
+	public AlignmentBatch() {
+		this(64);
+	}
+
+	public AlignmentBatch(int capacity) {
+		capacity = Math.max(1, capacity);
+		queryIds = new int[capacity];
+		refIds = new int[capacity];
+		qstart = new int[capacity];
+		qend = new int[capacity];
+		qlen = new int[capacity];
+		sstart = new int[capacity];
+		send = new int[capacity];
+		slen = new int[capacity];
+		identity = new float[capacity];
+		queryCoverage = new double[capacity];
+		refCoverage = new double[capacity];
+		rowIds = new long[capacity];
+	}
+
+	/**
+	 * Empties the batch, keeping its capacity, and sets the store and table the
+	 * following rows are read from.
+	 */
+	public void reset(AlignmentStore store, String table) {
+		this.size = 0;
+		this.store = store;
+		this.table = table;
+	}
+
+	public int add(int queryId, int refId, int qstart, int qend, int qlen, int sstart, int send, int slen,
+			float identity, long rowId) {
+		if (size == queryIds.length)
+			grow();
+		int i = size++;
+		this.queryIds[i] = queryId;
+		this.refIds[i] = refId;
+		this.qstart[i] = qstart;
+		this.qend[i] = qend;
+		this.qlen[i] = qlen;
+		this.sstart[i] = sstart;
+		this.send[i] = send;
+		this.slen[i] = slen;
+		this.identity[i] = identity;
+		this.queryCoverage[i] = (Math.abs(qstart - qend) / (double) qlen) * 100.;
+		this.refCoverage[i] = (Math.abs(sstart - send) / (double) slen) * 100.;
+		this.rowIds[i] = rowId;
+		return i;
+	}
+
+	/**
+	 * Copies row i of another batch read from the same store and table.
+	 */
+	public int add(AlignmentBatch batch, int i) {
+		return add(batch.queryIds[i], batch.refIds[i], batch.qstart[i], batch.qend[i], batch.qlen[i],
+				batch.sstart[i], batch.send[i], batch.slen[i], batch.identity[i], batch.rowIds[i]);
+	}
+
+	private void grow() {
+		int capacity = 2 * queryIds.length;
+		queryIds = Arrays.copyOf(queryIds, capacity);
+		refIds = Arrays.copyOf(refIds, capacity);
+		qstart = Arrays.copyOf(qstart, capacity);
+		qend = Arrays.copyOf(qend, capacity);
+		qlen = Arrays.copyOf(qlen, capacity);
+		sstart = Arrays.copyOf(sstart, capacity);
+		send = Arrays.copyOf(send, capacity);
+		slen = Arrays.copyOf(slen, capacity);
+		identity = Arrays.copyOf(identity, capacity);
+		queryCoverage = Arrays.copyOf(queryCoverage, capacity);
+		refCoverage = Arrays.copyOf(refCoverage, capacity);
+		rowIds = Arrays.copyOf(rowIds, capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getQueryId(int i) {
+		return queryIds[i];
+	}
+
+	public int getRefId(int i) {
+		return refIds[i];
+	}
+
+	public int getQueryStart(int i) {
+		return qstart[i];
+	}
+
+	public int getQueryEnd(int i) {
+		return qend[i];
+	}
+
+	public int getQueryLen(int i) {
+		return qlen[i];
+	}
+
+	public int getSubjectStart(int i) {
+		return sstart[i];
+	}
+
+	public int getSubjectEnd(int i) {
+		return send[i];
+	}
+
+	public int getSubjectLen(int i) {
+		return slen[i];
+	}
+
+	public float getIdentity(int i) {
+		return identity[i];
+	}
+
+	public double getQueryCoverage(int i) {
+		return queryCoverage[i];
+	}
+
+	public double getRefCoverage(int i) {
+		return refCoverage[i];
+	}
+
+	public long getRowId(int i) {
+		return rowIds[i];
+	}
+
+	public String getBtop(int i) {
+		return store != null ? store.getBtop(table, rowIds[i]) : null;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+}
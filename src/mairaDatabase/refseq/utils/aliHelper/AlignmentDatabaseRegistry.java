@@ -0,0 +1,171 @@
+package mairaDatabase.refseq.utils.aliHelper;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mairaDatabase.refseq.utils.aliHelper.AlignmentStore.Backend;
+
+/**
+ * Hands out alignment database handles keyed by genus. The schema of each
+ * genus file is initialized once, writers get read-write connections and
+ * readers get read-only, shared-cache connections wrapped by the configured
+ * backend. Released handles are kept for reuse and the least recently released
+ * ones are closed as soon as more than maxOpenFiles handles are open.
+ */
+public class AlignmentDatabaseRegistry {
+
+	public final static int DEFAULT_MAX_OPEN_FILES = 512;
+
+	private final String databaseFolder;
+	private final File tmpDir;
+	private final Backend backend;
+	private final int maxOpenFiles;
+
+	private final Set<String> initializedFiles = ConcurrentHashMap.newKeySet();
+	private final Map<String, Object> initLocks = new ConcurrentHashMap<>();
+
+	private final LinkedList<Handle> idleHandles = new LinkedList<>();
+	private final Map<AlignmentStore, Handle> leasedHandles = new IdentityHashMap<>();
+	private int openHandles = 0;
+
+	public AlignmentDatabaseRegistry(String databaseFolder, File tmpDir, Backend backend, int maxOpenFiles) {
+		this.databaseFolder = databaseFolder;
+		this.tmpDir = tmpDir;
+		this.backend = backend;
+		this.maxOpenFiles = Math.max(1, maxOpenFiles);
+	}
+
+	public SQLAlignmentDatabase getWriter(String genus) throws ClassNotFoundException, SQLException {
+		return (SQLAlignmentDatabase) acquire(genus, false);
+	}
+
+	public AlignmentStore getReader(String genus) throws ClassNotFoundException, SQLException {
+		return acquire(genus, true);
+	}
+
+	/**
+	 * Returns a handle obtained from this registry. Releasing a writer closes the
+	 * idle readers of the same genus, as they may hold a stale view of its data.
+	 */
+	public void release(AlignmentStore store) {
+		List<Handle> toClose = new ArrayList<>();
+		synchronized (this) {
+			Handle h = leasedHandles.remove(store);
+			if (h == null) {
+				store.close();
+				return;
+			}
+			if (!h.readOnly) {
+				Iterator<Handle> it = idleHandles.iterator();
+				while (it.hasNext()) {
+					Handle idle = it.next();
+					if (idle.readOnly && idle.genus.equals(h.genus)) {
+						it.remove();
+						toClose.add(idle);
+						openHandles--;
+					}
+				}
+			}
+			idleHandles.addLast(h);
+			toClose.addAll(evict());
+		}
+		toClose.stream().forEach(h -> h.store.close());
+	}
+
+	public void close() {
+		List<Handle> toClose;
+		synchronized (this) {
+			toClose = new ArrayList<>(idleHandles);
+			toClose.addAll(leasedHandles.values());
+			idleHandles.clear();
+			leasedHandles.clear();
+			openHandles = 0;
+		}
+		toClose.stream().forEach(h -> h.store.close());
+	}
+
+	private AlignmentStore acquire(String genus, boolean readOnly) throws ClassNotFoundException, SQLException {
+		Handle h = pollIdle(genus, readOnly);
+		if (h == null)
+			h = open(genus, readOnly);
+		List<Handle> toClose;
+		synchronized (this) {
+			leasedHandles.put(h.store, h);
+			toClose = evict();
+		}
+		toClose.stream().forEach(idle -> idle.store.close());
+		return h.store;
+	}
+
+	private synchronized Handle pollIdle(String genus, boolean readOnly) {
+		Iterator<Handle> it = idleHandles.descendingIterator();
+		while (it.hasNext()) {
+			Handle h = it.next();
+			if (h.readOnly == readOnly && h.genus.equals(genus)) {
+				it.remove();
+				return h;
+			}
+		}
+		return null;
+	}
+
+	private Handle open(String genus, boolean readOnly) throws ClassNotFoundException, SQLException {
+		String file = new File(databaseFolder + File.separator + genus + ".db").getAbsolutePath();
+		SQLAlignmentDatabase alignmentDatabase = null;
+		synchronized (initLocks.computeIfAbsent(file, key -> new Object())) {
+			if (!initializedFiles.contains(file)) {
+				alignmentDatabase = new SQLAlignmentDatabase(databaseFolder, genus, tmpDir, false, true);
+				initializedFiles.add(file);
+				if (readOnly) {
+					alignmentDatabase.close();
+					alignmentDatabase = null;
+				}
+			}
+		}
+		if (alignmentDatabase == null)
+			alignmentDatabase = new SQLAlignmentDatabase(databaseFolder, genus, tmpDir, readOnly, false);
+		AlignmentStore store = alignmentDatabase;
+		if (readOnly && backend == Backend.MAPPED)
+			store = new MappedAlignmentStore(alignmentDatabase);
+		synchronized (this) {
+			openHandles++;
+		}
+		return new Handle(genus, readOnly, store);
+	}
+
+	private List<Handle> evict() {
+		List<Handle> evicted = new ArrayList<>();
+		while (openHandles > maxOpenFiles && !idleHandles.isEmpty()) {
+			evicted.add(idleHandles.removeFirst());
+			openHandles--;
+		}
+		return evicted;
+	}
+
+	public String getDatabaseFolder() {
+		return databaseFolder;
+	}
+
+	private static class Handle {
+
+		private final String genus;
+		private final boolean readOnly;
+		private final AlignmentStore store;
+
+		public Handle(String genus, boolean readOnly, AlignmentStore store) {
+			this.genus = genus;
+			this.readOnly = readOnly;
+			this.store = store;
+		}
+
+	}
+
+}
@@ -0,0 +1,10 @@
+package mairaDatabase.refseq.utils.aliHelper;
+
+public interface AlignmentGroupReceiver {
+
+	/**
+	 * The batch is reused for the next group, rows to be kept must be copied.
+	 */
+	public void addAlignmentGroup(int queryId, AlignmentBatch alis);
+
+}
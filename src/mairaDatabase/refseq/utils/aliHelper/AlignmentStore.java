@@ -0,0 +1,96 @@
+package mairaDatabase.refseq.utils.aliHelper;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+
+import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
+import mairaDatabase.utils.AccessionIdMap;
+import mairaDatabase.utils.SQLMappingDatabase;
+
+/**
+ * Read access to the alignments of a genus. Writing alignments always goes
+ * through {@link SQLAlignmentDatabase}, which is also the default backend.
+ */
+public interface AlignmentStore {
+
+	public enum Backend {
+		SQLITE, MAPPED;
+
+		public static Backend parse(String name) {
+			return valueOf(name.trim().toUpperCase());
+		}
+	};
+
+	public static AlignmentStore open(Backend backend, String databaseFolder, String genus, File tmpDir)
+			throws ClassNotFoundException, SQLException {
+		SQLAlignmentDatabase alignmentDatabase = new SQLAlignmentDatabase(databaseFolder, genus, tmpDir);
+		if (backend == Backend.MAPPED)
+			return new MappedAlignmentStore(alignmentDatabase);
+		return alignmentDatabase;
+	}
+
+	public boolean containsAcc(String acc);
+
+	public Integer getAccessionId(String acc);
+
+	public String getAccession(int id);
+
+	public AccessionIdMap getAccessionIds();
+
+	/**
+	 * Returns all accessions indexed by their id, null for unused ids.
+	 */
+	public String[] getAccessions();
+
+	public List<AlignmentInfo> getAlignments(String acc, String table);
+
+	public List<AlignmentInfo> getAlignments(int accId, String table);
+
+	/**
+	 * Fills the batch with the alignments of one query accession and returns it.
+	 */
+	public AlignmentBatch getAlignments(int accId, String table, AlignmentBatch batch);
+
+	public int getAlignmentCount(String acc, String table);
+
+	/**
+	 * Returns the out-degree of every query accession in one pass over the table,
+	 * indexed by qacc_id.
+	 */
+	public int[] getAlignmentCounts(String table);
+
+	/**
+	 * Streams the whole table once, ordered by qacc_id, and hands the alignments
+	 * of each query accession to the receiver as one group.
+	 */
+	public void forEachAlignmentGroup(String table, AlignmentGroupReceiver receiver);
+
+	/**
+	 * Streams the groups of all query accessions with fromId <= qacc_id < toId.
+	 * Unlike the full scan, ranged scans are not logged, as callers issue many
+	 * of them.
+	 */
+	public void forEachAlignmentGroup(String table, int fromId, int toId, AlignmentGroupReceiver receiver);
+
+	/**
+	 * Fills the batch with the alignments of all proteins of a genome, rows of the
+	 * same query accession being adjacent.
+	 */
+	public AlignmentBatch getGenomeProteinAlignments(int gcfId, String table, AlignmentBatch batch);
+
+	public List<int[]> getProteinGenomeInfo(Integer accId);
+
+	public String getBtop(String table, long rowId);
+
+	/**
+	 * Opens a new handle on the same genus with the mapping database attached,
+	 * as required by the genome based queries.
+	 */
+	public AlignmentStore attach(SQLMappingDatabase mappingDatabase) throws ClassNotFoundException, SQLException;
+
+	public String getGenus();
+
+	public void close();
+
+}
@@ -0,0 +1,86 @@
+package mairaDatabase.refseq.utils.aliHelper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Binary run-length encoding of DIAMOND BTOP strings. Match runs are written as
+ * big-endian groups of 7 bits with the high bit set, all other BTOP symbols
+ * (residues, gaps, stop codons) are kept as single ASCII bytes. The encoding is
+ * never longer than the BTOP string itself.
+ */
+public class BtopCodec {
+
+	public static byte[] encode(String btop) {
+		if (btop == null || btop.isEmpty())
+			return null;
+		byte[] bytes = new byte[btop.length()];
+		int pos = 0, run = 0;
+		boolean inRun = false;
+		for (int i = 0; i < btop.length(); i++) {
+			char c = btop.charAt(i);
+			if (c >= '0' && c <= '9') {
+				run = run * 10 + (c - '0');
+				inRun = true;
+				continue;
+			}
+			if (c >= 0x80)
+				throw new IllegalArgumentException("ERROR: not a BTOP string " + btop);
+			if (inRun)
+				pos = writeRun(bytes, pos, run);
+			run = 0;
+			inRun = false;
+			bytes[pos++] = (byte) c;
+		}
+		if (inRun)
+			pos = writeRun(bytes, pos, run);
+		return Arrays.copyOf(bytes, pos);
+	}
+
+	/**
+	 * Also accepts BTOP strings stored as plain text by earlier versions, which
+	 * are recognized by their decimal digits.
+	 */
+	public static String decode(byte[] bytes) {
+		if (bytes == null)
+			return "";
+		if (isText(bytes))
+			return new String(bytes, StandardCharsets.US_ASCII);
+		StringBuilder btop = new StringBuilder(2 * bytes.length);
+		int run = 0;
+		boolean inRun = false;
+		for (byte b : bytes) {
+			if ((b & 0x80) != 0) {
+				run = (run << 7) | (b & 0x7f);
+				inRun = true;
+			} else {
+				if (inRun)
+					btop.append(run);
+				run = 0;
+				inRun = false;
+				btop.append((char) b);
+			}
+		}
+		if (inRun)
+			btop.append(run);
+		return btop.toString();
+	}
+
+	private static int writeRun(byte[] bytes, int pos, int run) {
+		int groups = 1;
+		while ((run >>> (7 * groups)) != 0)
+			groups++;
+		for (int shift = 7 * (groups - 1); shift >= 0; shift -= 7)
+			bytes[pos++] = (byte) (0x80 | ((run >>> shift) & 0x7f));
+		return pos;
+	}
+
+	private static boolean isText(byte[] bytes) {
+		for (byte b : bytes) {
+			if (b >= '0' && b <= '9')
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -1,11 +1,6 @@
 package mairaDatabase.refseq.utils.aliHelper;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -55,48 +50,22 @@ public class FilterAlignmentsHelper {
 		return new SQLAlignmentDatabase(databaseFile, genus, tmpDir);
 	}
 
+	/**
+	 * Removes repeated alignments from databases written before the alignment
+	 * tables had a unique index. Opening a database creates the index, deleting
+	 * duplicates in place where it was missing.
+	 */
 	private static class AlignmentFilter implements Runnable {
 
 		@Override
 		public void run() {
-			File dbFile1, dbFile2;
-			while ((dbFile1 = nextDbFile()) != null) {
+			File dbFile;
+			while ((dbFile = nextDbFile()) != null) {
 				try {
-					String genus = dbFile1.getName().split("\\.")[0];
-					dbFile2 = new File(aliDatabaseFolder.getAbsolutePath() + File.separator + genus + "_tmp.db");
-					dbFile2.delete();
-					SQLAlignmentDatabase db1 = createDatabase(aliDatabaseFolder.getAbsolutePath(), genus,
+					String genus = dbFile.getName().split("\\.")[0];
+					SQLAlignmentDatabase db = createDatabase(aliDatabaseFolder.getAbsolutePath(), genus,
 							aliDatabaseFolder);
-					SQLAlignmentDatabase db2 = createDatabase(aliDatabaseFolder.getAbsolutePath(), genus + "_tmp",
-							aliDatabaseFolder);
-					db1.getStmt().setFetchSize(1000000);
-					ResultSet rs = db1.getAllDistinctAlignments(genus + "_clusterTable");
-					File aliTab = new File(
-							aliDatabaseFolder.getAbsolutePath() + File.separatorChar + genus + "_tmp.tab");
-					try {
-						try (BufferedWriter writer = new BufferedWriter(new FileWriter(aliTab))) {
-							while (rs.next()) {
-								String query = rs.getString(1);
-								String ref = rs.getString(2);
-								int qstart = rs.getInt(3);
-								int qend = rs.getInt(4);
-								int qlen = rs.getInt(5);
-								int sstart = rs.getInt(6);
-								int send = rs.getInt(7);
-								int slen = rs.getInt(8);
-								double identity = rs.getDouble(9);
-								String btop = rs.getString(10);
-								String line = query + "\t" + ref + "\t" + qstart + "\t" + qend + "\t" + qlen + "\t"
-										+ sstart + "\t" + send + "\t" + slen + "\t" + identity + "\t" + btop + "\n";
-								writer.write(line);
-							}
-						}
-						db2.addAlignmentTable(genus + "_clusterTable", null, aliTab, true);
-						Files.move(dbFile2.toPath(), dbFile2.toPath().resolveSibling(dbFile1.getName()),
-								StandardCopyOption.REPLACE_EXISTING);
-					} finally {
-						aliTab.delete();
-					}
+					db.close();
 					rL.reportProgress(1);
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -0,0 +1,370 @@
+package mairaDatabase.refseq.utils.aliHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mairaDatabase.refseq.utils.aliHelper.SQLAlignmentDatabase.AlignmentInfo;
+import mairaDatabase.utils.AccessionIdMap;
+import mairaDatabase.utils.MappedFile;
+import mairaDatabase.utils.SQLMappingDatabase;
+
+/**
+ * Alignment store keeping each alignment table as a read-only columnar file
+ * next to the genus database. Rows are sorted by qacc_id and an offset index
+ * maps each qacc_id to its slice of rows, so adjacency lookups do not touch
+ * SQLite. The files are exported from the SQLite tables on first use and
+ * re-exported whenever the genus database is newer than the file. The mapped
+ * tables belong to the store returned by the constructor; stores obtained by
+ * attach share them and must be closed before their owner, which unmaps them.
+ */
+public class MappedAlignmentStore implements AlignmentStore {
+
+	private final static int MAGIC = 0x4d414c49, VERSION = 1;
+	private final static int HEADER_BYTES = 24;
+	// one lock per .ali file, so stores of different genera export in parallel
+	private final static Map<String, Object> EXPORT_LOCKS = new ConcurrentHashMap<>();
+
+	private SQLAlignmentDatabase alignmentDatabase;
+	private AccessionIdMap acc2id;
+	private String[] accessions;
+	private Map<String, MappedTable> tables;
+	private boolean ownsTables;
+
+	public MappedAlignmentStore(SQLAlignmentDatabase alignmentDatabase) throws SQLException {
+		this.alignmentDatabase = alignmentDatabase;
+		this.accessions = alignmentDatabase.loadAccessions();
+		this.acc2id = new AccessionIdMap(accessions.length);
+		for (int id = 0; id < accessions.length; id++) {
+			if (accessions[id] != null)
+				acc2id.put(accessions[id], id);
+		}
+		this.tables = new ConcurrentHashMap<>();
+		this.ownsTables = true;
+	}
+
+	private MappedAlignmentStore(MappedAlignmentStore store, SQLAlignmentDatabase alignmentDatabase) {
+		this.alignmentDatabase = alignmentDatabase;
+		this.acc2id = store.acc2id;
+		this.accessions = store.accessions;
+		this.tables = store.tables;
+		this.ownsTables = false;
+	}
+
+	@Override
+	public boolean containsAcc(String acc) {
+		return acc2id.containsKey(acc);
+	}
+
+	@Override
+	public Integer getAccessionId(String acc) {
+		int id = acc2id.get(acc);
+		return id == AccessionIdMap.NO_ID ? null : id;
+	}
+
+	@Override
+	public String getAccession(int id) {
+		return id >= 0 && id < accessions.length ? accessions[id] : null;
+	}
+
+	@Override
+	public AccessionIdMap getAccessionIds() {
+		return acc2id;
+	}
+
+	@Override
+	public String[] getAccessions() {
+		return accessions;
+	}
+
+	@Override
+	public List<AlignmentInfo> getAlignments(String acc, String table) {
+		int id = acc2id.get(acc);
+		if (id == AccessionIdMap.NO_ID)
+			return Collections.emptyList();
+		return getAlignments(id, table);
+	}
+
+	@Override
+	public List<AlignmentInfo> getAlignments(int accId, String table) {
+		MappedTable t = getTable(table);
+		long from = t.getFirstRow(accId), to = t.getFirstRow(accId + 1);
+		List<AlignmentInfo> alis = new ArrayList<>((int) (to - from));
+		for (long row = from; row < to; row++)
+			alis.add(t.getAlignment(accId, row));
+		return alis;
+	}
+
+	@Override
+	public int getAlignmentCount(String acc, String table) {
+		int id = acc2id.get(acc);
+		if (id == AccessionIdMap.NO_ID)
+			return 0;
+		MappedTable t = getTable(table);
+		return (int) (t.getFirstRow(id + 1) - t.getFirstRow(id));
+	}
+
+	@Override
+	public int[] getAlignmentCounts(String table) {
+		MappedTable t = getTable(table);
+		int[] counts = new int[t.maxId + 1];
+		for (int id = 0; id < counts.length; id++)
+			counts[id] = (int) (t.getFirstRow(id + 1) - t.getFirstRow(id));
+		return counts;
+	}
+
+	@Override
+	public void forEachAlignmentGroup(String table, AlignmentGroupReceiver receiver) {
+		long time = System.currentTimeMillis();
+		long[] counts = streamAlignmentGroups(table, 0, Integer.MAX_VALUE, receiver);
+		long millis = Math.max(1, System.currentTimeMillis() - time);
+		System.err.println(String.format("MAP>Table " + table + ": streamed %,d groups, %,d rows (%,d groups/s, %,d rows/s)",
+				counts[0], counts[1], counts[0] * 1000 / millis, counts[1] * 1000 / millis));
+	}
+
+	@Override
+	public void forEachAlignmentGroup(String table, int fromId, int toId, AlignmentGroupReceiver receiver) {
+		streamAlignmentGroups(table, fromId, toId, receiver);
+	}
+
+	/**
+	 * Returns the number of groups and rows handed to the receiver.
+	 */
+	private long[] streamAlignmentGroups(String table, int fromId, int toId, AlignmentGroupReceiver receiver) {
+		long groups = 0, rows = 0;
+		MappedTable t = getTable(table);
+		AlignmentBatch alis = new AlignmentBatch();
+		for (int id = Math.max(0, fromId); id < Math.min(toId, t.maxId + 1); id++) {
+			long from = t.getFirstRow(id), to = t.getFirstRow(id + 1);
+			if (from == to)
+				continue;
+			alis.reset(this, table);
+			for (long row = from; row < to; row++)
+				t.addAlignment(id, row, alis);
+			receiver.addAlignmentGroup(id, alis);
+			groups++;
+			rows += alis.size();
+		}
+		return new long[] { groups, rows };
+	}
+
+	@Override
+	public AlignmentBatch getAlignments(int accId, String table, AlignmentBatch batch) {
+		batch.reset(this, table);
+		MappedTable t = getTable(table);
+		long from = t.getFirstRow(accId), to = t.getFirstRow(accId + 1);
+		for (long row = from; row < to; row++)
+			t.addAlignment(accId, row, batch);
+		return batch;
+	}
+
+	@Override
+	public AlignmentBatch getGenomeProteinAlignments(int gcfId, String table, AlignmentBatch batch) {
+		batch.reset(this, table);
+		MappedTable t = getTable(table);
+		List<Integer> accIds = alignmentDatabase.getGenomeProteinIds(gcfId);
+		Collections.sort(accIds);
+		for (int accId : accIds) {
+			long from = t.getFirstRow(accId), to = t.getFirstRow(accId + 1);
+			for (long row = from; row < to; row++)
+				t.addAlignment(accId, row, batch);
+		}
+		return batch;
+	}
+
+	@Override
+	public List<int[]> getProteinGenomeInfo(Integer accId) {
+		return alignmentDatabase.getProteinGenomeInfo(accId);
+	}
+
+	@Override
+	public String getBtop(String table, long rowId) {
+		return alignmentDatabase.getBtop(table, rowId);
+	}
+
+	@Override
+	public AlignmentStore attach(SQLMappingDatabase mappingDatabase) throws ClassNotFoundException, SQLException {
+		return new MappedAlignmentStore(this, new SQLAlignmentDatabase(alignmentDatabase, mappingDatabase));
+	}
+
+	@Override
+	public String getGenus() {
+		return alignmentDatabase.getGenus();
+	}
+
+	@Override
+	public void close() {
+		alignmentDatabase.close();
+		if (!ownsTables)
+			return;
+		for (MappedTable t : tables.values())
+			t.close();
+		tables.clear();
+	}
+
+	private MappedTable getTable(String table) {
+		return tables.computeIfAbsent(table, key -> {
+			try {
+				File file = new File(new File(alignmentDatabase.getDatabaseFile()).getParent(), table + ".ali");
+				synchronized (EXPORT_LOCKS.computeIfAbsent(file.getAbsolutePath(), path -> new Object())) {
+					if (isStale(file))
+						export(table, file);
+				}
+				return new MappedTable(file, table);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (SQLException e) {
+				throw new UncheckedIOException(new IOException(e));
+			}
+		});
+	}
+
+	private boolean isStale(File file) {
+		if (!file.exists())
+			return true;
+		File db = new File(alignmentDatabase.getDatabaseFile());
+		File wal = new File(db.getAbsolutePath() + "-wal");
+		return db.lastModified() > file.lastModified() || wal.lastModified() > file.lastModified();
+	}
+
+	/**
+	 * File layout: header (magic, version, row count, max qacc_id), the offset
+	 * index (first row of each qacc_id) and one region per column.
+	 */
+	private void export(String table, File file) throws SQLException, IOException {
+		long time = System.currentTimeMillis();
+		String accTable = alignmentDatabase.getGenus() + "_accTable";
+		String from = " FROM " + table + " AS a"
+				+ " JOIN " + accTable + " AS qat ON qat.id = a.qacc_id"
+				+ " JOIN " + accTable + " AS rat ON rat.id = a.racc_id";
+		File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+		boolean autoCommit = alignmentDatabase.getConnection().getAutoCommit();
+		alignmentDatabase.getConnection().setAutoCommit(false);
+		try (Statement stmt = alignmentDatabase.getConnection().createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*), IFNULL(MAX(a.qacc_id), 0)" + from);
+			long rows = rs.getLong(1);
+			int maxId = rs.getInt(2);
+			Layout layout = new Layout(rows, maxId);
+			try (MappedFile out = MappedFile.create(tmpFile, layout.size)) {
+				out.putInt(0, MAGIC);
+				out.putInt(4, VERSION);
+				out.putLong(8, rows);
+				out.putInt(16, maxId);
+				stmt.setFetchSize(100000);
+				rs = stmt.executeQuery("SELECT a.qacc_id, a.racc_id, a.qstart, a.qend, a.qlen, a.sstart, a.send,"
+						+ " a.slen, a.pident, a.rowid" + from + " ORDER BY a.qacc_id");
+				long row = 0;
+				int nextId = 0;
+				while (rs.next()) {
+					int qaccId = rs.getInt(1);
+					while (nextId <= qaccId)
+						out.putLong(layout.offsets + 8L * nextId++, row);
+					out.putInt(layout.racc + 4 * row, rs.getInt(2));
+					out.putInt(layout.qstart + 4 * row, rs.getInt(3));
+					out.putInt(layout.qend + 4 * row, rs.getInt(4));
+					out.putInt(layout.qlen + 4 * row, rs.getInt(5));
+					out.putInt(layout.sstart + 4 * row, rs.getInt(6));
+					out.putInt(layout.send + 4 * row, rs.getInt(7));
+					out.putInt(layout.slen + 4 * row, rs.getInt(8));
+					out.putFloat(layout.pident + 4 * row, (float) rs.getDouble(9));
+					out.putLong(layout.rowIds + 8 * row, rs.getLong(10));
+					row++;
+				}
+				while (nextId <= maxId + 1)
+					out.putLong(layout.offsets + 8L * nextId++, row);
+				out.force();
+			}
+		} finally {
+			alignmentDatabase.getConnection().commit();
+			alignmentDatabase.getConnection().setAutoCommit(autoCommit);
+		}
+		file.delete();
+		if (!tmpFile.renameTo(file))
+			throw new IOException("ERROR: cannot move " + tmpFile + " to " + file);
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.err.println("MAP>Table " + table + ": exported to " + file.getName() + " (" + runtime + "s)");
+	}
+
+	private static class Layout {
+
+		private long offsets, racc, qstart, qend, qlen, sstart, send, slen, pident, rowIds, size;
+
+		public Layout(long rows, int maxId) {
+			offsets = HEADER_BYTES;
+			racc = align(offsets + 8L * (maxId + 2));
+			qstart = align(racc + 4 * rows);
+			qend = align(qstart + 4 * rows);
+			qlen = align(qend + 4 * rows);
+			sstart = align(qlen + 4 * rows);
+			send = align(sstart + 4 * rows);
+			slen = align(send + 4 * rows);
+			pident = align(slen + 4 * rows);
+			rowIds = align(pident + 4 * rows);
+			size = rowIds + 8 * rows;
+		}
+
+		private static long align(long pos) {
+			return (pos + 7) & ~7L;
+		}
+
+	}
+
+	private class MappedTable {
+
+		private String table;
+		private MappedFile file;
+		private Layout layout;
+		private int maxId;
+
+		public MappedTable(File f, String table) throws IOException {
+			this.table = table;
+			this.file = MappedFile.openReadOnly(f);
+			if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+				throw new IOException("ERROR: not an alignment file " + f);
+			this.maxId = file.getInt(16);
+			this.layout = new Layout(file.getLong(8), maxId);
+		}
+
+		public long getFirstRow(int accId) {
+			if (accId < 0)
+				return 0;
+			return file.getLong(layout.offsets + 8L * Math.min(accId, maxId + 1));
+		}
+
+		public AlignmentInfo getAlignment(int queryId, long row) {
+			int refId = file.getInt(layout.racc + 4 * row);
+			return new AlignmentInfo(queryId, refId, getAccession(queryId), getAccession(refId),
+					file.getInt(layout.qstart + 4 * row), file.getInt(layout.qend + 4 * row),
+					file.getInt(layout.qlen + 4 * row), file.getInt(layout.sstart + 4 * row),
+					file.getInt(layout.send + 4 * row), file.getInt(layout.slen + 4 * row),
+					file.getFloat(layout.pident + 4 * row), MappedAlignmentStore.this, table,
+					file.getLong(layout.rowIds + 8 * row));
+		}
+
+		public void addAlignment(int queryId, long row, AlignmentBatch batch) {
+			batch.add(queryId, file.getInt(layout.racc + 4 * row), file.getInt(layout.qstart + 4 * row),
+					file.getInt(layout.qend + 4 * row), file.getInt(layout.qlen + 4 * row),
+					file.getInt(layout.sstart + 4 * row), file.getInt(layout.send + 4 * row),
+					file.getInt(layout.slen + 4 * row), file.getFloat(layout.pident + 4 * row),
+					file.getLong(layout.rowIds + 8 * row));
+		}
+
+		public void close() {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+	}
+
+}
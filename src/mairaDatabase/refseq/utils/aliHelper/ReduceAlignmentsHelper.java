@@ -118,12 +118,10 @@ public class ReduceAlignmentsHelper {
 							c.createStatement().execute("DROP INDEX IF EXISTS " + aliTable + "_pidentIndex");
 							deleteColumns(c, new ArrayList<String>(Arrays.asList("qacc", "racc")),
 									genus + "_clusterTable");
-							c.createStatement().execute(
-									"CREATE INDEX IF NOT EXISTS " + aliTable + "_qaccIndex ON " + aliTable + " (qacc_id)");
 							c.createStatement().execute(
 									"CREATE INDEX IF NOT EXISTS " + aliTable + "_raccIndex ON " + aliTable + " (racc_id)");
-							c.createStatement().execute("CREATE INDEX IF NOT EXISTS " + aliTable + "_pidentIndex ON "
-									+ aliTable + " (pident)");
+							c.createStatement().execute("CREATE INDEX IF NOT EXISTS " + aliTable + "_qaccPidentIndex ON "
+									+ aliTable + " (qacc_id, pident, racc_id)");
 		
 
 						}
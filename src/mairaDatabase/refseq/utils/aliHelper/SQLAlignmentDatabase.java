@@ -2,7 +2,6 @@ package mairaDatabase.refseq.utils.aliHelper;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -12,28 +11,47 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import mairaDatabase.utils.AccessionCodec;
+import mairaDatabase.utils.AccessionIdMap;
 import mairaDatabase.utils.FastaReader;
 import mairaDatabase.utils.FastaReader.FastaEntry;
+import mairaDatabase.utils.FastaReader.FastaIterator;
+import mairaDatabase.utils.InputFactory;
 import mairaDatabase.utils.SQLMappingDatabase;
+import mairaDatabase.utils.SQLiteProfile;
+import mairaDatabase.utils.SQLiteProfile.Phase;
 
-public class SQLAlignmentDatabase {
+public class SQLAlignmentDatabase implements AlignmentStore {
+
+	private final static int BATCH_SIZE = 100000;
+	private final static String ALIGNMENT_COLUMNS = "(qacc_id INTEGER, racc_id INTEGER, qstart INTEGER, qend INTEGER, qlen INTEGER, sstart INTEGER, send INTEGER, slen INTEGER, pident DOUBLE, btop BLOB)";
+	private final static String ALIGNMENT_KEY = "(qacc_id, racc_id, qstart, sstart)";
+	private final static String BATCH_ALIGNMENT_COLUMNS = "qacc_id, racc_id, qstart, qend, qlen, sstart, send, slen, pident, rowid";
+	private final static String LAZY_ALIGNMENT_COLUMNS = "a.qacc_id, a.racc_id, a.qstart, a.qend, a.qlen, a.sstart, a.send, a.slen, a.pident, a.rowid";
+	private final static int SQLITE_OPEN_READONLY = 0x00000001, SQLITE_OPEN_SHAREDCACHE = 0x00020000;
 
 	private File tmpDir;
 	private String databaseFile;
 	private Connection c;
 	private Statement stmt;
+	private PreparedStatement accessionStmt;
+	private int insertedAlignments;
 	private String genus;
+	private boolean readOnly;
 	private String clusterTable, markerTable, accTable, disjoinTable, gcfTable;
 
 	public SQLAlignmentDatabase(SQLAlignmentDatabase aligmentDatabase) throws ClassNotFoundException, SQLException {
-		init(aligmentDatabase.getDatabaseFile(), aligmentDatabase.getGenus(), aligmentDatabase.getTmpDir());
+		init(aligmentDatabase.getDatabaseFile(), aligmentDatabase.getGenus(), aligmentDatabase.getTmpDir(),
+				aligmentDatabase.isReadOnly(), false);
 	}
 	
 	public SQLAlignmentDatabase(SQLAlignmentDatabase aligmentDatabase, SQLMappingDatabase mappingDatabase) throws ClassNotFoundException, SQLException {
-		init(aligmentDatabase.getDatabaseFile(), aligmentDatabase.getGenus(), aligmentDatabase.getTmpDir());
+		init(aligmentDatabase.getDatabaseFile(), aligmentDatabase.getGenus(), aligmentDatabase.getTmpDir(),
+				aligmentDatabase.isReadOnly(), false);
 		String stmt_attach = "ATTACH '" + mappingDatabase.getDatabaseFile() + "' AS mapping";
 		Statement attach_stmt = c.createStatement();
 		attach_stmt.executeUpdate(stmt_attach);
@@ -41,34 +59,51 @@ public class SQLAlignmentDatabase {
 
 	public SQLAlignmentDatabase(String databaseFolder, String genus, File tmpDir)
 			throws ClassNotFoundException, SQLException {
+		this(databaseFolder, genus, tmpDir, false, true);
+	}
+
+	/**
+	 * Read-only handles are opened with the SQLite read-only and shared-cache
+	 * flags and require an existing database; initSchema=false skips the DDL for
+	 * files whose schema is known to be in place.
+	 */
+	public SQLAlignmentDatabase(String databaseFolder, String genus, File tmpDir, boolean readOnly,
+			boolean initSchema) throws ClassNotFoundException, SQLException {
 		String databaseFile = databaseFolder + File.separator + genus + ".db";
-		init(databaseFile, genus, tmpDir);
+		init(databaseFile, genus, tmpDir, readOnly, initSchema);
 	}
 
-	private void init(String databaseFile, String genus, File tmpDir) throws ClassNotFoundException, SQLException {
+	private void init(String databaseFile, String genus, File tmpDir, boolean readOnly, boolean initSchema)
+			throws ClassNotFoundException, SQLException {
 		this.databaseFile = databaseFile;
 		this.tmpDir = tmpDir;
 		this.genus = genus;
+		this.readOnly = readOnly;
 		Class.forName("org.sqlite.JDBC");
-		c = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFile);
+		Properties config = new Properties();
+		if (readOnly)
+			config.setProperty("open_mode", String.valueOf(SQLITE_OPEN_READONLY | SQLITE_OPEN_SHAREDCACHE));
+		c = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFile, config);
 		stmt = c.createStatement();
 //		stmt.execute("PRAGMA temp_store_directory = '" + tmpDir.getAbsolutePath() + "'");
+		SQLiteProfile.apply(stmt, Phase.READ, readOnly, genus + ".db");
 
 		clusterTable = genus + "_clusterTable";
-		stmt.execute("CREATE TABLE IF NOT EXISTS " + clusterTable
-				+ " (qacc_id INTEGER, racc_id INTEGER, qstart INTEGER, qend INTEGER, qlen INTEGER, sstart INTEGER, send INTEGER, slen INTEGER, pident DOUBLE, btop TEXT)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + clusterTable + "_qaccIndex ON " + clusterTable + " (qacc_id)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + clusterTable + "_raccIndex ON " + clusterTable + " (racc_id)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + clusterTable + "_pidentIndex ON " + clusterTable + " (pident)");
-
 		markerTable = genus + "_markerTable";
-		stmt.execute("CREATE TABLE IF NOT EXISTS " + markerTable
-				+ " (qacc_id INTEGER, racc_id INTEGER, qstart INTEGER, qend INTEGER, qlen INTEGER, sstart INTEGER, send INTEGER, slen INTEGER, pident DOUBLE, btop TEXT)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + markerTable + "_qaccIndex ON " + markerTable + " (qacc_id)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + markerTable + "_raccIndex ON " + markerTable + " (racc_id)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + markerTable + "_pidentIndex ON " + markerTable + " (pident)");
-
 		disjoinTable = genus + "_disjoinTable";
+		accTable = genus + "_accTable";
+		gcfTable = genus + "_gcfTable";
+		if (initSchema)
+			initSchema();
+	}
+
+	private void initSchema() throws SQLException {
+		stmt.execute("CREATE TABLE IF NOT EXISTS " + clusterTable + " " + ALIGNMENT_COLUMNS);
+		createAlignmentIndexes(clusterTable);
+
+		stmt.execute("CREATE TABLE IF NOT EXISTS " + markerTable + " " + ALIGNMENT_COLUMNS);
+		createAlignmentIndexes(markerTable);
+
 		stmt.execute("CREATE TABLE IF NOT EXISTS " + disjoinTable
 				+ " (qgcf_id INTEGER, rgcf_id INTEGER, qspecies INTEGER, rspecies INTEGER, disjoin INTEGER)");
 		stmt.execute(
@@ -76,11 +111,10 @@ public class SQLAlignmentDatabase {
 		stmt.execute("CREATE INDEX IF NOT EXISTS " + disjoinTable + "_speciesIndex ON " + disjoinTable
 				+ " (qspecies, rspecies)");
 
-		accTable = genus + "_accTable";
-		stmt.execute("CREATE TABLE IF NOT EXISTS " + accTable + " (id INTEGER PRIMARY KEY, acc TEXT)");
-		stmt.execute("CREATE INDEX IF NOT EXISTS " + accTable + "_accIndex ON " + accTable + " (acc)");
+		stmt.execute("CREATE TABLE IF NOT EXISTS " + accTable + " (id INTEGER PRIMARY KEY, acc_key INTEGER, acc TEXT)");
+		migrateAccTable();
+		stmt.execute("CREATE INDEX IF NOT EXISTS " + accTable + "_accKeyIndex ON " + accTable + " (acc_key)");
 
-		gcfTable = genus + "_gcfTable";
 		stmt.execute("CREATE TABLE IF NOT EXISTS " + gcfTable + " (id INTEGER PRIMARY KEY, gcf TEXT)");
 		stmt.execute("CREATE INDEX IF NOT EXISTS " + gcfTable + "_gcfIndex ON " + gcfTable + " (gcf)");
 
@@ -90,6 +124,106 @@ public class SQLAlignmentDatabase {
 		stmt.execute("DROP TABLE IF EXISTS " + markerTmpTable);
 	}
 
+	/**
+	 * Accession tables written before accessions were keyed by AccessionCodec
+	 * get the acc_key column; the text is only kept for accessions that cannot
+	 * be packed and the former index on the text is dropped.
+	 */
+	private void migrateAccTable() throws SQLException {
+		ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + accTable + ")");
+		while (rs.next()) {
+			if (rs.getString("name").equals("acc_key"))
+				return;
+		}
+		long time = System.currentTimeMillis();
+		stmt.execute("ALTER TABLE " + accTable + " ADD COLUMN acc_key INTEGER");
+		c.setAutoCommit(false);
+		int count = 0;
+		try (Statement accStmt = c.createStatement();
+				PreparedStatement updateStmt = c.prepareStatement("UPDATE " + accTable + " SET acc_key = ?, acc = ? WHERE id = ?")) {
+			rs = accStmt.executeQuery("SELECT id, acc FROM " + accTable);
+			while (rs.next()) {
+				String acc = rs.getString(2);
+				updateStmt.setLong(1, AccessionCodec.encode(acc));
+				updateStmt.setString(2, AccessionCodec.getSideText(acc));
+				updateStmt.setInt(3, rs.getInt(1));
+				updateStmt.addBatch();
+				if (++count % BATCH_SIZE == 0)
+					updateStmt.executeBatch();
+			}
+			updateStmt.executeBatch();
+		}
+		c.commit();
+		c.setAutoCommit(true);
+		stmt.execute("DROP INDEX IF EXISTS " + accTable + "_accIndex");
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.err.println(String.format("SQL>Table " + accTable + ": %,d accessions keyed", count) + " (" + runtime + "s)");
+	}
+
+	/**
+	 * Returns the condition selecting an accession by its AccessionCodec key and
+	 * side text.
+	 */
+	private static String accessionCondition(String alias, String acc) {
+		String sideText = AccessionCodec.getSideText(acc);
+		return alias + "acc_key = " + AccessionCodec.encode(acc) + " AND " + alias + "acc IS "
+				+ (sideText == null ? "NULL" : "'" + sideText.replace("'", "''") + "'");
+	}
+
+	/**
+	 * No query filters on pident alone, so the former pident and qacc_id indexes
+	 * are replaced by one index on (qacc_id, pident, racc_id). EXPLAIN QUERY PLAN
+	 * shows it serving the adjacency lookups and covering the out-degree scan.
+	 * The unique index drops repeated alignments on insert.
+	 */
+	private void createAlignmentIndexes(String table) throws SQLException {
+		stmt.execute("DROP INDEX IF EXISTS " + table + "_pidentIndex");
+		stmt.execute("DROP INDEX IF EXISTS " + table + "_qaccIndex");
+		createUniqueIndex(table);
+		stmt.execute("CREATE INDEX IF NOT EXISTS " + table + "_raccIndex ON " + table + " (racc_id)");
+		stmt.execute("CREATE INDEX IF NOT EXISTS " + table + "_qaccPidentIndex ON " + table + " (qacc_id, pident, racc_id)");
+	}
+
+	private void createUniqueIndex(String table) throws SQLException {
+		ResultSet rs = stmt.executeQuery("SELECT EXISTS(SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = '"
+				+ table + "_uniqueIndex')");
+		if (rs.getInt(1) == 0) {
+			removeDuplicates(table);
+			stmt.execute("CREATE UNIQUE INDEX " + table + "_uniqueIndex ON " + table + " " + ALIGNMENT_KEY);
+		}
+	}
+
+	/**
+	 * Removes repeated alignments in place, keeping the first row of each key.
+	 * Only tables created before the unique index can contain any.
+	 */
+	public int removeDuplicates(String table) throws SQLException {
+		long time = System.currentTimeMillis();
+		int removed = stmt.executeUpdate("DELETE FROM " + table + " WHERE rowid NOT IN (SELECT MIN(rowid) FROM "
+				+ table + " GROUP BY qacc_id, racc_id, qstart, sstart)");
+		if (removed > 0) {
+			long runtime = (System.currentTimeMillis() - time) / 1000;
+			System.err.println(String.format("SQL>Table " + table + ": %,d duplicate rows removed", removed) + " ("
+					+ runtime + "s)");
+		}
+		return removed;
+	}
+
+	/**
+	 * Keeps the unique index, so the sorted copy of the staging table drops
+	 * duplicates.
+	 */
+	private void dropAlignmentIndexes(String table) throws SQLException {
+		stmt.execute("DROP INDEX IF EXISTS " + table + "_raccIndex");
+		stmt.execute("DROP INDEX IF EXISTS " + table + "_qaccPidentIndex");
+	}
+
+	@Override
+	public AlignmentStore attach(SQLMappingDatabase mappingDatabase) throws ClassNotFoundException, SQLException {
+		return new SQLAlignmentDatabase(this, mappingDatabase);
+	}
+
+	@Override
 	public void close() {
 		try {
 			c.close();
@@ -98,9 +232,10 @@ public class SQLAlignmentDatabase {
 		}
 	}
 
+	@Override
 	public boolean containsAcc(String acc) {
 		try {
-			String sql = "SELECT EXISTS(SELECT 1 FROM " + accTable + " WHERE acc ='" + acc + "')";
+			String sql = "SELECT EXISTS(SELECT 1 FROM " + accTable + " WHERE " + accessionCondition("", acc) + ")";
 			ResultSet rs = stmt.executeQuery(sql);
 			if (rs.getInt(1) == 1)
 				return true;
@@ -121,48 +256,64 @@ public class SQLAlignmentDatabase {
 		}
 	}
 
-	public ResultSet getAllDistinctAlignments(String table) {
-		String sql = "SELECT DISTINCT * FROM " + table;
-		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return rs;
-		} catch (SQLException ex) {
-			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
-		}
-		return null;
-	}
-
+	@Override
 	public List<AlignmentInfo> getAlignments(String acc, String table) {
 		if (containsAcc(acc))
 			return getAlignments(getAccessionId(acc), table);
 		return Collections.emptyList();
 	}
 	
-	public List<AlignmentInfo> getGenomeProteinAlignments(int gcfId, String table) {
-		List<AlignmentInfo> alis = new ArrayList<>();
-		String sql = "SELECT a.*, qat.acc, rat.acc "
-				+ " FROM gcf2taxid"
-				+ " JOIN acc2gcf AS at USING(gcf_id)"
-				+ " JOIN " + accTable + " AS qat USING(acc)"
+	@Override
+	public AlignmentBatch getGenomeProteinAlignments(int gcfId, String table, AlignmentBatch batch) {
+		batch.reset(this, table);
+		String sql = "SELECT " + LAZY_ALIGNMENT_COLUMNS
+				+ " FROM acc2gcf"
+				+ " JOIN " + accTable + " AS qat ON qat.acc_key = acc2gcf.acc_key AND qat.acc IS acc2gcf.acc"
 				+ " JOIN " + table + " AS a ON qat.id = a.qacc_id"
-				+ " JOIN " + accTable + " AS rat ON rat.id = a.racc_id"
-				+ " WHERE gcf_id =" + gcfId + "";
+				+ " WHERE gcf_id =" + gcfId
+				+ " ORDER BY a.qacc_id";
 		try {
 			ResultSet rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				AlignmentInfo aliInfo = new AlignmentInfo(rs);
-				if (aliInfo.isOkay(table))
-					alis.add(aliInfo);
-			}
+			while (rs.next())
+				addAlignment(rs, batch);
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
 		}
-		return alis;
+		return batch;
 	}
 	
+	public List<Integer> getGenomeProteinIds(int gcfId) {
+		List<Integer> accIds = new ArrayList<>();
+		String sql = "SELECT qat.id "
+				+ " FROM acc2gcf"
+				+ " JOIN " + accTable + " AS qat ON qat.acc_key = acc2gcf.acc_key AND qat.acc IS acc2gcf.acc"
+				+ " WHERE gcf_id =" + gcfId + "";
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			while (rs.next())
+				accIds.add(rs.getInt(1));
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genome: " + gcfId, ex);
+		}
+		return accIds;
+	}
+
+	@Override
+	public String getBtop(String table, long rowId) {
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT btop FROM " + table + " WHERE rowid = " + rowId);
+			if (rs.next())
+				return BtopCodec.decode(rs.getBytes(1));
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
+		}
+		return null;
+	}
+
+	@Override
 	public List<AlignmentInfo> getAlignments(int accId, String table) {
 		List<AlignmentInfo> alis = new ArrayList<>();
-		String sql = "SELECT a.*, qat.acc, rat.acc "
+		String sql = "SELECT " + LAZY_ALIGNMENT_COLUMNS + ", qat.acc_key, qat.acc, rat.acc_key, rat.acc "
 				+ " FROM " + table + " AS a "
 				+ " JOIN " + accTable + " AS qat ON qat.id = a.qacc_id"
 				+ " JOIN " + accTable + " AS rat ON rat.id = a.racc_id"
@@ -170,7 +321,7 @@ public class SQLAlignmentDatabase {
 		try {
 			ResultSet rs = stmt.executeQuery(sql);
 			while (rs.next()) {
-				AlignmentInfo aliInfo = new AlignmentInfo(rs);
+				AlignmentInfo aliInfo = new AlignmentInfo(rs, this, table);
 				if (aliInfo.isOkay(table))
 					alis.add(aliInfo);
 			}
@@ -180,10 +331,80 @@ public class SQLAlignmentDatabase {
 		return alis;
 	}
 
+	@Override
+	public AlignmentBatch getAlignments(int accId, String table, AlignmentBatch batch) {
+		batch.reset(this, table);
+		String sql = "SELECT " + BATCH_ALIGNMENT_COLUMNS + " FROM " + table + " WHERE qacc_id = " + accId;
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			while (rs.next())
+				addAlignment(rs, batch);
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
+		}
+		return batch;
+	}
+
+	private static void addAlignment(ResultSet rs, AlignmentBatch batch) throws SQLException {
+		batch.add(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6), rs.getInt(7),
+				rs.getInt(8), (float) rs.getDouble(9), rs.getLong(10));
+	}
+
+	@Override
+	public void forEachAlignmentGroup(String table, AlignmentGroupReceiver receiver) {
+		long time = System.currentTimeMillis();
+		long[] counts = streamAlignmentGroups(table, 0, Integer.MAX_VALUE, receiver);
+		long millis = Math.max(1, System.currentTimeMillis() - time);
+		System.err.println(String.format("SQL>Table " + table + ": streamed %,d groups, %,d rows (%,d groups/s, %,d rows/s)",
+				counts[0], counts[1], counts[0] * 1000 / millis, counts[1] * 1000 / millis));
+	}
+
+	@Override
+	public void forEachAlignmentGroup(String table, int fromId, int toId, AlignmentGroupReceiver receiver) {
+		streamAlignmentGroups(table, fromId, toId, receiver);
+	}
+
+	/**
+	 * Returns the number of groups and rows handed to the receiver.
+	 */
+	private long[] streamAlignmentGroups(String table, int fromId, int toId, AlignmentGroupReceiver receiver) {
+		long groups = 0, rows = 0;
+		String sql = "SELECT " + BATCH_ALIGNMENT_COLUMNS
+				+ " FROM " + table
+				+ " WHERE qacc_id >= " + fromId + " AND qacc_id < " + toId
+				+ " ORDER BY qacc_id";
+		try (Statement groupStmt = c.createStatement()) {
+			groupStmt.setFetchSize(BATCH_SIZE);
+			ResultSet rs = groupStmt.executeQuery(sql);
+			AlignmentBatch alis = new AlignmentBatch();
+			alis.reset(this, table);
+			int queryId = -1;
+			while (rs.next()) {
+				int id = rs.getInt(1);
+				if (id != queryId && !alis.isEmpty()) {
+					receiver.addAlignmentGroup(queryId, alis);
+					alis.reset(this, table);
+					groups++;
+				}
+				queryId = id;
+				addAlignment(rs, alis);
+				rows++;
+			}
+			if (!alis.isEmpty()) {
+				receiver.addAlignmentGroup(queryId, alis);
+				groups++;
+			}
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
+		}
+		return new long[] { groups, rows };
+	}
+
+	@Override
 	public Integer getAccessionId(String acc) {
 		try {
 			String accTable = genus + "_accTable";
-			ResultSet rs = stmt.executeQuery("SELECT id FROM " + accTable + " WHERE acc = '" + acc + "'");
+			ResultSet rs = stmt.executeQuery("SELECT id FROM " + accTable + " WHERE " + accessionCondition("", acc));
 			if (rs.next())
 				return rs.getInt(1);
 		} catch (SQLException e) {
@@ -192,11 +413,15 @@ public class SQLAlignmentDatabase {
 		return null;
 	}
 
+	@Override
 	public String getAccession(int id) {
 		try {
-			ResultSet rs = stmt.executeQuery("SELECT acc FROM " + accTable + " WHERE id = " + id);
+			if (accessionStmt == null)
+				accessionStmt = c.prepareStatement("SELECT acc_key, acc FROM " + accTable + " WHERE id = ?");
+			accessionStmt.setInt(1, id);
+			ResultSet rs = accessionStmt.executeQuery();
 			if (rs.next())
-				return rs.getString(1);
+				return AccessionCodec.decode(rs.getLong(1), rs.getString(2));
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -263,6 +488,7 @@ public class SQLAlignmentDatabase {
 		return null;
 	}
 
+	@Override
 	public List<int[]> getProteinGenomeInfo(Integer accId) {
 
 		try {
@@ -273,7 +499,7 @@ public class SQLAlignmentDatabase {
 							+ "    c.gcf_id "
 							+ " FROM " + accTable + " AS a"
 							+ " JOIN mapping.acc2gcf AS b"
-							+ "   on a.acc = b.acc "
+							+ "   on a.acc_key = b.acc_key AND a.acc IS b.acc "
 							+ " JOIN mapping.gcf2taxid AS c "
 							+ "   ON b.gcf_id = c.gcf_id "
 							+ " WHERE a.id = " + accId;
@@ -294,6 +520,7 @@ public class SQLAlignmentDatabase {
 		return null;
 	}
 
+	@Override
 	public int getAlignmentCount(String acc, String table) {
 		if (containsAcc(acc)) {
 			String sql = "SELECT COUNT(*) FROM " + table + " WHERE qacc_id ='" + getAccessionId(acc) + "'";
@@ -307,13 +534,37 @@ public class SQLAlignmentDatabase {
 		return 0;
 	}
 
-	public class AlignmentInfo {
+	@Override
+	public int[] getAlignmentCounts(String table) {
+		long time = System.currentTimeMillis();
+		try (Statement countStmt = c.createStatement()) {
+			ResultSet rs = countStmt.executeQuery("SELECT IFNULL(MAX(qacc_id), 0) FROM " + table);
+			int[] counts = new int[rs.getInt(1) + 1];
+			countStmt.setFetchSize(BATCH_SIZE);
+			rs = countStmt.executeQuery("SELECT qacc_id, COUNT(*) FROM " + table + " GROUP BY qacc_id");
+			while (rs.next())
+				counts[rs.getInt(1)] = rs.getInt(2);
+			long runtime = (System.currentTimeMillis() - time) / 1000;
+			System.err.println(String.format("SQL>Table " + table + ": out-degrees of %,d accessions", counts.length)
+					+ " (" + runtime + "s)");
+			return counts;
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
+		}
+		return new int[0];
+	}
+
+	public static class AlignmentInfo {
 
 		private int queryId, refId;
 		private String query, ref, btop;
+		private byte[] btopBytes;
 		private double identity;
 		private double qstart, qend, qlen;
 		private double sstart, send, slen;
+		private AlignmentStore store;
+		private String table;
+		private long rowId;
 
 		public AlignmentInfo(ResultSet rs) throws SQLException {
 			this.queryId = rs.getInt(1);
@@ -325,11 +576,50 @@ public class SQLAlignmentDatabase {
 			this.send = rs.getInt(7);
 			this.slen = rs.getInt(8);
 			this.identity = rs.getDouble(9);
-			this.btop = rs.getString(10);
+			this.btopBytes = rs.getBytes(10);
 			this.query = rs.getString(11);
 			this.ref = rs.getString(12);
 		}
 
+		/**
+		 * Reads rows selected with the rowid in place of the btop column; the BTOP is
+		 * then fetched from the store on demand.
+		 */
+		public AlignmentInfo(ResultSet rs, AlignmentStore store, String table) throws SQLException {
+			this.queryId = rs.getInt(1);
+			this.refId = rs.getInt(2);
+			this.qstart = rs.getInt(3);
+			this.qend = rs.getInt(4);
+			this.qlen = rs.getInt(5);
+			this.sstart = rs.getInt(6);
+			this.send = rs.getInt(7);
+			this.slen = rs.getInt(8);
+			this.identity = rs.getDouble(9);
+			this.rowId = rs.getLong(10);
+			this.query = AccessionCodec.decode(rs.getLong(11), rs.getString(12));
+			this.ref = AccessionCodec.decode(rs.getLong(13), rs.getString(14));
+			this.store = store;
+			this.table = table;
+		}
+
+		public AlignmentInfo(int queryId, int refId, String query, String ref, int qstart, int qend, int qlen,
+				int sstart, int send, int slen, double identity, AlignmentStore store, String table, long rowId) {
+			this.queryId = queryId;
+			this.refId = refId;
+			this.query = query;
+			this.ref = ref;
+			this.qstart = qstart;
+			this.qend = qend;
+			this.qlen = qlen;
+			this.sstart = sstart;
+			this.send = send;
+			this.slen = slen;
+			this.identity = identity;
+			this.store = store;
+			this.table = table;
+			this.rowId = rowId;
+		}
+
 		public boolean isOkay(String table) {
 			if (query == null)
 				System.err.println("ERROR: Unknown query_id " + queryId + " for table " + table);
@@ -383,6 +673,10 @@ public class SQLAlignmentDatabase {
 		}
 
 		public String getBtop() {
+			if (btop == null) {
+				btop = btopBytes == null && store != null ? store.getBtop(table, rowId) : BtopCodec.decode(btopBytes);
+				btopBytes = null;
+			}
 			return btop;
 		}
 
@@ -392,217 +686,355 @@ public class SQLAlignmentDatabase {
 
 	}
 
+	/**
+	 * Uses the bulk-load mode only for the first ingest into a table. Appending
+	 * to a filled table stays indexed, as bulk-loading would rebuild the indexes
+	 * over the whole table.
+	 */
 	public synchronized void addAlignmentTable(String tableName, File src, File tab, boolean dropTable) {
+		if (!tab.exists())
+			return;
+		addAlignmentTable(tableName, src, tab, dropTable, isEmpty(tableName));
+	}
+
+	/**
+	 * In bulk-load mode the rows go into an unindexed staging table first, which
+	 * is then copied into the target table sorted by qacc_id before the indexes
+	 * of the target table are rebuilt once.
+	 */
+	public synchronized void addAlignmentTable(String tableName, File src, File tab, boolean dropTable,
+			boolean bulkLoad) {
 		if (!tab.exists())
 			return;
 		try {
 			long time = System.currentTimeMillis();
+			SQLiteProfile.apply(stmt, Phase.BULK_LOAD, readOnly, genus + ".db");
+			AccessionIdMap acc2id = loadAccessionIds();
+			String targetTable = bulkLoad ? createStagingTable(tableName) : tableName;
+			insertedAlignments = 0;
 			int count = 0;
 			if (src != null)
-				count += addSelfAlignments(tableName, src);
-			count += addAlignments(tableName, tab);
-			long runtime = (System.currentTimeMillis() - time) / 1000;
-			System.err.println(
-					String.format("SQL>Table " + tableName + ": added %,d items", count) + " (" + runtime + "s)");
+				count += addSelfAlignments(targetTable, src, acc2id);
+			count += addAlignments(targetTable, tab, acc2id);
+			if (bulkLoad)
+				insertedAlignments = mergeStagingTable(targetTable, tableName);
+			long millis = Math.max(1, System.currentTimeMillis() - time);
+			System.err.println(String.format(
+					"SQL>Table " + tableName + ": added %,d items, %,d duplicates dropped, in %s mode (%ds, %,d rows/s)",
+					insertedAlignments, count - insertedAlignments, bulkLoad ? "bulk-load" : "indexed", millis / 1000,
+					count * 1000L / millis));
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			SQLiteProfile.apply(stmt, Phase.READ, readOnly, genus + ".db");
+		}
+	}
+
+	private boolean isEmpty(String tableName) {
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT NOT EXISTS(SELECT 1 FROM " + tableName + ")");
+			return rs.getInt(1) == 1;
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + tableName, ex);
 		}
+		return false;
+	}
+
+	private String createStagingTable(String tableName) throws SQLException {
+		String stagingTable = genus + "_tmp_" + tableName.substring(genus.length() + 1);
+		stmt.execute("DROP TABLE IF EXISTS " + stagingTable);
+		stmt.execute("CREATE TABLE " + stagingTable + " " + ALIGNMENT_COLUMNS);
+		return stagingTable;
 	}
 
-	private int addSelfAlignments(String tableName, File src) {
+	private int mergeStagingTable(String stagingTable, String tableName) throws SQLException {
+		long time = System.currentTimeMillis();
+		dropAlignmentIndexes(tableName);
+		int inserted = stmt.executeUpdate("INSERT OR IGNORE INTO " + tableName + " SELECT * FROM " + stagingTable
+				+ " ORDER BY qacc_id, racc_id, qstart, sstart");
+		stmt.execute("DROP TABLE " + stagingTable);
+		long copied = System.currentTimeMillis();
+		createAlignmentIndexes(tableName);
+		System.err.println("SQL>Table " + tableName + ": sorted copy " + (copied - time) / 1000 + "s, index build "
+				+ (System.currentTimeMillis() - copied) / 1000 + "s");
+		return inserted;
+	}
+
+	/**
+	 * Logs which indexes SQLite picks for the hot alignment queries. Used by
+	 * SQLiteProfileBenchmark, not during database builds.
+	 */
+	public void explainQueryPlans(String table) {
+		String[][] queries = {
+				{ "adjacency", "SELECT " + BATCH_ALIGNMENT_COLUMNS + " FROM " + table + " WHERE qacc_id = 1" },
+				{ "stream", "SELECT " + BATCH_ALIGNMENT_COLUMNS + " FROM " + table
+						+ " WHERE qacc_id >= 0 AND qacc_id < 100 ORDER BY qacc_id" },
+				{ "out-degree", "SELECT qacc_id, COUNT(*) FROM " + table + " GROUP BY qacc_id" } };
+		try (Statement planStmt = c.createStatement()) {
+			for (String[] query : queries) {
+				StringBuilder plan = new StringBuilder();
+				ResultSet rs = planStmt.executeQuery("EXPLAIN QUERY PLAN " + query[1]);
+				while (rs.next())
+					plan.append(plan.length() == 0 ? "" : "; ").append(rs.getString(4));
+				System.err.println("SQL>Table " + table + ": plan " + query[0] + ": " + plan);
+			}
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + table, ex);
+		}
+	}
 
-		int aliCounter = 0;
+	@Override
+	public AccessionIdMap getAccessionIds() {
 		try {
+			return loadAccessionIds();
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + accTable, ex);
+		}
+		return new AccessionIdMap();
+	}
 
-			long time = System.currentTimeMillis();
+	@Override
+	public String[] getAccessions() {
+		try {
+			return loadAccessions();
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + accTable, ex);
+		}
+		return new String[0];
+	}
 
-			c.setAutoCommit(false);
+	public AccessionIdMap loadAccessionIds() throws SQLException {
+		AccessionIdMap acc2id = new AccessionIdMap(getAccessionCount());
+		loadAccessionIds(acc2id);
+		return acc2id;
+	}
 
-			// @formatter:off
-			String insert_acc_stmt = "INSERT INTO " + accTable + "(acc) VALUES (?);";
-			// @formatter:on
+	private void loadAccessionIds(AccessionIdMap acc2id) throws SQLException {
+		try (Statement accStmt = c.createStatement()) {
+			accStmt.setFetchSize(BATCH_SIZE);
+			ResultSet rs = accStmt.executeQuery("SELECT id, acc_key, acc FROM " + accTable);
+			while (rs.next())
+				acc2id.put(rs.getLong(2), rs.getString(3), rs.getInt(1));
+		}
+	}
 
-			int accCounter = 0;
-			try (PreparedStatement accStmt = c.prepareStatement(insert_acc_stmt)) {
-				System.err.println("SQL> " + accTable + " " + src.getAbsolutePath());
-				ArrayList<FastaEntry> tokens = FastaReader.read(src);
-				System.err.println("SQL> " + tokens.size() + " accessions adding to " + accTable);
-				for (FastaEntry token : tokens) {
-					final String acc = token.getName();
-					if (!containsAcc(acc)) {
-						accStmt.setString(1, acc);
-						accStmt.execute();
-					}
-				}
-			}
+	public String[] loadAccessions() throws SQLException {
+		try (Statement accStmt = c.createStatement()) {
+			ResultSet rs = accStmt.executeQuery("SELECT IFNULL(MAX(id), 0) FROM " + accTable);
+			String[] accessions = new String[rs.getInt(1) + 1];
+			accStmt.setFetchSize(BATCH_SIZE);
+			rs = accStmt.executeQuery("SELECT id, acc_key, acc FROM " + accTable);
+			while (rs.next())
+				accessions[rs.getInt(1)] = AccessionCodec.decode(rs.getLong(2), rs.getString(3));
+			return accessions;
+		}
+	}
 
-			long runtime = (System.currentTimeMillis() - time) / 1000;
-			System.err.println(String.format("SQL>Table " + tableName + ": %,d self-accessions added", accCounter)
-					+ " (" + runtime + "s)");
+	private int addSelfAlignments(String tableName, File src, AccessionIdMap acc2id) {
 
-			c.commit();
-
-			// @formatter:off
-			String insert_ali_stmt = "INSERT INTO " + tableName + "("
-					+ " qacc_id, "
-					+ " racc_id, "
-					+ " qstart, "
-					+ " qend, "
-					+ " qlen, "
-					+ " sstart, "
-					+ " send, "
-					+ " slen, "
-					+ " pident, "
-					+ " btop) "
-					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
-			// @formatter:on
-
-			time = System.currentTimeMillis();
-			try (PreparedStatement aliStmt = c.prepareStatement(insert_ali_stmt)) {
+		int aliCounter = 0, inserted = 0;
+		try {
+
+			long time = System.currentTimeMillis();
+			c.setAutoCommit(false);
+
+			try (AccessionInserter accInserter = new AccessionInserter(acc2id);
+					PreparedStatement aliStmt = c.prepareStatement(getInsertAlignmentSql(tableName));
+					FastaIterator tokens = FastaReader.iterate(src)) {
 
 				System.err.println("SQL> " + tableName + " " + src.getAbsolutePath());
-				ArrayList<FastaEntry> tokens = FastaReader.read(src);
-				System.err.println("SQL> " + tokens.size() + " proteins adding to " + tableName);
 				for (FastaEntry token : tokens) {
-					final String acc = token.getName();
-					final String seq = token.getSequence();
-					final int qaccId = getAccessionId(acc);
-					final int raccId = getAccessionId(acc);
-					final int qstart = 0;
-					final int qend = seq.length();
-					final int qlen = seq.length();
-					final int sstart = 0;
-					final int send = seq.length();
-					final int slen = seq.length();
-					final double pident = 100;
-					final String btop = seq.length() + "M";
-					aliStmt.setInt(1, qaccId);
-					aliStmt.setInt(2, raccId);
-					aliStmt.setInt(3, qstart);
-					aliStmt.setInt(4, qend);
-					aliStmt.setInt(5, qlen);
-					aliStmt.setInt(6, sstart);
-					aliStmt.setInt(7, send);
-					aliStmt.setInt(8, slen);
-					aliStmt.setDouble(9, pident);
-					aliStmt.setString(10, btop);
-					aliStmt.execute();
-					aliCounter++;
+					final int accId = accInserter.getOrAdd(token.getName());
+					final int len = token.getSequenceLength();
+					setAlignment(aliStmt, accId, accId, 0, len, len, 0, len, len, 100, len + "M");
+					aliStmt.addBatch();
+					if (++aliCounter % BATCH_SIZE == 0) {
+						accInserter.flush();
+						inserted += executeBatch(aliStmt);
+					}
 				}
-			}
-
-			c.commit();
+				accInserter.flush();
+				inserted += executeBatch(aliStmt);
 
-			runtime = (System.currentTimeMillis() - time) / 1000;
-			System.err.println(String.format("SQL>Table " + tableName + ": %,d self-alignments added", aliCounter)
-					+ " (" + runtime + "s)");
+				c.commit();
+				insertedAlignments += inserted;
 
-			c.setAutoCommit(true);
+				long runtime = (System.currentTimeMillis() - time) / 1000;
+				System.err.println(String.format("SQL>Table " + tableName + ": %,d self-accessions added",
+						accInserter.getCount()) + " (" + runtime + "s)");
+				System.err.println(String.format("SQL>Table " + tableName + ": %,d self-alignments added", aliCounter)
+						+ " (" + runtime + "s)");
+			}
 
 		} catch (Exception e) {
 			e.printStackTrace();
+			rollback(acc2id);
+			aliCounter = 0;
+		} finally {
+			restoreAutoCommit();
 		}
 		return aliCounter;
 	}
 
-	private int addAlignments(String tableName, File tab) {
-		int aliCounter = 0;
+	private int addAlignments(String tableName, File tab, AccessionIdMap acc2id) {
+		int aliCounter = 0, inserted = 0;
 		try {
 
+			long time = System.currentTimeMillis();
 			c.setAutoCommit(false);
 
-			// @formatter:off
-			String insert_acc_stmt = "INSERT INTO " + accTable + "(acc) VALUES (?);";
-			// @formatter:on
-
-			long time = System.currentTimeMillis();
-			int accCounter = 0;
-			try (PreparedStatement accStmt = c.prepareStatement(insert_acc_stmt)) {
-				try (BufferedReader buf = new BufferedReader(new FileReader(tab))) {
-					String line;
-					while ((line = buf.readLine()) != null) {
-						final String[] tokens = line.split("\t");
-						final String qacc = tokens[0];
-						if (!containsAcc(qacc)) {
-							accStmt.setString(1, qacc);
-							accStmt.execute();
-							accCounter++;
-						}
-						final String racc = tokens[1];
-						if (!containsAcc(racc)) {
-							accStmt.setString(1, racc);
-							accStmt.execute();
-							accCounter++;
-						}
+			try (AccessionInserter accInserter = new AccessionInserter(acc2id);
+					PreparedStatement aliStmt = c.prepareStatement(getInsertAlignmentSql(tableName));
+					BufferedReader buf = InputFactory.openReader(tab)) {
+				String line;
+				while ((line = buf.readLine()) != null) {
+					final String[] tokens = line.split("\t");
+					final int qaccId = accInserter.getOrAdd(tokens[0]);
+					final int raccId = accInserter.getOrAdd(tokens[1]);
+					final int qstart = Integer.parseInt(tokens[2]);
+					final int qend = Integer.parseInt(tokens[3]);
+					final int qlen = Integer.parseInt(tokens[4]);
+					final int sstart = Integer.parseInt(tokens[5]);
+					final int send = Integer.parseInt(tokens[6]);
+					final int slen = Integer.parseInt(tokens[7]);
+					final double pident = Double.parseDouble(tokens[8]);
+					final String btop = tokens.length < 10 || pident < 99 ? "" : tokens[9];
+					setAlignment(aliStmt, qaccId, raccId, qstart, qend, qlen, sstart, send, slen, pident, btop);
+					aliStmt.addBatch();
+					if (++aliCounter % BATCH_SIZE == 0) {
+						accInserter.flush();
+						inserted += executeBatch(aliStmt);
 					}
 				}
-			}
+				accInserter.flush();
+				inserted += executeBatch(aliStmt);
 
-			c.commit();
+				c.commit();
+				insertedAlignments += inserted;
 
-			long runtime = (System.currentTimeMillis() - time) / 1000;
-			System.err.println(String.format("SQL>Table " + tableName + ": %,d accessions", accCounter) + " added ("
-					+ runtime + "s)");
-
-			// @formatter:off
-			String insert_ali_stmt = "INSERT INTO " + tableName + "("
-					+ " qacc_id, "
-					+ " racc_id, "
-					+ " qstart, "
-					+ " qend, "
-					+ " qlen, "
-					+ " sstart, "
-					+ " send, "
-					+ " slen, "
-					+ " pident, "
-					+ " btop) "
-					+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
-			// @formatter:on
-
-			time = System.currentTimeMillis();
-			try (PreparedStatement aliStmt = c.prepareStatement(insert_ali_stmt)) {
-				try (BufferedReader buf = new BufferedReader(new FileReader(tab))) {
-					String line;
-					while ((line = buf.readLine()) != null) {
-						final String[] tokens = line.split("\t");
-						final int qaccId = getAccessionId(tokens[0]);
-						final int raccId = getAccessionId(tokens[1]);
-						final int qstart = Integer.parseInt(tokens[2]);
-						final int qend = Integer.parseInt(tokens[3]);
-						final int qlen = Integer.parseInt(tokens[4]);
-						final int sstart = Integer.parseInt(tokens[5]);
-						final int send = Integer.parseInt(tokens[6]);
-						final int slen = Integer.parseInt(tokens[7]);
-						final double pident = Double.parseDouble(tokens[8]);
-						final String btop = tokens.length < 10 || pident < 99 ? "" : tokens[9];
-						aliStmt.setInt(1, qaccId);
-						aliStmt.setInt(2, raccId);
-						aliStmt.setInt(3, qstart);
-						aliStmt.setInt(4, qend);
-						aliStmt.setInt(5, qlen);
-						aliStmt.setInt(6, sstart);
-						aliStmt.setInt(7, send);
-						aliStmt.setInt(8, slen);
-						aliStmt.setDouble(9, pident);
-						aliStmt.setString(10, btop);
-						aliStmt.execute();
-						aliCounter++;
-					}
-				}
+				long runtime = (System.currentTimeMillis() - time) / 1000;
+				System.err.println(String.format("SQL>Table " + tableName + ": %,d accessions", accInserter.getCount())
+						+ " added (" + runtime + "s)");
+				System.err.println(String.format("SQL>Table " + tableName + ": %,d alignments added", aliCounter)
+						+ " (" + runtime + "s)");
 			}
-			c.commit();
 
-			runtime = (System.currentTimeMillis() - time) / 1000;
-			System.err.println(String.format("SQL>Table " + tableName + ": %,d alignments added", aliCounter) + " ("
-					+ runtime + "s)");
-
-			c.setAutoCommit(true);
 		} catch (Exception e) {
 			e.printStackTrace();
+			rollback(acc2id);
+			aliCounter = 0;
+		} finally {
+			restoreAutoCommit();
 		}
 		return aliCounter;
 	}
 
+	/**
+	 * Discards the rows of a failed load, including the batches already
+	 * executed, and reloads the accession ids, which may hold ids of
+	 * accessions that were rolled back. Otherwise the next commit on this
+	 * connection, which the registry hands out again, would persist them.
+	 */
+	private void rollback(AccessionIdMap acc2id) {
+		try {
+			c.rollback();
+			acc2id.clear();
+			loadAccessionIds(acc2id);
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + accTable, ex);
+		}
+	}
+
+	private void restoreAutoCommit() {
+		try {
+			c.setAutoCommit(true);
+		} catch (SQLException ex) {
+			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genus: " + accTable, ex);
+		}
+	}
+
+	private int executeBatch(PreparedStatement aliStmt) throws SQLException {
+		int inserted = 0;
+		for (int n : aliStmt.executeBatch())
+			inserted += Math.max(0, n);
+		return inserted;
+	}
+
+	private String getInsertAlignmentSql(String tableName) {
+		// @formatter:off
+		return "INSERT OR IGNORE INTO " + tableName + "("
+				+ " qacc_id, "
+				+ " racc_id, "
+				+ " qstart, "
+				+ " qend, "
+				+ " qlen, "
+				+ " sstart, "
+				+ " send, "
+				+ " slen, "
+				+ " pident, "
+				+ " btop) "
+				+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+		// @formatter:on
+	}
+
+	private void setAlignment(PreparedStatement aliStmt, int qaccId, int raccId, int qstart, int qend, int qlen,
+			int sstart, int send, int slen, double pident, String btop) throws SQLException {
+		aliStmt.setInt(1, qaccId);
+		aliStmt.setInt(2, raccId);
+		aliStmt.setInt(3, qstart);
+		aliStmt.setInt(4, qend);
+		aliStmt.setInt(5, qlen);
+		aliStmt.setInt(6, sstart);
+		aliStmt.setInt(7, send);
+		aliStmt.setInt(8, slen);
+		aliStmt.setDouble(9, pident);
+		aliStmt.setBytes(10, BtopCodec.encode(btop));
+	}
+
+	private class AccessionInserter implements AutoCloseable {
+
+		private AccessionIdMap acc2id;
+		private PreparedStatement accStmt;
+		private int nextId, count = 0;
+
+		public AccessionInserter(AccessionIdMap acc2id) throws SQLException {
+			this.acc2id = acc2id;
+			this.accStmt = c.prepareStatement("INSERT INTO " + accTable + "(id, acc_key, acc) VALUES (?, ?, ?);");
+			try (Statement maxStmt = c.createStatement()) {
+				ResultSet rs = maxStmt.executeQuery("SELECT IFNULL(MAX(id), 0) FROM " + accTable);
+				nextId = rs.getInt(1) + 1;
+			}
+		}
+
+		public int getOrAdd(String acc) throws SQLException {
+			int id = acc2id.get(acc);
+			if (id == AccessionIdMap.NO_ID) {
+				id = nextId++;
+				acc2id.put(acc, id);
+				accStmt.setInt(1, id);
+				accStmt.setLong(2, AccessionCodec.encode(acc));
+				accStmt.setString(3, AccessionCodec.getSideText(acc));
+				accStmt.addBatch();
+				count++;
+			}
+			return id;
+		}
+
+		public void flush() throws SQLException {
+			accStmt.executeBatch();
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			accStmt.close();
+		}
+
+	}
+
 	public Connection getConnection() {
 		return c;
 	}
@@ -615,10 +1047,15 @@ public class SQLAlignmentDatabase {
 		return tmpDir;
 	}
 
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
 	public String getDatabaseFile() {
 		return databaseFile;
 	}
 
+	@Override
 	public String getGenus() {
 		return genus;
 	}
@@ -1,12 +1,12 @@
 package mairaDatabase.refseq.utils.tab;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 
+import mairaDatabase.utils.InputFactory;
+
 public class TabReader {
 
 	public static ArrayList<TabHit> run(File tabFile, GraphManipulator receiver) throws IOException {
@@ -15,7 +15,7 @@ public class TabReader {
 		StringBuffer word = new StringBuffer();
 		String[] words = new String[10];
 
-		InputStream is = new BufferedInputStream(new FileInputStream(tabFile));
+		InputStream is = InputFactory.open(tabFile);
 		byte[] buffer = new byte[1024 * 1024];
 		int readCharacters;
 		int pos = 0;
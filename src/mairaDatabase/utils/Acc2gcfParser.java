@@ -0,0 +1,189 @@
+package mairaDatabase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Reads an acc/gcf/taxid tab file in chunks of whole lines. Each chunk is
+ * split at line borders and parsed in parallel, gcf names are resolved through
+ * an in-memory map, accessions are encoded with AccessionCodec and the rows of
+ * a chunk are returned sorted by accession key.
+ */
+public class Acc2gcfParser implements Closeable {
+
+	public final static int DEFAULT_CHUNK_BYTES = 1 << 26;
+
+	private final RandomAccessFile raf;
+	private final AccessionIdMap gcf2id;
+	private final int parts;
+	private byte[] buffer;
+	private int carry = 0;
+	private boolean eof = false;
+
+	public Acc2gcfParser(File file, AccessionIdMap gcf2id, int chunkBytes, int parts) throws IOException {
+		this.raf = new RandomAccessFile(file, "r");
+		this.gcf2id = gcf2id;
+		this.parts = Math.max(1, parts);
+		this.buffer = new byte[chunkBytes];
+	}
+
+	/**
+	 * Returns the rows of the next chunk sorted by accession key, or null at the
+	 * end of the file.
+	 */
+	public Chunk nextChunk() throws IOException {
+		if (eof && carry == 0)
+			return null;
+		int length = carry;
+		while (!eof && length < buffer.length) {
+			int read = raf.read(buffer, length, buffer.length - length);
+			if (read < 0)
+				eof = true;
+			else
+				length += read;
+		}
+		int end = length;
+		if (!eof) {
+			while (end > 0 && buffer[end - 1] != '\n')
+				end--;
+			if (end == 0) {
+				// a single line longer than the buffer
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+				carry = length;
+				return nextChunk();
+			}
+		}
+		byte[] bytes = buffer;
+		int[] borders = new int[parts + 1];
+		borders[parts] = end;
+		for (int i = 1; i < parts; i++) {
+			int pos = Math.max(borders[i - 1], (int) ((long) end * i / parts));
+			while (pos < end && pos > 0 && bytes[pos - 1] != '\n')
+				pos++;
+			borders[i] = pos;
+		}
+		List<AccRow[]> parsed = new ArrayList<>(parts);
+		IntStream.range(0, parts).parallel().mapToObj(i -> parse(bytes, borders[i], borders[i + 1]))
+				.forEachOrdered(parsed::add);
+		int size = parsed.stream().mapToInt(rows -> rows.length).sum();
+		AccRow[] rows = new AccRow[size];
+		int pos = 0;
+		for (AccRow[] part : parsed) {
+			System.arraycopy(part, 0, rows, pos, part.length);
+			pos += part.length;
+		}
+		Arrays.parallelSort(rows);
+		carry = length - end;
+		System.arraycopy(buffer, end, buffer, 0, carry);
+		return new Chunk(rows, end);
+	}
+
+	private AccRow[] parse(byte[] bytes, int from, int to) {
+		List<AccRow> rows = new ArrayList<>();
+		int pos = from;
+		while (pos < to) {
+			int lineEnd = pos;
+			while (lineEnd < to && bytes[lineEnd] != '\n')
+				lineEnd++;
+			int tab1 = indexOf(bytes, pos, lineEnd, (byte) '\t');
+			int tab2 = indexOf(bytes, tab1 + 1, lineEnd, (byte) '\t');
+			if (tab2 < lineEnd) {
+				String acc = new String(bytes, pos, tab1 - pos, StandardCharsets.US_ASCII);
+				String gcf = new String(bytes, tab1 + 1, tab2 - tab1 - 1, StandardCharsets.US_ASCII);
+				int gcfId = gcf2id.get(gcf);
+				rows.add(new AccRow(acc, gcfId == AccessionIdMap.NO_ID ? 0 : gcfId,
+						parseInt(bytes, tab2 + 1, lineEnd)));
+			}
+			pos = lineEnd + 1;
+		}
+		return rows.toArray(new AccRow[rows.size()]);
+	}
+
+	private static int indexOf(byte[] bytes, int from, int to, byte b) {
+		int pos = from;
+		while (pos < to && bytes[pos] != b)
+			pos++;
+		return pos;
+	}
+
+	private static int parseInt(byte[] bytes, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++)
+			value = value * 10 + (bytes[i] - '0');
+		return value;
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	public static class Chunk {
+
+		private final AccRow[] rows;
+		private final long bytes;
+
+		public Chunk(AccRow[] rows, long bytes) {
+			this.rows = rows;
+			this.bytes = bytes;
+		}
+
+		public AccRow[] getRows() {
+			return rows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+	}
+
+	public static class AccRow implements Comparable<AccRow> {
+
+		private final String acc;
+		private final long key;
+		private final int gcfId, taxid;
+
+		public AccRow(String acc, int gcfId, int taxid) {
+			this.acc = acc;
+			this.key = AccessionCodec.encode(acc);
+			this.gcfId = gcfId;
+			this.taxid = taxid;
+		}
+
+		@Override
+		public int compareTo(AccRow row) {
+			int c = Long.compare(key, row.key);
+			return c != 0 || AccessionCodec.isPacked(key) ? c : acc.compareTo(row.acc);
+		}
+
+		public String getAcc() {
+			return acc;
+		}
+
+		public long getKey() {
+			return key;
+		}
+
+		public String getSideText() {
+			return AccessionCodec.isPacked(key) ? null : acc;
+		}
+
+		public int getGcfId() {
+			return gcfId;
+		}
+
+		public int getTaxid() {
+			return taxid;
+		}
+
+	}
+
+}
@@ -0,0 +1,118 @@
+package mairaDatabase.utils;
+
+/**
+ * Packs RefSeq-style accessions (one to three upper-case letters, '_', up to
+ * ten digits, optional version 1-255) such as WP_012345678.1 or
+ * GCF_000005845.2 into a positive long:
+ *
+ * <pre>
+ * bits 48-62  prefix letters (3 x 5 bits, 1-26, left-aligned)
+ * bits 44-47  number of digits (keeps leading zeros)
+ * bits  8-43  number
+ * bits  0-7   version (0 = none)
+ * </pre>
+ *
+ * Any other accession is mapped to a negative 63-bit hash key. Such keys are
+ * not reversible, so databases keep the accession text next to them as a side
+ * table and compare it as well; for packed keys the text is NULL.
+ */
+public class AccessionCodec {
+
+	public final static long NONE = 0;
+
+	private final static int MAX_DIGITS = 10, MAX_VERSION = 255;
+
+	/**
+	 * Returns the packed key of the accession or NONE if it does not follow the
+	 * RefSeq pattern.
+	 */
+	public static long pack(String acc) {
+		int n = acc.length(), pos = 0;
+		long letters = 0;
+		while (pos < n && pos < 3) {
+			char ch = acc.charAt(pos);
+			if (ch < 'A' || ch > 'Z')
+				break;
+			letters |= (long) (ch - 'A' + 1) << (10 - 5 * pos);
+			pos++;
+		}
+		if (pos == 0 || pos >= n || acc.charAt(pos) != '_')
+			return NONE;
+		int digitStart = ++pos;
+		long number = 0;
+		while (pos < n && acc.charAt(pos) >= '0' && acc.charAt(pos) <= '9')
+			number = number * 10 + (acc.charAt(pos++) - '0');
+		int digits = pos - digitStart;
+		if (digits == 0 || digits > MAX_DIGITS)
+			return NONE;
+		int version = 0;
+		if (pos < n) {
+			if (acc.charAt(pos++) != '.' || pos == n || acc.charAt(pos) == '0' || n - pos > 3)
+				return NONE;
+			while (pos < n) {
+				char ch = acc.charAt(pos++);
+				if (ch < '0' || ch > '9')
+					return NONE;
+				version = version * 10 + (ch - '0');
+			}
+			if (version > MAX_VERSION)
+				return NONE;
+		}
+		return letters << 48 | (long) digits << 44 | number << 8 | version;
+	}
+
+	/**
+	 * Returns the packed key or, for non-standard accessions, a negative hash
+	 * key.
+	 */
+	public static long encode(String acc) {
+		long key = pack(acc);
+		return key != NONE ? key : -1 - (hash(acc) & Long.MAX_VALUE);
+	}
+
+	public static boolean isPacked(long key) {
+		return key > 0;
+	}
+
+	/**
+	 * Returns the text to be stored next to the key, i.e. null for packed
+	 * accessions.
+	 */
+	public static String getSideText(String acc) {
+		return pack(acc) != NONE ? null : acc;
+	}
+
+	/**
+	 * Restores the accession from its key and the side text stored with it.
+	 */
+	public static String decode(long key, String sideText) {
+		if (!isPacked(key))
+			return sideText;
+		StringBuilder acc = new StringBuilder(24);
+		for (int shift = 58; shift >= 48; shift -= 5) {
+			int letter = (int) (key >>> shift) & 31;
+			if (letter != 0)
+				acc.append((char) ('A' + letter - 1));
+		}
+		acc.append('_');
+		int digits = (int) (key >>> 44) & 15;
+		String number = Long.toString((key >>> 8) & ((1L << 36) - 1));
+		for (int i = number.length(); i < digits; i++)
+			acc.append('0');
+		acc.append(number);
+		int version = (int) key & 255;
+		if (version != 0)
+			acc.append('.').append(version);
+		return acc.toString();
+	}
+
+	private static long hash(String acc) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < acc.length(); i++)
+			h = (h ^ acc.charAt(i)) * 0x100000001b3L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		return h ^ (h >>> 33);
+	}
+
+}
@@ -0,0 +1,260 @@
+package mairaDatabase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped index from protein accessions to the gcf_ids and
+ * taxids listed for them in acc2gcf. The file holds an open-addressing hash
+ * table of 8-byte slots followed by one record per accession (length, ASCII
+ * key, link count, gcf_ids, taxids). A slot packs a 24-bit hash tag with the
+ * 40-bit offset of its record in 4-byte units, so records may span 4 TB. All
+ * values are 4-byte aligned, lookups only read the mapped file and are safe
+ * for concurrent use.
+ */
+public class AccessionGenomeIndex implements Closeable {
+
+	private final static int MAGIC = 0x41474958, VERSION = 2;
+	private final static int RECORD_BITS = 40;
+	private final static long RECORD_MASK = (1L << RECORD_BITS) - 1;
+	private final static int HEADER_BYTES = 40;
+	private final static int SAMPLE_SIZE = 100000;
+	private final static int MAX_PACKED_LENGTH = 18;
+	private final static int[] EMPTY = new int[0];
+
+	private final MappedFile file;
+	private final long capacity, mask, records;
+	private final long accessions, links;
+
+	private AccessionGenomeIndex(File f) throws IOException {
+		this.file = MappedFile.openReadOnly(f);
+		if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+			throw new IOException("ERROR: not an accession index " + f);
+		this.capacity = file.getLong(8);
+		this.mask = capacity - 1;
+		this.accessions = file.getLong(16);
+		this.links = file.getLong(24);
+		this.records = HEADER_BYTES + 8 * capacity;
+	}
+
+	public static File getFile(String databaseFile) {
+		return new File(databaseFile + ".idx");
+	}
+
+	/**
+	 * Maps the index of the given mapping database, (re-)building it from
+	 * acc2gcf if it is missing or older than the database.
+	 */
+	public static AccessionGenomeIndex load(String databaseFile, Connection c) throws IOException, SQLException {
+		File f = getFile(databaseFile);
+		if (!f.exists() || f.lastModified() < new File(databaseFile).lastModified() || !hasCurrentVersion(f))
+			build(c, f);
+		long time = System.currentTimeMillis();
+		AccessionGenomeIndex index = new AccessionGenomeIndex(f);
+		long lookups = index.measureLookups();
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.err.println(String.format(
+				"MAP>Index acc2gcf: %,d accessions, %,d genome links, %,d MB mapped, %,d lookups/s", index.accessions,
+				index.links, index.file.size() >>> 20, lookups) + " (" + runtime + "s)");
+		return index;
+	}
+
+	private static boolean hasCurrentVersion(File f) throws IOException {
+		if (f.length() < HEADER_BYTES)
+			return false;
+		try (MappedFile file = MappedFile.openReadOnly(f)) {
+			return file.getInt(0) == MAGIC && file.getInt(4) == VERSION;
+		}
+	}
+
+	public static void build(Connection c, File f) throws IOException, SQLException {
+		long time = System.currentTimeMillis();
+		File tmpFile = new File(f.getAbsolutePath() + ".tmp");
+		try (Statement stmt = c.createStatement()) {
+			// the text of packed accessions is not stored, so their length is
+			// bounded and the file is cut to its used size afterwards
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*), IFNULL(SUM(CASE WHEN acc_key > 0 THEN "
+					+ MAX_PACKED_LENGTH + " ELSE LENGTH(acc) END), 0) FROM (SELECT DISTINCT acc_key, acc FROM acc2gcf)");
+			long distinctAccs = rs.getLong(1), keyBytes = rs.getLong(2);
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM acc2gcf");
+			long rows = rs.getLong(1);
+			long capacity = Long.highestOneBit(Math.max(16, distinctAccs * 2) - 1) << 1;
+			long records = HEADER_BYTES + 8 * capacity;
+			long size = records + 11 * distinctAccs + keyBytes + 8 * rows;
+			if ((size - records) >>> 2 >= RECORD_MASK)
+				throw new IOException("ERROR: acc2gcf too large for an accession index, " + (size - records)
+						+ " bytes of records");
+			long accessions = 0, links = 0, pos = records;
+			try (MappedFile out = MappedFile.create(tmpFile, size)) {
+				rs = stmt.executeQuery("SELECT acc_key, acc, gcf_id, taxid FROM acc2gcf ORDER BY acc_key, acc");
+				String acc = null;
+				List<int[]> accLinks = new ArrayList<>();
+				while (true) {
+					boolean hasNext = rs.next();
+					String next = hasNext ? AccessionCodec.decode(rs.getLong(1), rs.getString(2)) : null;
+					if (acc != null && !acc.equals(next)) {
+						pos = putRecord(out, capacity, records, pos, acc, accLinks);
+						accessions++;
+						links += accLinks.size();
+						accLinks.clear();
+					}
+					if (!hasNext)
+						break;
+					acc = next;
+					accLinks.add(new int[] { rs.getInt(3), rs.getInt(4) });
+				}
+				out.putInt(0, MAGIC);
+				out.putInt(4, VERSION);
+				out.putLong(8, capacity);
+				out.putLong(16, accessions);
+				out.putLong(24, links);
+				out.putLong(32, pos);
+				out.force();
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+				raf.setLength(pos);
+			}
+		}
+		f.delete();
+		if (!tmpFile.renameTo(f))
+			throw new IOException("ERROR: cannot move " + tmpFile + " to " + f);
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.err.println("MAP>Index acc2gcf: written to " + f.getName() + " (" + runtime + "s)");
+	}
+
+	private static long putRecord(MappedFile out, long capacity, long records, long pos, String acc,
+			List<int[]> accLinks) {
+		long hash = hash(acc);
+		long slot = hash & (capacity - 1);
+		while (out.getLong(HEADER_BYTES + 8 * slot) != 0)
+			slot = (slot + 1) & (capacity - 1);
+		out.putLong(HEADER_BYTES + 8 * slot, tag(hash) << RECORD_BITS | (((pos - records) >>> 2) + 1));
+		out.putInt(pos, acc.length());
+		pos += 4;
+		for (int i = 0; i < acc.length(); i++)
+			out.putByte(pos + i, (byte) acc.charAt(i));
+		pos += align(acc.length());
+		int n = accLinks.size();
+		out.putInt(pos, n);
+		pos += 4;
+		for (int i = 0; i < n; i++) {
+			out.putInt(pos + 4 * i, accLinks.get(i)[0]);
+			out.putInt(pos + 4 * (n + i), accLinks.get(i)[1]);
+		}
+		return pos + 8 * n;
+	}
+
+	public int[] getGcfIds(String acc) {
+		long pos = find(acc);
+		return pos < 0 ? EMPTY : getInts(pos, 0);
+	}
+
+	public int[] getTaxIds(String acc) {
+		long pos = find(acc);
+		return pos < 0 ? EMPTY : getInts(pos, 1);
+	}
+
+	public boolean contains(String acc) {
+		return find(acc) >= 0;
+	}
+
+	private int[] getInts(long pos, int column) {
+		int n = file.getInt(pos);
+		int[] values = new int[n];
+		long start = pos + 4 + 4L * n * column;
+		for (int i = 0; i < n; i++)
+			values[i] = file.getInt(start + 4 * i);
+		return values;
+	}
+
+	/**
+	 * Returns the position of the link count of the accession's record, or -1.
+	 */
+	private long find(String acc) {
+		long hash = hash(acc);
+		long tag = tag(hash);
+		long slot = hash & mask;
+		long entry;
+		while ((entry = file.getLong(HEADER_BYTES + 8 * slot)) != 0) {
+			if (entry >>> RECORD_BITS == tag) {
+				long pos = records + 4 * ((entry & RECORD_MASK) - 1);
+				if (keyEquals(pos, acc))
+					return pos + 4 + align(acc.length());
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean keyEquals(long pos, String acc) {
+		if (file.getInt(pos) != acc.length())
+			return false;
+		for (int i = 0; i < acc.length(); i++) {
+			if (file.getByte(pos + 4 + i) != (byte) acc.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Looks up a sample of the indexed accessions and returns the lookup rate.
+	 */
+	private long measureLookups() {
+		List<String> sample = new ArrayList<>();
+		long end = file.getLong(32);
+		byte[] key = new byte[256];
+		for (long pos = records; pos < end && sample.size() < SAMPLE_SIZE;) {
+			int length = file.getInt(pos);
+			if (key.length < length)
+				key = new byte[length];
+			file.get(pos + 4, key, 0, length);
+			sample.add(new String(key, 0, length, StandardCharsets.US_ASCII));
+			pos += 4 + align(length);
+			pos += 4 + 8L * file.getInt(pos);
+		}
+		long time = System.nanoTime();
+		for (String acc : sample)
+			getGcfIds(acc);
+		long nanos = Math.max(1, System.nanoTime() - time);
+		return sample.size() * 1000000000L / nanos;
+	}
+
+	private static long align(int length) {
+		return (length + 3) & ~3L;
+	}
+
+	/**
+	 * The top 24 bits of the hash, the low bits select the slot.
+	 */
+	private static long tag(long hash) {
+		return hash >>> RECORD_BITS;
+	}
+
+	private static long hash(String acc) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < acc.length(); i++)
+			h = (h ^ acc.charAt(i)) * 0x100000001b3L;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		return h ^ (h >>> 33);
+	}
+
+	public long getAccessionCount() {
+		return accessions;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -0,0 +1,113 @@
+package mairaDatabase.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open-addressing hash map from accession strings to primitive int ids. Used to
+ * resolve accessions in memory instead of issuing one SQL lookup per accession.
+ * RefSeq accessions are held as packed AccessionCodec keys and compared as
+ * longs, only other accessions are kept as strings.
+ */
+public class AccessionIdMap {
+
+	public final static int NO_ID = -1;
+
+	private long[] keys;
+	private int[] values;
+	private final Map<String, Integer> others = new HashMap<>();
+	private int size = 0;
+	private int mask;
+
+	public AccessionIdMap() {
+		this(1024);
+	}
+
+	public AccessionIdMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	public int get(String acc) {
+		long key = AccessionCodec.pack(acc);
+		if (key == AccessionCodec.NONE)
+			return others.getOrDefault(acc, NO_ID);
+		int i = slot(key);
+		return keys[i] == AccessionCodec.NONE ? NO_ID : values[i];
+	}
+
+	public boolean containsKey(String acc) {
+		return get(acc) != NO_ID;
+	}
+
+	public void put(String acc, int id) {
+		long key = AccessionCodec.pack(acc);
+		if (key == AccessionCodec.NONE)
+			others.put(acc, id);
+		else
+			put(key, id);
+	}
+
+	/**
+	 * Adds an accession given by its database key and side text.
+	 */
+	public void put(long key, String sideText, int id) {
+		if (AccessionCodec.isPacked(key))
+			put(key, id);
+		else
+			others.put(sideText, id);
+	}
+
+	private void put(long key, int id) {
+		int i = slot(key);
+		if (keys[i] != AccessionCodec.NONE) {
+			values[i] = id;
+			return;
+		}
+		keys[i] = key;
+		values[i] = id;
+		if (++size > (mask + 1) / 2)
+			rehash();
+	}
+
+	public int size() {
+		return size + others.size();
+	}
+
+	private int slot(long key) {
+		int i = mix(key) & mask;
+		while (keys[i] != AccessionCodec.NONE && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != AccessionCodec.NONE) {
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	private static int mix(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	public void clear() {
+		Arrays.fill(keys, AccessionCodec.NONE);
+		others.clear();
+		size = 0;
+	}
+
+}
@@ -0,0 +1,145 @@
+package mairaDatabase.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Interns accessions into dense int ids 0, 1, 2, ... in the order they are
+ * added. The bytes of all accessions are kept in one arena, an
+ * open-addressing table of ids locates them by hash. Hashes are computed once
+ * per accession and compared before the arena bytes, so lookups allocate
+ * nothing and node maps keyed by accession become arrays indexed by id.
+ */
+public class AccessionInterner {
+
+	public final static int NO_ID = -1;
+
+	private byte[] arena;
+	private int arenaSize = 0;
+	private int[] starts, hashes;
+	private int size = 0;
+	private int[] table;
+	private int mask;
+
+	public AccessionInterner() {
+		this(1024);
+	}
+
+	public AccessionInterner(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+		table = new int[capacity];
+		Arrays.fill(table, NO_ID);
+		mask = capacity - 1;
+		starts = new int[Math.max(16, expectedSize) + 1];
+		hashes = new int[starts.length - 1];
+		arena = new byte[Math.max(256, expectedSize * 16)];
+	}
+
+	/**
+	 * Returns the id of the accession, which is added if it is new.
+	 */
+	public int intern(byte[] acc, int off, int len) {
+		int hash = hash(acc, off, len);
+		int i = slot(acc, off, len, hash);
+		if (table[i] != NO_ID)
+			return table[i];
+		if (size + 1 == starts.length) {
+			starts = Arrays.copyOf(starts, 2 * starts.length);
+			hashes = Arrays.copyOf(hashes, starts.length - 1);
+		}
+		if (arenaSize + len > arena.length)
+			arena = Arrays.copyOf(arena, Math.max(2 * arena.length, arenaSize + len));
+		System.arraycopy(acc, off, arena, arenaSize, len);
+		arenaSize += len;
+		hashes[size] = hash;
+		starts[size + 1] = arenaSize;
+		table[i] = size++;
+		if (size > (mask + 1) / 2)
+			rehash();
+		return size - 1;
+	}
+
+	public int intern(String acc) {
+		byte[] b = acc.getBytes();
+		return intern(b, 0, b.length);
+	}
+
+	/**
+	 * Returns the id of the accession or NO_ID.
+	 */
+	public int get(byte[] acc, int off, int len) {
+		return table[slot(acc, off, len, hash(acc, off, len))];
+	}
+
+	public int get(String acc) {
+		byte[] b = acc.getBytes();
+		return get(b, 0, b.length);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int length(int id) {
+		return starts[id + 1] - starts[id];
+	}
+
+	public String getString(int id) {
+		return new String(arena, starts[id], length(id));
+	}
+
+	public byte[] getBytes(int id) {
+		return Arrays.copyOfRange(arena, starts[id], starts[id + 1]);
+	}
+
+	public void write(int id, OutputStream out) throws IOException {
+		out.write(arena, starts[id], length(id));
+	}
+
+	/**
+	 * Returns the number of bytes held by the arena, the id arrays and the
+	 * table.
+	 */
+	public long getMemoryFootprint() {
+		return arena.length + 4L * (starts.length + hashes.length + table.length);
+	}
+
+	private int slot(byte[] acc, int off, int len, int hash) {
+		int i = mix(hash) & mask;
+		int id;
+		while ((id = table[i]) != NO_ID && (hashes[id] != hash || !equals(id, acc, off, len)))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private boolean equals(int id, byte[] acc, int off, int len) {
+		int start = starts[id];
+		return starts[id + 1] - start == len && Arrays.equals(arena, start, start + len, acc, off, off + len);
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		Arrays.fill(table, NO_ID);
+		mask = table.length - 1;
+		for (int id = 0; id < size; id++) {
+			int i = mix(hashes[id]) & mask;
+			while (table[i] != NO_ID)
+				i = (i + 1) & mask;
+			table[i] = id;
+		}
+	}
+
+	private static int hash(byte[] acc, int off, int len) {
+		int h = 0x811c9dc5;
+		for (int i = off; i < off + len; i++)
+			h = (h ^ acc[i]) * 0x01000193;
+		return h;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,292 @@
+package mairaDatabase.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * samtools-style .fai index of an uncompressed FASTA file, stored next to it
+ * as name, length, offset of the first residue, residues per line and bytes
+ * per line. Entries follow the rules of FastaReader: entries without name or
+ * sequence are left out and only the first entry of a name is kept. The
+ * sequences are read on demand from the memory-mapped FASTA file, so only the
+ * names, interned into entry ids, and the offsets are held in memory.
+ */
+public class FastaIndex implements Closeable {
+
+	private final File fastaFile;
+	private final MappedFile file;
+	private final AccessionInterner names;
+	private final long[] offsets;
+	private final int[] lengths, lineBases, lineWidths;
+	private byte[] line = new byte[1 << 12];
+
+	private FastaIndex(File fastaFile, MappedFile file, AccessionInterner names, long[] offsets, int[] lengths,
+			int[] lineBases, int[] lineWidths) {
+		this.fastaFile = fastaFile;
+		this.file = file;
+		this.names = names;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.lineBases = lineBases;
+		this.lineWidths = lineWidths;
+	}
+
+	public static File getFile(File fastaFile) {
+		return new File(fastaFile.getPath() + ".fai");
+	}
+
+	/**
+	 * Opens the index of the file, which is built first if it is missing or
+	 * older than the file.
+	 */
+	public static FastaIndex open(File fastaFile) throws IOException {
+		File indexFile = getFile(fastaFile);
+		if (!indexFile.exists() || indexFile.lastModified() < fastaFile.lastModified())
+			build(fastaFile);
+		int n = 0;
+		AccessionInterner names = new AccessionInterner((int) Math.min(1 << 24, indexFile.length() / 32));
+		long[] offsets = new long[1024];
+		int[] lengths = new int[offsets.length], lineBases = new int[offsets.length],
+				lineWidths = new int[offsets.length];
+		try (BufferedReader buf = InputFactory.openReader(indexFile)) {
+			String l;
+			while ((l = buf.readLine()) != null) {
+				String[] tokens = l.split("\t");
+				if (n == offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * n);
+					lengths = Arrays.copyOf(lengths, 2 * n);
+					lineBases = Arrays.copyOf(lineBases, 2 * n);
+					lineWidths = Arrays.copyOf(lineWidths, 2 * n);
+				}
+				if (names.intern(tokens[0]) != n)
+					throw new IOException("ERROR: duplicate name " + tokens[0] + " in " + indexFile);
+				lengths[n] = Integer.parseInt(tokens[1]);
+				offsets[n] = Long.parseLong(tokens[2]);
+				lineBases[n] = Integer.parseInt(tokens[3]);
+				lineWidths[n] = Integer.parseInt(tokens[4]);
+				n++;
+			}
+		}
+		return new FastaIndex(fastaFile, MappedFile.openReadOnly(fastaFile), names,
+				Arrays.copyOf(offsets, n), Arrays.copyOf(lengths, n), Arrays.copyOf(lineBases, n),
+				Arrays.copyOf(lineWidths, n));
+	}
+
+	/**
+	 * Writes the index of the file in one scan. Entries whose sequence lines
+	 * differ in length (other than the last one) cannot be indexed.
+	 */
+	public static void build(File fastaFile) throws IOException {
+		if (InputFactory.isGzip(fastaFile))
+			throw new IOException("ERROR: cannot index compressed file " + fastaFile);
+		File indexFile = getFile(fastaFile);
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try (InputStream in = InputFactory.open(fastaFile);
+				BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+			Indexer indexer = new Indexer(fastaFile, writer);
+			byte[] buffer = new byte[InputFactory.BUFFER_SIZE];
+			long pos = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				indexer.add(buffer, read, pos);
+				pos += read;
+			}
+			indexer.finish();
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public String getName(int entry) {
+		return names.getString(entry);
+	}
+
+	public int getSequenceLength(int entry) {
+		return lengths[entry];
+	}
+
+	/**
+	 * Returns the entry of the accession or -1.
+	 */
+	public int indexOf(String acc) {
+		return names.get(acc);
+	}
+
+	/**
+	 * Returns residues from (inclusive) to (exclusive) of the sequence.
+	 */
+	public byte[] getSequence(int entry, int from, int to) {
+		byte[] seq = new byte[to - from];
+		int bases = lineBases[entry], n = 0;
+		while (n < seq.length) {
+			int residue = from + n;
+			long pos = offsets[entry] + (long) (residue / bases) * lineWidths[entry] + residue % bases;
+			int run = Math.min(seq.length - n, bases - residue % bases);
+			file.get(pos, seq, n, run);
+			n += run;
+		}
+		return seq;
+	}
+
+	public String getSequence(int entry) {
+		return new String(getSequence(entry, 0, lengths[entry]));
+	}
+
+	/**
+	 * Copies the entry as '>name\nsequence\n' from the mapped file to the
+	 * stream.
+	 */
+	public void write(int entry, OutputStream out) throws IOException {
+		out.write('>');
+		names.write(entry, out);
+		out.write('\n');
+		int bases = lineBases[entry], length = lengths[entry];
+		if (line.length < bases)
+			line = new byte[bases];
+		long pos = offsets[entry];
+		for (int n = 0; n < length; n += bases) {
+			int run = Math.min(bases, length - n);
+			file.get(pos, line, 0, run);
+			out.write(line, 0, run);
+			pos += lineWidths[entry];
+		}
+		out.write('\n');
+	}
+
+	public File getFastaFile() {
+		return fastaFile;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Follows the lines of the file through consecutive buffers and writes
+	 * one index line per entry.
+	 */
+	private static class Indexer {
+
+		private final File fastaFile;
+		private final BufferedWriter writer;
+		private final AccessionInterner names = new AccessionInterner();
+
+		// current line
+		private long lineStart = 0;
+		private int lineLength = 0;
+		private byte first, last;
+		private byte[] name = new byte[256];
+		private int nameLength = 0;
+		private boolean nameDone = false;
+
+		// current entry
+		private boolean readSequence = false, hasName = false, irregular = false, emptyLine = false;
+		private long offset = -1, length = 0;
+		private int bases, width, lastBases, lastWidth;
+
+		public Indexer(File fastaFile, BufferedWriter writer) {
+			this.fastaFile = fastaFile;
+			this.writer = writer;
+		}
+
+		public void add(byte[] buffer, int n, long pos) throws IOException {
+			for (int i = 0; i < n; i++) {
+				byte b = buffer[i];
+				if (b == '\n') {
+					endLine(1);
+					lineStart = pos + i + 1;
+					lineLength = 0;
+					continue;
+				}
+				if (lineLength == 0) {
+					if (b == '>') {
+						endEntry();
+						nameLength = 0;
+						nameDone = false;
+					}
+					first = b;
+				} else if (first == '>' && !nameDone) {
+					if (b == ' ')
+						nameDone = true;
+					else {
+						if (nameLength == name.length)
+							name = Arrays.copyOf(name, 2 * nameLength);
+						name[nameLength++] = b;
+					}
+				}
+				last = b;
+				lineLength++;
+			}
+		}
+
+		public void finish() throws IOException {
+			if (lineLength > 0)
+				endLine(0);
+			endEntry();
+		}
+
+		private void endLine(int terminator) throws IOException {
+			int content = lineLength > 0 && last == '\r' ? lineLength - 1 : lineLength;
+			if (lineLength > 0 && first == '>') {
+				if (nameLength > 0 && name[nameLength - 1] == '\r')
+					nameLength--;
+				hasName = nameLength > 0;
+				readSequence = true;
+			} else if (lineLength > 0 && first == '+')
+				readSequence = false;
+			else if (readSequence)
+				addSequenceLine(content, lineLength + terminator);
+		}
+
+		private void addSequenceLine(int content, int lineWidth) {
+			if (content == 0) {
+				emptyLine = offset >= 0;
+				return;
+			}
+			if (offset < 0) {
+				offset = lineStart;
+				bases = content;
+				width = lineWidth;
+			} else if (emptyLine || lastBases != bases || lastWidth != width || content > bases)
+				irregular = true;
+			lastBases = content;
+			lastWidth = lineWidth;
+			length += content;
+		}
+
+		private void endEntry() throws IOException {
+			if (hasName && length > 0) {
+				int size = names.size();
+				names.intern(name, 0, nameLength);
+				String acc = new String(name, 0, nameLength);
+				if (names.size() == size)
+					System.err.println("WARNING: read " + acc + " occurs multiple times in FASTA file.");
+				else if (irregular)
+					throw new IOException("ERROR: irregular line lengths in " + fastaFile + " at " + acc);
+				else
+					writer.write(acc + "\t" + length + "\t" + offset + "\t" + bases + "\t" + width + "\n");
+			}
+			readSequence = hasName = irregular = emptyLine = false;
+			offset = -1;
+			length = 0;
+		}
+
+	}
+
+}
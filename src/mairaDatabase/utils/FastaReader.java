@@ -1,71 +1,252 @@
 package mairaDatabase.utils;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.ZipException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Streams the entries of a (possibly gzipped) FASTA file one at a time, so
+ * only the current entry is held in memory. Errors while reading are thrown
+ * as UncheckedIOException.
+ */
 public class FastaReader {
 
-	public static ArrayList<FastaEntry> read(File fastaFile) {
+	/**
+	 * Iterates over the entries of the file, skipping entries whose name
+	 * occurred before.
+	 */
+	public static FastaIterator iterate(File fastaFile) throws IOException {
+		return new FastaIterator(fastaFile, true);
+	}
+
+	/**
+	 * Iterates over the entries of the file. Without duplicate detection no
+	 * names are kept, use it when names are known to be unique or are checked
+	 * by the caller.
+	 */
+	public static FastaIterator iterate(File fastaFile, boolean checkDuplicates) throws IOException {
+		return new FastaIterator(fastaFile, checkDuplicates);
+	}
+
+	/**
+	 * Returns the entries as a stream, which has to be closed.
+	 */
+	public static Stream<FastaEntry> stream(File fastaFile, boolean checkDuplicates) throws IOException {
+		FastaIterator it = iterate(fastaFile, checkDuplicates);
+		return StreamSupport.stream(it.spliterator(), false).onClose(it::close);
+	}
+
+	public static int count(File fastaFile, boolean checkDuplicates) throws IOException {
+		int count = 0;
+		try (FastaIterator it = iterate(fastaFile, checkDuplicates)) {
+			while (it.hasNext()) {
+				it.next();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns true if the whole file can be decoded, the entries are not
+	 * parsed.
+	 */
+	public static boolean isReadable(File fastaFile) {
+		return InputFactory.isReadable(fastaFile);
+	}
 
-		ArrayList<FastaEntry> readInfo = new ArrayList<FastaEntry>();
-		HashSet<SparseString> readNames = new HashSet<SparseString>();
-		try {
+	/**
+	 * Parses the raw bytes of the file in a large buffer. Header names and
+	 * sequence lines are located by scanning for line breaks and copied as
+	 * byte runs, no line is decoded into a String.
+	 */
+	public static class FastaIterator implements Iterator<FastaEntry>, Iterable<FastaEntry>, Closeable {
 
-			BufferedReader buf;
+		private final static int BUFFER_SIZE = 1 << 20;
+
+		private final File fastaFile;
+		private final InputStream in;
+		private final AccessionInterner readNames;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int pos = 0, limit = 0;
+		private byte[] name = new byte[256], sequence = new byte[1 << 16];
+		private int nameLength = 0, sequenceLength = 0;
+		private boolean readSequence = false, done = false;
+		private FastaEntry next;
+
+		private FastaIterator(File fastaFile, boolean checkDuplicates) throws IOException {
+			this.fastaFile = fastaFile;
+			this.in = InputFactory.open(fastaFile);
+			this.readNames = checkDuplicates ? new AccessionInterner() : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done)
+				next = advance();
+			return next != null;
+		}
+
+		@Override
+		public FastaEntry next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			FastaEntry entry = next;
+			next = null;
+			return entry;
+		}
+
+		private FastaEntry advance() {
 			try {
-				buf = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(fastaFile))));
-			} catch (ZipException | EOFException e) {
-				buf = new BufferedReader(new FileReader(fastaFile));
+				while (pos < limit || fill()) {
+					byte first = buffer[pos];
+					if (first == '>') {
+						FastaEntry entry = takeEntry();
+						pos++;
+						readName();
+						readSequence = true;
+						if (entry != null)
+							return entry;
+					} else if (first == '+') {
+						readSequence = false;
+						skipLine();
+					} else if (readSequence) {
+						readSequenceLine();
+					} else
+						skipLine();
+				}
+				done = true;
+				FastaEntry entry = takeEntry();
+				in.close();
+				return entry;
+			} catch (IOException e) {
+				done = true;
+				close();
+				throw new UncheckedIOException("ERROR: cannot read " + fastaFile, e);
+			}
+		}
+
+		/**
+		 * Refills the buffer, returns false at the end of the file.
+		 */
+		private boolean fill() throws IOException {
+			int read;
+			while ((read = in.read(buffer, 0, buffer.length)) == 0)
+				;
+			pos = 0;
+			limit = Math.max(0, read);
+			return read > 0;
+		}
+
+		/**
+		 * Copies the header up to the first space, the rest of the line is
+		 * skipped.
+		 */
+		private void readName() throws IOException {
+			nameLength = 0;
+			while (pos < limit || fill()) {
+				int end = pos;
+				while (end < limit && buffer[end] != ' ' && buffer[end] != '\n')
+					end++;
+				name = append(name, nameLength, buffer, pos, end);
+				nameLength += end - pos;
+				pos = end;
+				if (end < limit) {
+					if (buffer[end] == ' ')
+						skipLine();
+					else
+						pos++;
+					break;
+				}
 			}
+			if (nameLength > 0 && name[nameLength - 1] == '\r')
+				nameLength--;
+		}
 
-			String line, name = "";
-			boolean readSequence = false;
-			StringBuilder seqBuilder = new StringBuilder("");
-			while ((line = buf.readLine()) != null) {
-				if (line.startsWith(">")) {
-					if (seqBuilder.length() != 0 && !name.isEmpty()) {
-						FastaEntry entry = new FastaEntry(name, seqBuilder.toString());
-						if (checkFASTFile(entry, readNames))
-							readInfo.add(entry);
-					}
-					seqBuilder = new StringBuilder("");
-					name = line.substring(1).split(" ")[0];
-					readSequence = true;
-				} else if (line.startsWith("+")) {
-					readSequence = false;
-				} else if (readSequence) {
-					seqBuilder.append(line);
+		private void readSequenceLine() throws IOException {
+			while (pos < limit || fill()) {
+				int end = pos;
+				while (end < limit && buffer[end] != '\n')
+					end++;
+				sequence = append(sequence, sequenceLength, buffer, pos, end);
+				sequenceLength += end - pos;
+				pos = end;
+				if (end < limit) {
+					pos++;
+					break;
 				}
+			}
+			if (sequenceLength > 0 && sequence[sequenceLength - 1] == '\r')
+				sequenceLength--;
+		}
 
+		private void skipLine() throws IOException {
+			while (pos < limit || fill()) {
+				while (pos < limit && buffer[pos] != '\n')
+					pos++;
+				if (pos < limit) {
+					pos++;
+					break;
+				}
 			}
-			if (seqBuilder.length() != 0 && !name.isEmpty()) {
-				FastaEntry entry = new FastaEntry(name, seqBuilder.toString());
-				if (checkFASTFile(entry, readNames))
-					readInfo.add(entry);
+		}
+
+		private static byte[] append(byte[] target, int length, byte[] src, int from, int to) {
+			if (length + to - from > target.length)
+				target = Arrays.copyOf(target, Math.max(2 * target.length, length + to - from));
+			System.arraycopy(src, from, target, length, to - from);
+			return target;
+		}
+
+		private FastaEntry takeEntry() {
+			FastaEntry entry = null;
+			if (sequenceLength != 0 && nameLength != 0
+					&& (readNames == null || checkFASTFile(name, nameLength, readNames))) {
+				entry = new FastaEntry(Arrays.copyOf(name, nameLength), Arrays.copyOf(sequence, sequenceLength));
 			}
-			buf.close();
+			sequenceLength = 0;
+			return entry;
+		}
 
-		} catch (Exception e) {
-			//e.printStackTrace();
-			return null;
+		@Override
+		public Iterator<FastaEntry> iterator() {
+			return this;
 		}
-		readNames = null;
 
-		return readInfo;
+		@Override
+		public void close() {
+			done = true;
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 
 	}
 	
 	public static class FastaEntry{
 		
 		private SparseString name, sequence;
+		private int sequenceLength;
 		
 		public FastaEntry(String name, String sequence) {
 			super();
 			this.name = new SparseString(name);
 			this.sequence = new SparseString(sequence);
+			this.sequenceLength = sequence.length();
+		}
+
+		/**
+		 * Takes over the given ASCII bytes without copying them.
+		 */
+		public FastaEntry(byte[] name, byte[] sequence) {
+			this.name = new SparseString(name);
+			this.sequence = new SparseString(sequence);
+			this.sequenceLength = sequence.length;
 		}
 
 		public String getName() {
@@ -80,18 +261,31 @@ public class FastaReader {
 			return sequence.toString();
 		}
 
+		/**
+		 * Writes the entry as '>name\nsequence\n' without concatenating them.
+		 */
+		public void write(Writer writer) throws IOException {
+			writer.write('>');
+			writer.write(name.toString());
+			writer.write('\n');
+			writer.write(sequence.toString());
+			writer.write('\n');
+		}
+
 		public int getSequenceLength() {
-			return sequence.toString().length();
+			return sequenceLength;
 		}
 		
 	}
 
-	private static boolean checkFASTFile(FastaEntry e, HashSet<SparseString> readNames) {
-		if (readNames.contains(e.getName())) {
-			System.err.println("WARNING: read " + e.getName() + " occurs multiple times in FASTA file.");
+	private static boolean checkFASTFile(byte[] name, int nameLength, AccessionInterner readNames) {
+		int size = readNames.size();
+		readNames.intern(name, 0, nameLength);
+		if (readNames.size() == size) {
+			System.err.println(
+					"WARNING: read " + new String(name, 0, nameLength) + " occurs multiple times in FASTA file.");
 			return false;
 		}
-		readNames.add(new SparseString(e.getName()));
 		return true;
 	}
 
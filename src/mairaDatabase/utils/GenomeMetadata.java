@@ -0,0 +1,104 @@
+package mairaDatabase.utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only snapshot of gcf2taxid. gcf_id is a dense autoincrement key, so
+ * size, taxid, species and genus of all genomes are kept in primitive arrays
+ * indexed by gcf_id. Unknown ids yield NO_ID.
+ */
+public class GenomeMetadata {
+
+	public final static int NO_ID = -1;
+
+	private final String[] gcfs;
+	private final int[] sizes, taxids, speciesIds, genusIds;
+	private final AccessionIdMap gcf2id;
+	private final int genomes;
+
+	public GenomeMetadata(Connection c) throws SQLException {
+		long time = System.currentTimeMillis();
+		try (Statement stmt = c.createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*), IFNULL(MAX(gcf_id), 0) FROM gcf2taxid");
+			this.genomes = rs.getInt(1);
+			int n = rs.getInt(2) + 1;
+			gcfs = new String[n];
+			sizes = new int[n];
+			taxids = new int[n];
+			speciesIds = new int[n];
+			genusIds = new int[n];
+			gcf2id = new AccessionIdMap(genomes);
+			rs = stmt.executeQuery("SELECT gcf_id, gcf, size, taxid, species_id, genus_id FROM gcf2taxid");
+			while (rs.next()) {
+				int id = rs.getInt(1);
+				gcfs[id] = rs.getString(2);
+				sizes[id] = rs.getInt(3);
+				taxids[id] = rs.getInt(4);
+				speciesIds[id] = rs.getInt(5);
+				genusIds[id] = rs.getInt(6);
+				gcf2id.put(gcfs[id], id);
+			}
+		}
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.err.println(String.format("SQL>Table gcf2taxid: %,d genomes loaded", genomes) + " (" + runtime + "s)");
+	}
+
+	public boolean contains(int gcfId) {
+		return gcfId >= 0 && gcfId < gcfs.length && gcfs[gcfId] != null;
+	}
+
+	public int getGcfId(String gcf) {
+		int id = gcf2id.get(gcf);
+		return id == AccessionIdMap.NO_ID ? NO_ID : id;
+	}
+
+	public String getGcf(int gcfId) {
+		return contains(gcfId) ? gcfs[gcfId] : null;
+	}
+
+	public int getSize(int gcfId) {
+		return contains(gcfId) ? sizes[gcfId] : NO_ID;
+	}
+
+	public int getTaxid(int gcfId) {
+		return contains(gcfId) ? taxids[gcfId] : NO_ID;
+	}
+
+	public int getSpeciesId(int gcfId) {
+		return contains(gcfId) ? speciesIds[gcfId] : NO_ID;
+	}
+
+	public int getGenusId(int gcfId) {
+		return contains(gcfId) ? genusIds[gcfId] : NO_ID;
+	}
+
+	/**
+	 * Returns the gcf_ids of the genomes of a genus in ascending order.
+	 */
+	public List<Integer> getGenomesByGenus(int genusId) {
+		List<Integer> ids = new ArrayList<>();
+		for (int id = 0; id < gcfs.length; id++) {
+			if (gcfs[id] != null && genusIds[id] == genusId)
+				ids.add(id);
+		}
+		return ids;
+	}
+
+	public int getMaxGcfId() {
+		return gcfs.length - 1;
+	}
+
+	public AccessionIdMap getGcfIds() {
+		return gcf2id;
+	}
+
+	public int size() {
+		return genomes;
+	}
+
+}
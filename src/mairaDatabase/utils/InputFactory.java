@@ -0,0 +1,429 @@
+package mairaDatabase.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Opens input files with large buffers. Gzip files are recognized by their
+ * magic bytes, so plain files are never tried as gzip first. Big gzip files
+ * are decoded in parallel: BGZF files (multi-member gzip whose members carry
+ * their compressed size) are inflated member by member in a thread pool,
+ * other gzip files are inflated by a read-ahead thread while the caller
+ * consumes the output. Bytes read from disk and decoded are counted over all
+ * streams, see getStatistics().
+ */
+public class InputFactory {
+
+	public final static int BUFFER_SIZE = 1 << 20;
+	public final static long PARALLEL_THRESHOLD = 16 << 20;
+
+	private final static int GZIP_MAGIC_1 = 0x1f, GZIP_MAGIC_2 = 0x8b;
+	private final static int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+	private final static int BGZF_HEADER = 18;
+
+	private final static LongAdder files = new LongAdder(), compressedBytes = new LongAdder(),
+			decodedBytes = new LongAdder(), openNanos = new LongAdder();
+
+	private static ExecutorService pool;
+
+	public static InputStream open(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			byte[] header = new byte[BGZF_HEADER];
+			int n = readFully(fis, header, 0, header.length);
+			fis.getChannel().position(0);
+			InputStream in;
+			if (!isGzip(header, n))
+				in = new BufferedInputStream(fis, BUFFER_SIZE);
+			else if (file.length() < PARALLEL_THRESHOLD || Runtime.getRuntime().availableProcessors() < 2)
+				in = new GZIPInputStream(fis, 1 << 16);
+			else if (isBgzf(header, n))
+				in = new ParallelBgzfInputStream(fis.getChannel());
+			else
+				in = new ReadAheadInputStream(new GZIPInputStream(fis, 1 << 16));
+			return new CountingInputStream(in, file.length());
+		} catch (IOException e) {
+			fis.close();
+			throw e;
+		}
+	}
+
+	public static BufferedReader openReader(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(open(file)), BUFFER_SIZE);
+	}
+
+	public static boolean isGzip(File file) throws IOException {
+		try (FileInputStream fis = new FileInputStream(file)) {
+			byte[] header = new byte[2];
+			return isGzip(header, readFully(fis, header, 0, 2));
+		}
+	}
+
+	/**
+	 * Returns true if the whole file can be decoded, for gzip files this
+	 * includes the CRC check of every member.
+	 */
+	public static boolean isReadable(File file) {
+		try (InputStream in = open(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (in.read(buffer) != -1)
+				;
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static String getStatistics() {
+		double seconds = openNanos.sum() / 1e9;
+		double mb = decodedBytes.sum() / (double) (1 << 20);
+		return String.format("INPUT> %,d files, %,d MB read, %,d MB decoded, %.1f MB/s per stream", files.sum(),
+				compressedBytes.sum() >>> 20, decodedBytes.sum() >>> 20, seconds > 0 ? mb / seconds : 0);
+	}
+
+	public static void resetStatistics() {
+		files.reset();
+		compressedBytes.reset();
+		decodedBytes.reset();
+		openNanos.reset();
+	}
+
+	private static boolean isGzip(byte[] header, int n) {
+		return n >= 2 && (header[0] & 0xff) == GZIP_MAGIC_1 && (header[1] & 0xff) == GZIP_MAGIC_2;
+	}
+
+	private static boolean isBgzf(byte[] header, int n) {
+		return n == BGZF_HEADER && header[2] == 8 && (header[3] & FEXTRA) != 0 && header[12] == 'B'
+				&& header[13] == 'C' && header[14] == 2 && header[15] == 0;
+	}
+
+	private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int read = in.read(b, off + n, len - n);
+			if (read < 0)
+				break;
+			n += read;
+		}
+		return n;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "gzip-inflater");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return pool;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		private final long fileSize, start = System.nanoTime();
+		private long decoded = 0;
+		private boolean closed = false;
+
+		public CountingInputStream(InputStream in, long fileSize) {
+			super(in);
+			this.fileSize = fileSize;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0)
+				decoded++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0)
+				decoded += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			decoded += skipped;
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				files.increment();
+				compressedBytes.add(fileSize);
+				decodedBytes.add(decoded);
+				openNanos.add(System.nanoTime() - start);
+			}
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Inflates the output of another stream in a background thread into a
+	 * small queue of blocks.
+	 */
+	private static class ReadAheadInputStream extends InputStream {
+
+		private final static byte[] EOF = new byte[0];
+
+		private final InputStream in;
+		private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(4);
+		private final Thread reader;
+		private volatile IOException error;
+		private volatile boolean closed = false;
+		private byte[] block;
+		private int pos = 0;
+
+		public ReadAheadInputStream(InputStream in) {
+			this.in = in;
+			this.reader = new Thread(this::readAhead, "gzip-read-ahead");
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		private void readAhead() {
+			try {
+				while (!closed) {
+					byte[] b = new byte[BUFFER_SIZE];
+					int n = readFully(in, b, 0, b.length);
+					if (n > 0)
+						blocks.put(n == b.length ? b : Arrays.copyOf(b, n));
+					if (n < b.length)
+						break;
+				}
+			} catch (IOException e) {
+				error = e;
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				blocks.put(EOF);
+			} catch (InterruptedException e) {
+			}
+		}
+
+		private boolean nextBlock() throws IOException {
+			if (block == EOF)
+				return false;
+			if (block == null || pos == block.length) {
+				try {
+					block = blocks.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				pos = 0;
+				if (block == EOF) {
+					if (error != null)
+						throw error;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return nextBlock() ? block[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!nextBlock())
+				return -1;
+			int n = Math.min(len, block.length - pos);
+			System.arraycopy(block, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			reader.interrupt();
+			try {
+				reader.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			in.close();
+		}
+
+	}
+
+	/**
+	 * Reads the members of a BGZF file in order and inflates them in the shared
+	 * pool, a bounded number of members ahead of the caller.
+	 */
+	private static class ParallelBgzfInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		private final int ahead = 4 * Runtime.getRuntime().availableProcessors();
+		private final ByteBuffer header = ByteBuffer.allocate(BGZF_HEADER);
+		private boolean eof = false;
+		private byte[] block;
+		private int pos = 0;
+
+		public ParallelBgzfInputStream(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void submit() throws IOException {
+			while (!eof && pending.size() < ahead) {
+				byte[] member = readMember();
+				if (member == null)
+					eof = true;
+				else
+					pending.add(getPool().submit(() -> inflate(member)));
+			}
+		}
+
+		private byte[] readMember() throws IOException {
+			header.clear();
+			while (header.hasRemaining() && channel.read(header) >= 0)
+				;
+			if (header.position() == 0)
+				return null;
+			byte[] h = header.array();
+			if (!isBgzf(h, header.position()))
+				throw new ZipException("Not a BGZF member at offset " + (channel.position() - header.position()));
+			int size = ((h[16] & 0xff) | (h[17] & 0xff) << 8) + 1;
+			ByteBuffer member = ByteBuffer.allocate(size);
+			member.put(h);
+			while (member.hasRemaining() && channel.read(member) >= 0)
+				;
+			if (member.hasRemaining())
+				throw new EOFException("Truncated BGZF member");
+			return member.array();
+		}
+
+		private boolean nextBlock() throws IOException {
+			while (block == null || pos == block.length) {
+				submit();
+				Future<byte[]> next = pending.poll();
+				if (next == null)
+					return false;
+				try {
+					block = next.get();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException(e.getCause());
+				}
+				pos = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return nextBlock() ? block[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!nextBlock())
+				return -1;
+			int n = Math.min(len, block.length - pos);
+			System.arraycopy(block, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (Future<byte[]> f : pending)
+				f.cancel(false);
+			pending.clear();
+			channel.close();
+		}
+
+	}
+
+	/**
+	 * Inflates one complete gzip member and checks its CRC and size.
+	 */
+	private static byte[] inflate(byte[] member) throws IOException {
+		int flags = member[3] & 0xff, off = 10;
+		if ((flags & FEXTRA) != 0)
+			off += 2 + ((member[10] & 0xff) | (member[11] & 0xff) << 8);
+		if ((flags & FNAME) != 0)
+			while (member[off++] != 0)
+				;
+		if ((flags & FCOMMENT) != 0)
+			while (member[off++] != 0)
+				;
+		if ((flags & FHCRC) != 0)
+			off += 2;
+		int end = member.length - 8;
+		int crc = readInt(member, end), size = readInt(member, end + 4);
+		byte[] out = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(member, off, end - off);
+			byte[] overflow = new byte[1];
+			int n = 0;
+			while (!inflater.finished()) {
+				int read = n < size ? inflater.inflate(out, n, size - n) : inflater.inflate(overflow);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += read;
+			}
+			if (n != size || !inflater.finished())
+				throw new ZipException("Corrupt gzip member: size mismatch");
+		} catch (DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		CRC32 check = new CRC32();
+		check.update(out);
+		if ((int) check.getValue() != crc)
+			throw new ZipException("Corrupt gzip member: CRC mismatch");
+		return out;
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+	}
+
+}
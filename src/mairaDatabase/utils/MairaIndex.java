@@ -0,0 +1,476 @@
+package mairaDatabase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only, memory-mapped export of acc2taxids, factors_N and acc2dominator
+ * of a maira.db. Accessions are placed by a minimal perfect hash over their
+ * AccessionCodec keys (hash and displace: keys are grouped into buckets, each
+ * bucket stores the seed that moves its keys to free slots, single-key buckets
+ * store their slot directly). Each slot holds a fixed-width record:
+ *
+ * <pre>
+ * long   key          AccessionCodec key, rejects accessions not in the index
+ * int    taxid        the taxid, or -(offset + 1) of a list of taxids
+ * int    dominator    slot of the dominator, or -1
+ * float  factors[F]   one factor per factors_N table, NaN if not listed
+ * </pre>
+ *
+ * Accessions that cannot be packed are kept as text in a side table sorted by
+ * slot. Lookups only read the mapped file and are safe for concurrent use.
+ */
+public class MairaIndex implements Closeable {
+
+	public final static int NO_SLOT = -1;
+
+	private final static int MAGIC = 0x4d504858, VERSION = 1;
+	private final static int HEADER_BYTES = 64;
+	private final static int BUCKET_SIZE = 4;
+	private final static int MAX_SEEDS = 1 << 24, MAX_HASH_SEEDS = 16;
+	private final static int[] EMPTY = new int[0];
+
+	private final MappedFile file;
+	private final int size, buckets, recordBytes;
+	private final long hashSeed;
+	private final int[] ns;
+	private final long displacements, records, texts;
+	private final int textCount;
+
+	private MairaIndex(File f) throws IOException {
+		this.file = MappedFile.openReadOnly(f);
+		if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+			throw new IOException("ERROR: not a maira index " + f);
+		this.size = file.getInt(8);
+		this.buckets = file.getInt(12);
+		this.hashSeed = file.getLong(16);
+		this.ns = new int[file.getInt(24)];
+		this.textCount = file.getInt(28);
+		this.records = file.getLong(32);
+		this.texts = file.getLong(40);
+		for (int i = 0; i < ns.length; i++)
+			ns[i] = file.getInt(HEADER_BYTES + 4 * i);
+		this.displacements = HEADER_BYTES + 4 * ns.length;
+		this.recordBytes = getRecordBytes(ns.length);
+	}
+
+	public static File getFile(String databaseFile) {
+		return new File(databaseFile + ".mph");
+	}
+
+	public static MairaIndex open(File f) throws IOException {
+		long time = System.currentTimeMillis();
+		MairaIndex index = new MairaIndex(f);
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.err.println(String.format("SQL>Index %s: %,d accessions, %,d MB mapped", f.getName(), index.size,
+				index.file.size() >>> 20) + " (" + runtime + "s)");
+		return index;
+	}
+
+	/**
+	 * Exports acc2taxids, all factors_N tables and acc2dominator of the database
+	 * behind the connection to the given file.
+	 */
+	public static void build(Connection c, File f) throws IOException, SQLException {
+		long time = System.currentTimeMillis();
+		System.out.println(">Exporting index " + f.getName());
+		Builder builder = new Builder();
+		try (Statement stmt = c.createStatement()) {
+			List<Integer> ns = new ArrayList<>();
+			ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE 'factors_%'");
+			while (rs.next())
+				ns.add(Integer.parseInt(rs.getString(1).substring("factors_".length())));
+			ns.sort(null);
+			builder.ns = ns.stream().mapToInt(Integer::intValue).toArray();
+			// grouped by accession through the acc index
+			rs = stmt.executeQuery("SELECT acc, taxid FROM acc2taxids ORDER BY acc");
+			while (rs.next())
+				builder.addTaxid(rs.getString(1), rs.getInt(2));
+			for (int i = 0; i < builder.ns.length; i++) {
+				rs = stmt.executeQuery("SELECT acc, factor FROM factors_" + builder.ns[i]);
+				while (rs.next())
+					builder.setFactor(builder.getId(rs.getString(1)), i, rs.getFloat(2));
+			}
+			rs = stmt.executeQuery("SELECT acc, dominator FROM acc2dominator");
+			while (rs.next())
+				builder.setDominator(builder.getId(rs.getString(1)), builder.getId(rs.getString(2)));
+		}
+		builder.write(f);
+		long runtime = (System.currentTimeMillis() - time) / 1000;
+		System.out.println(String.format("Index %s: %,d accessions", f.getName(), builder.size) + " (" + runtime
+				+ "s)");
+	}
+
+	public boolean contains(String acc) {
+		return getSlot(acc) != NO_SLOT;
+	}
+
+	/**
+	 * Returns the slot of the accession, or NO_SLOT if it is not indexed.
+	 */
+	public int getSlot(String acc) {
+		if (size == 0)
+			return NO_SLOT;
+		long key = AccessionCodec.encode(acc);
+		int slot = slot(key, hashSeed, size, file.getInt(displacements + 4L * bucket(key, hashSeed, buckets)));
+		if (file.getLong(record(slot)) != key)
+			return NO_SLOT;
+		if (!AccessionCodec.isPacked(key) && !acc.equals(getText(slot)))
+			return NO_SLOT;
+		return slot;
+	}
+
+	public int[] getTaxids(String acc) {
+		int slot = getSlot(acc);
+		if (slot == NO_SLOT)
+			return EMPTY;
+		int taxid = file.getInt(record(slot) + 8);
+		if (taxid >= 0)
+			return new int[] { taxid };
+		long pos = records + (long) size * recordBytes + 4L * (-taxid - 1);
+		int[] taxids = new int[file.getInt(pos)];
+		for (int i = 0; i < taxids.length; i++)
+			taxids[i] = file.getInt(pos + 4 + 4 * i);
+		return taxids;
+	}
+
+	/**
+	 * Returns the factor of the accession in factors_n, or NaN if it is not
+	 * listed there.
+	 */
+	public float getFactor(String acc, int n) {
+		int i = Arrays.binarySearch(ns, n);
+		int slot = getSlot(acc);
+		if (i < 0 || slot == NO_SLOT)
+			return Float.NaN;
+		return file.getFloat(record(slot) + 16 + 4 * i);
+	}
+
+	/**
+	 * Returns the accession of the dominator, or null.
+	 */
+	public String getDominator(String acc) {
+		int slot = getSlot(acc);
+		if (slot == NO_SLOT)
+			return null;
+		int dominator = file.getInt(record(slot) + 12);
+		return dominator == NO_SLOT ? null : getAccession(dominator);
+	}
+
+	public String getAccession(int slot) {
+		long key = file.getLong(record(slot));
+		return AccessionCodec.isPacked(key) ? AccessionCodec.decode(key, null) : getText(slot);
+	}
+
+	private String getText(int slot) {
+		int low = 0, high = textCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int s = file.getInt(texts + 8L * mid);
+			if (s < slot)
+				low = mid + 1;
+			else if (s > slot)
+				high = mid - 1;
+			else {
+				long pos = texts + 8L * textCount + file.getInt(texts + 8L * mid + 4);
+				byte[] bytes = new byte[file.getInt(pos)];
+				file.get(pos + 4, bytes, 0, bytes.length);
+				return new String(bytes, StandardCharsets.US_ASCII);
+			}
+		}
+		return null;
+	}
+
+	private long record(int slot) {
+		return records + (long) slot * recordBytes;
+	}
+
+	public int[] getFactorNs() {
+		return ns.clone();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	private static int getRecordBytes(int factors) {
+		return (16 + 4 * factors + 7) & ~7;
+	}
+
+	private static int bucket(long key, long hashSeed, int buckets) {
+		return reduce(mix(key ^ hashSeed), buckets);
+	}
+
+	private static int slot(long key, long hashSeed, int size, int displacement) {
+		if (displacement < 0)
+			return -displacement - 1;
+		return reduce(mix(key + (displacement + 1) * 0x9E3779B97F4A7C15L ^ hashSeed), size);
+	}
+
+	private static int reduce(long hash, int n) {
+		return (int) (((hash >>> 32) * n) >>> 32);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Collects the records in id order before they are placed into the slots
+	 * of the perfect hash.
+	 */
+	private static class Builder {
+
+		private final AccessionIdMap acc2id = new AccessionIdMap(1 << 20);
+		private int[] ns;
+		private int size = 0;
+		private long[] keys = new long[1024];
+		private String[] texts = new String[1024];
+		private int[] taxids = new int[1024], dominators = new int[1024];
+		private float[] factors = new float[0];
+		private int[] taxidLists = new int[1024];
+		private int taxidListsSize = 0;
+		private int lastId = NO_SLOT, lastStart = 0;
+
+		private int getId(String acc) {
+			int id = acc2id.get(acc);
+			if (id != AccessionIdMap.NO_ID)
+				return id;
+			if (size == keys.length) {
+				int capacity = 2 * size;
+				keys = Arrays.copyOf(keys, capacity);
+				texts = Arrays.copyOf(texts, capacity);
+				taxids = Arrays.copyOf(taxids, capacity);
+				dominators = Arrays.copyOf(dominators, capacity);
+			}
+			if (factors.length < keys.length * ns.length) {
+				int from = factors.length;
+				factors = Arrays.copyOf(factors, keys.length * ns.length);
+				Arrays.fill(factors, from, factors.length, Float.NaN);
+			}
+			id = size++;
+			keys[id] = AccessionCodec.encode(acc);
+			texts[id] = AccessionCodec.getSideText(acc);
+			taxids[id] = 0;
+			dominators[id] = NO_SLOT;
+			acc2id.put(acc, id);
+			return id;
+		}
+
+		/**
+		 * Rows have to be grouped by accession; accessions with more than one
+		 * distinct taxid get a taxid list.
+		 */
+		private void addTaxid(String acc, int taxid) {
+			int id = getId(acc);
+			if (id != lastId) {
+				lastId = id;
+				lastStart = taxidListsSize;
+				taxids[id] = taxid;
+				appendTaxid(0);
+				appendTaxid(taxid);
+				taxidLists[lastStart] = 1;
+				return;
+			}
+			for (int i = 0; i < taxidLists[lastStart]; i++) {
+				if (taxidLists[lastStart + 1 + i] == taxid)
+					return;
+			}
+			appendTaxid(taxid);
+			taxidLists[lastStart]++;
+			taxids[id] = -lastStart - 1;
+		}
+
+		private void appendTaxid(int value) {
+			if (taxidListsSize == taxidLists.length)
+				taxidLists = Arrays.copyOf(taxidLists, 2 * taxidLists.length);
+			taxidLists[taxidListsSize++] = value;
+		}
+
+		private void setFactor(int id, int i, float factor) {
+			factors[id * ns.length + i] = factor;
+		}
+
+		private void setDominator(int id, int dominator) {
+			dominators[id] = dominator;
+		}
+
+		private void write(File f) throws IOException {
+			long hashSeed = 0x2545F4914F6CDD1DL;
+			int buckets = Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE);
+			int[] displacement = new int[buckets], id2slot = null;
+			for (int attempt = 0; id2slot == null; attempt++) {
+				// only equal keys, i.e. colliding hash keys of unpacked accessions, keep failing
+				if (attempt == MAX_HASH_SEEDS)
+					throw new IOException("ERROR: cannot build perfect hash for " + f);
+				id2slot = place(hashSeed, buckets, displacement);
+				if (id2slot == null)
+					hashSeed = mix(hashSeed + 1);
+			}
+			int[] slot2id = new int[size];
+			for (int id = 0; id < size; id++)
+				slot2id[id2slot[id]] = id;
+
+			// taxid lists are only kept for accessions with more than one taxid
+			int[] lists = new int[taxidListsSize];
+			int listsSize = 0;
+			int[] listStart = new int[size];
+			for (int id = 0; id < size; id++) {
+				if (taxids[id] < 0) {
+					int start = -taxids[id] - 1, n = taxidLists[start];
+					System.arraycopy(taxidLists, start, lists, listsSize, n + 1);
+					listStart[id] = listsSize;
+					listsSize += n + 1;
+				}
+			}
+			List<Integer> textSlots = new ArrayList<>();
+			long textBytes = 0;
+			for (int slot = 0; slot < size; slot++) {
+				String text = texts[slot2id[slot]];
+				if (text != null) {
+					textSlots.add(slot);
+					textBytes += 4 + ((text.length() + 3) & ~3);
+				}
+			}
+
+			int recordBytes = getRecordBytes(ns.length);
+			long records = (HEADER_BYTES + 4L * ns.length + 4L * buckets + 7) & ~7L;
+			long textsPos = records + (long) size * recordBytes + 4L * listsSize;
+			long end = textsPos + 8L * textSlots.size() + textBytes;
+			File tmpFile = new File(f.getAbsolutePath() + ".tmp");
+			try (MappedFile out = MappedFile.create(tmpFile, end)) {
+				out.putInt(0, MAGIC);
+				out.putInt(4, VERSION);
+				out.putInt(8, size);
+				out.putInt(12, buckets);
+				out.putLong(16, hashSeed);
+				out.putInt(24, ns.length);
+				out.putInt(28, textSlots.size());
+				out.putLong(32, records);
+				out.putLong(40, textsPos);
+				out.putLong(48, end);
+				for (int i = 0; i < ns.length; i++)
+					out.putInt(HEADER_BYTES + 4 * i, ns[i]);
+				long pos = HEADER_BYTES + 4L * ns.length;
+				for (int b = 0; b < buckets; b++)
+					out.putInt(pos + 4L * b, displacement[b]);
+				for (int slot = 0; slot < size; slot++) {
+					int id = slot2id[slot];
+					pos = records + (long) slot * recordBytes;
+					out.putLong(pos, keys[id]);
+					out.putInt(pos + 8, taxids[id] >= 0 ? taxids[id] : -listStart[id] - 1);
+					out.putInt(pos + 12, dominators[id] == NO_SLOT ? NO_SLOT : id2slot[dominators[id]]);
+					for (int i = 0; i < ns.length; i++)
+						out.putFloat(pos + 16 + 4 * i, factors[id * ns.length + i]);
+				}
+				pos = records + (long) size * recordBytes;
+				for (int i = 0; i < listsSize; i++)
+					out.putInt(pos + 4L * i, lists[i]);
+				long textPos = 0;
+				for (int i = 0; i < textSlots.size(); i++) {
+					int slot = textSlots.get(i);
+					byte[] text = texts[slot2id[slot]].getBytes(StandardCharsets.US_ASCII);
+					out.putInt(textsPos + 8L * i, slot);
+					out.putInt(textsPos + 8L * i + 4, (int) textPos);
+					long textStart = textsPos + 8L * textSlots.size() + textPos;
+					out.putInt(textStart, text.length);
+					out.put(textStart + 4, text, 0, text.length);
+					textPos += 4 + ((text.length + 3) & ~3);
+				}
+				out.force();
+			}
+			f.delete();
+			if (!tmpFile.renameTo(f))
+				throw new IOException("ERROR: cannot move " + tmpFile + " to " + f);
+		}
+
+		/**
+		 * Places the buckets in descending size order and returns the slot of
+		 * each id, or null if a bucket finds no seed and another hash seed has to
+		 * be tried.
+		 */
+		private int[] place(long hashSeed, int buckets, int[] displacement) {
+			int[] bucketStart = new int[buckets + 1];
+			int[] bucketOf = new int[size];
+			for (int id = 0; id < size; id++) {
+				bucketOf[id] = bucket(keys[id], hashSeed, buckets);
+				bucketStart[bucketOf[id] + 1]++;
+			}
+			int maxBucket = 0;
+			for (int b = 0; b < buckets; b++) {
+				maxBucket = Math.max(maxBucket, bucketStart[b + 1]);
+				bucketStart[b + 1] += bucketStart[b];
+			}
+			int[] members = new int[size], fill = Arrays.copyOf(bucketStart, buckets);
+			for (int id = 0; id < size; id++)
+				members[fill[bucketOf[id]]++] = id;
+			// counting sort of the buckets by size, largest first
+			int[] sizeStart = new int[maxBucket + 2];
+			for (int b = 0; b < buckets; b++)
+				sizeStart[maxBucket - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+			for (int s = 0; s <= maxBucket; s++)
+				sizeStart[s + 1] += sizeStart[s];
+			int[] order = new int[buckets];
+			for (int b = 0; b < buckets; b++)
+				order[sizeStart[maxBucket - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+
+			boolean[] taken = new boolean[size];
+			int[] id2slot = new int[size], slots = new int[maxBucket];
+			int free = 0;
+			for (int b : order) {
+				int from = bucketStart[b], n = bucketStart[b + 1] - from;
+				if (n == 0)
+					break;
+				if (n == 1) {
+					while (taken[free])
+						free++;
+					taken[free] = true;
+					id2slot[members[from]] = free;
+					displacement[b] = -free - 1;
+					continue;
+				}
+				boolean placed = false;
+				for (int seed = 0; seed < MAX_SEEDS && !placed; seed++) {
+					placed = true;
+					for (int i = 0; i < n && placed; i++) {
+						int s = slot(keys[members[from + i]], hashSeed, size, seed);
+						for (int j = 0; j < i && placed; j++)
+							placed = slots[j] != s;
+						placed &= !taken[s];
+						slots[i] = s;
+					}
+					if (placed) {
+						for (int i = 0; i < n; i++) {
+							taken[slots[i]] = true;
+							id2slot[members[from + i]] = slots[i];
+						}
+						displacement[b] = seed;
+					}
+				}
+				if (!placed)
+					return null;
+			}
+			return id2slot;
+		}
+
+	}
+
+}
@@ -0,0 +1,35 @@
+package mairaDatabase.utils;
+
+/**
+ * Receives the records of the maira.db tables while the pipeline computes
+ * them, so they do not have to be written to and parsed from tab files.
+ * Records computed per genus name their genus, which lets a refreshed
+ * database replace only the genera whose records changed. Implementations
+ * are called from several threads at once.
+ */
+public interface MairaSink {
+
+	void addAccessionTaxid(String acc, int taxid);
+
+	void addProteinCount(int taxid, int median);
+
+	void addSpeciesDisjoint(String genus, int source, int target, double minDisjoint);
+
+	/**
+	 * Announces the species disjoints of the genus, computed from inputs with
+	 * the given fingerprint. Returns true if the previous release holds the
+	 * disjoints of the same inputs, which are then kept and need not be
+	 * computed again.
+	 */
+	boolean keepSpeciesDisjoints(String genus, String fingerprint);
+
+	/**
+	 * Announces the factors of marker database n, which may end up empty.
+	 */
+	void createFactorsTable(int n);
+
+	void addFactor(String genus, int n, String acc, double factor);
+
+	void addDominator(String genus, String acc, String dominator, String btop, int qstart, int sstart, int slen);
+
+}
@@ -0,0 +1,154 @@
+package mairaDatabase.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped view of a file of arbitrary size. The file is mapped in
+ * segments of 1GB, so aligned primitive reads never cross a segment border.
+ * All accessors use absolute positions and are safe for concurrent readers.
+ * Closing the file unmaps the segments right away where the JVM allows it,
+ * otherwise their mappings are released with the next collection. No reader
+ * may access the file after it has been closed.
+ */
+public class MappedFile implements Closeable {
+
+	private final static int SEGMENT_BITS = 30;
+	private final static long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private final static long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	private MappedFile(File file, long size, boolean writable) throws IOException {
+		this.raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		if (writable)
+			raf.setLength(size);
+		this.size = raf.length();
+		FileChannel channel = raf.getChannel();
+		segments = new MappedByteBuffer[(int) ((this.size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+		for (int i = 0; i < segments.length; i++) {
+			long start = (long) i << SEGMENT_BITS;
+			long length = Math.min(SEGMENT_SIZE, this.size - start);
+			segments[i] = channel.map(writable ? MapMode.READ_WRITE : MapMode.READ_ONLY, start, length);
+			segments[i].order(ByteOrder.nativeOrder());
+		}
+	}
+
+	public static MappedFile openReadOnly(File file) throws IOException {
+		return new MappedFile(file, -1, false);
+	}
+
+	public static MappedFile create(File file, long size) throws IOException {
+		file.delete();
+		return new MappedFile(file, size, true);
+	}
+
+	public byte getByte(long pos) {
+		return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+	}
+
+	public int getInt(long pos) {
+		return segments[(int) (pos >>> SEGMENT_BITS)].getInt((int) (pos & SEGMENT_MASK));
+	}
+
+	public long getLong(long pos) {
+		return segments[(int) (pos >>> SEGMENT_BITS)].getLong((int) (pos & SEGMENT_MASK));
+	}
+
+	public float getFloat(long pos) {
+		return segments[(int) (pos >>> SEGMENT_BITS)].getFloat((int) (pos & SEGMENT_MASK));
+	}
+
+	public void get(long pos, byte[] dst, int offset, int length) {
+		while (length > 0) {
+			int inSegment = (int) (pos & SEGMENT_MASK);
+			int n = (int) Math.min(length, SEGMENT_SIZE - inSegment);
+			segments[(int) (pos >>> SEGMENT_BITS)].get(inSegment, dst, offset, n);
+			pos += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	public void putByte(long pos, byte b) {
+		segments[(int) (pos >>> SEGMENT_BITS)].put((int) (pos & SEGMENT_MASK), b);
+	}
+
+	public void putInt(long pos, int value) {
+		segments[(int) (pos >>> SEGMENT_BITS)].putInt((int) (pos & SEGMENT_MASK), value);
+	}
+
+	public void putLong(long pos, long value) {
+		segments[(int) (pos >>> SEGMENT_BITS)].putLong((int) (pos & SEGMENT_MASK), value);
+	}
+
+	public void putFloat(long pos, float value) {
+		segments[(int) (pos >>> SEGMENT_BITS)].putFloat((int) (pos & SEGMENT_MASK), value);
+	}
+
+	public void put(long pos, byte[] src, int offset, int length) {
+		for (int i = 0; i < length; i++)
+			putByte(pos + i, src[offset + i]);
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public void force() {
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (MappedByteBuffer segment : segments) {
+			if (segment != null)
+				unmap(segment);
+		}
+		Arrays.fill(segments, null);
+		raf.close();
+	}
+
+	private static void unmap(MappedByteBuffer buffer) {
+		if (UNSAFE == null)
+			return;
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private final static Object UNSAFE;
+	private final static Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+}
@@ -32,6 +32,10 @@ public class ResourceLoader {
 	public void setTime() {
 		time = System.currentTimeMillis();
 	}
+
+	public long getTime() {
+		return time;
+	}
 	
 	public void setMaxProgress(long maxProgress) {
 		this.maxProgress = maxProgress;
@@ -67,6 +71,16 @@ public class ResourceLoader {
 		}
 	}
 
+	public synchronized void reportProgress(long delta, long items) {
+		progress.getAndAdd(delta);
+		int p = ((int) ((((double) progress.get() / (double) maxProgress)) * 100) / 5) * 5;
+		if (p > lastProgress && p < 100) {
+			lastProgress = p;
+			long millis = Math.max(1, System.currentTimeMillis() - time);
+			System.out.print(p + "% (" + getUptime() + String.format(", %,d rows/s) ", items * 1000 / millis));
+		}
+	}
+
 	public void reportFinish() {
 		progress.set(0);
 		lastProgress = 0;
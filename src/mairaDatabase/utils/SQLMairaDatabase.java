@@ -1,21 +1,52 @@
 package mairaDatabase.utils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class SQLMairaDatabase {
+import mairaDatabase.utils.SQLiteProfile.Phase;
+
+/**
+ * The final maira.db. Producers push their records through the MairaSink
+ * methods while the pipeline runs; each table is filled in batches into a
+ * shard of its own and finish() indexes the shards in parallel before
+ * assembling them into the database. A database refreshed from a previous
+ * release only receives the rows that differ from it: tables of records
+ * computed per genus are kept as one contiguous row range per genus, recorded
+ * in table_scopes, and only the ranges of genera whose records changed are
+ * replaced.
+ */
+public class SQLMairaDatabase implements MairaSink {
+
+	private final static int BATCH_SIZE = 100000;
+	private final static Set<String> INTERNAL_TABLES = new HashSet<>(
+			Arrays.asList("versions", "table_scopes", "tree2newick"));
 
 	private ResourceLoader rL = new ResourceLoader();
+	private final Map<String, TableSink> tables = new ConcurrentHashMap<>();
+	private TabFileSink tabFiles;
+	private String version, base;
+	private Map<String, Map<String, Scope>> previousScopes = new HashMap<>();
 
 	private String databaseFile;
 	private File tmpDir;
@@ -34,6 +65,7 @@ public class SQLMairaDatabase {
 			c = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFile);
 			stmt = c.createStatement();
 			stmt.execute("PRAGMA temp_store_directory = '" + tmpDir.getAbsolutePath() + "'");
+			SQLiteProfile.apply(stmt, Phase.READ, false, getName());
 		} catch (ClassNotFoundException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, null, ex);
 		} catch (SQLException ex) {
@@ -41,244 +73,685 @@ public class SQLMairaDatabase {
 		}
 	}
 
-	public void createProtCountsTable(File protCounts) {
+	private String getName() {
+		return new File(databaseFile).getName();
+	}
+
+	/**
+	 * Stamps the database with the given version. If a previous release is
+	 * given, the database starts as a copy of it and finish() applies a
+	 * per-table diff instead of rebuilding the tables. Fails if the previous
+	 * release cannot be copied or read, as the run would otherwise silently
+	 * produce a database that lacks its rows.
+	 */
+	public synchronized void setVersion(String version, File previous) throws IOException {
+		this.version = version;
+		if (previous == null)
+			return;
+		System.out.println(">Copying " + previous.getAbsolutePath());
+		try {
+			stmt.close();
+			c.close();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		Files.copy(previous.toPath(), new File(databaseFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		init(databaseFile, tmpDir);
 		try {
+			this.base = getVersion(previous.getAbsolutePath());
+			loadScopes();
+		} catch (SQLException | NullPointerException e) {
+			throw new IOException("ERROR: cannot read previous release " + previous.getAbsolutePath(), e);
+		}
+	}
 
-			System.out.println(">Creating SQL Table prot_counts");
-			rL.setTime();
-			stmt.execute("CREATE TABLE IF NOT EXISTS prot_counts (taxid INTEGER, median INTEGER)");
-			stmt.execute("DELETE FROM prot_counts");
-			c.setAutoCommit(false);
-			int count = 0;
-			rL.setMaxProgress(protCounts.length());
-			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO prot_counts VALUES (?, ?);");
-					BufferedReader buf = new BufferedReader(new FileReader(protCounts));) {
-				String line;
-				while ((line = buf.readLine()) != null) {
-					final String[] tokens = line.split("\t");
-					final int taxid = Integer.parseInt(tokens[0]);
-					final int median = Integer.parseInt(tokens[1]);
-					insertStmd.setInt(1, taxid);
-					insertStmd.setInt(2, median);
-					insertStmd.execute();
-					count++;
-					rL.reportProgress(line.length() + 1);
-				}
+	/**
+	 * Reads the row ranges of the genera of the previous release, for the
+	 * tables it holds.
+	 */
+	private void loadScopes() throws SQLException {
+		Set<String> names = getTableNames();
+		if (!names.contains("table_scopes"))
+			return;
+		try (ResultSet rs = stmt.executeQuery(
+				"SELECT tbl, scope, first_row, last_row, row_count, digest, fingerprint FROM table_scopes")) {
+			while (rs.next()) {
+				if (!names.contains(rs.getString(1)))
+					continue;
+				Scope scope = new Scope(rs.getString(2));
+				scope.firstRow = rs.getLong(3);
+				scope.lastRow = rs.getLong(4);
+				scope.count = rs.getLong(5);
+				scope.digest = rs.getLong(6);
+				scope.fingerprint = rs.getString(7);
+				previousScopes.computeIfAbsent(rs.getString(1), key -> new HashMap<>()).put(scope.name, scope);
 			}
-			c.commit();
-			c.setAutoCommit(true);
-			System.out.println(String.format("Table prot_counts: added %,d items", count));
-			rL.reportFinish();
-			rL.reportRuntime();
-
-			System.out.println(">Indexing SQL Table prot_counts");
-			rL.setTime();
-			stmt.execute("DROP INDEX IF EXISTS prot_countsIndex");
-			stmt.execute("CREATE INDEX prot_countsIndex ON prot_counts (taxid)");
-			rL.reportFinish();
-			rL.reportRuntime();
+		}
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+	/**
+	 * Returns the latest version stamp of the database, or its file path if it
+	 * has none.
+	 */
+	private String getVersion(String previous) throws SQLException {
+		if (getTableNames().contains("versions")) {
+			try (ResultSet rs = stmt.executeQuery("SELECT version FROM versions ORDER BY rowid DESC LIMIT 1")) {
+				if (rs.next())
+					return rs.getString(1);
+			}
 		}
+		return previous;
 	}
 
-	public void createAcc2taxidTable(File acc2gcf2taxid) {
-		try {
+	/**
+	 * Additionally writes every record as a line of a tab file named after its
+	 * table, for debugging.
+	 */
+	public synchronized void writeTabFiles(File folder) {
+		tabFiles = new TabFileSink(folder);
+	}
 
-			System.out.println(">Creating SQL Table acc2taxids");
-			rL.setTime();
-			stmt.execute("CREATE TABLE IF NOT EXISTS acc2taxids (acc TEXT, taxid integer)");
-			stmt.execute("DELETE FROM acc2taxids");
-			c.setAutoCommit(false);
-			int count = 0;
-			rL.setMaxProgress(acc2gcf2taxid.length());
-			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO acc2taxids VALUES (?, ?);");
-					BufferedReader buf = new BufferedReader(new FileReader(acc2gcf2taxid));) {
-				String line;
-				while ((line = buf.readLine()) != null) {
-					final String[] tokens = line.split("\t");
-					final String accession = tokens[0];
-					final int taxid = Integer.parseInt(tokens[2]);
-					insertStmd.setString(1, accession);
-					insertStmd.setInt(2, taxid);
-					insertStmd.execute();
-					count++;
-					rL.reportProgress(line.length() + 1);
-				}
-			}
-			c.commit();
-			c.setAutoCommit(true);
-			System.out.println(String.format("Table acc2taxids: added %,d items", count));
-			rL.reportFinish();
-			rL.reportRuntime();
+	@Override
+	public void addAccessionTaxid(String acc, int taxid) {
+		add(getTable("acc2taxids", "(acc TEXT, taxid integer)", 2, "acc2taxidsIndex", "(acc)", false), ps -> {
+			ps.setString(1, acc);
+			ps.setInt(2, taxid);
+		});
+		if (tabFiles != null)
+			tabFiles.addAccessionTaxid(acc, taxid);
+	}
 
-			System.out.println(">Indexing SQL Table acc2taxids");
-			rL.setTime();
-			stmt.execute("DROP INDEX IF EXISTS acc2taxidsIndex");
-			stmt.execute("CREATE INDEX acc2taxidsIndex ON acc2taxids (acc)");
-			rL.reportFinish();
-			rL.reportRuntime();
+	@Override
+	public void addProteinCount(int taxid, int median) {
+		add(getTable("prot_counts", "(taxid INTEGER, median INTEGER)", 2, "prot_countsIndex", "(taxid)", false),
+				ps -> {
+					ps.setInt(1, taxid);
+					ps.setInt(2, median);
+				});
+		if (tabFiles != null)
+			tabFiles.addProteinCount(taxid, median);
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+	@Override
+	public void addSpeciesDisjoint(String genus, int source, int target, double minDisjoint) {
+		add(getSpeciesDisjoints(), genus, hash(source, target, minDisjoint), ps -> {
+			ps.setInt(1, source);
+			ps.setInt(2, target);
+			ps.setDouble(3, minDisjoint);
+		});
+		if (tabFiles != null)
+			tabFiles.addSpeciesDisjoint(genus, source, target, minDisjoint);
 	}
 
-	public void createSpecies2disjointTable(File species2disjoint) {
-		try {
+	/**
+	 * Kept disjoints are not written to the tab files.
+	 */
+	@Override
+	public boolean keepSpeciesDisjoints(String genus, String fingerprint) {
+		TableSink table = getSpeciesDisjoints();
+		Scope previous = previousScopes.getOrDefault(table != null ? table.name : null, Collections.emptyMap())
+				.get(genus);
+		boolean unchanged = previous != null && fingerprint.equals(previous.fingerprint);
+		return table != null && table.keep(genus, fingerprint, unchanged ? previous : null);
+	}
 
-			System.out.println(">Creating SQL Table species2disjoint");
-			rL.setTime();
-			stmt.execute("CREATE TABLE IF NOT EXISTS species2disjoint (source INTEGER, target INTEGER, min_disjoint DECIMAL)");
-			stmt.execute("DELETE FROM species2disjoint");
-			c.setAutoCommit(false);
-			int count = 0;
-			rL.setMaxProgress(species2disjoint.length());
-			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO species2disjoint VALUES (?, ?, ?);");
-					BufferedReader buf = new BufferedReader(new FileReader(species2disjoint));) {
-				String line;
-				while ((line = buf.readLine()) != null) {
-					final String[] tokens = line.split("\t");
-					final int source = Integer.parseInt(tokens[0]);
-					final int target = Integer.parseInt(tokens[1]);
-					final double minDisjointPerc = Double.parseDouble(tokens[2]);
-					insertStmd.setInt(1, source);
-					insertStmd.setInt(2, target);
-					insertStmd.setDouble(3, minDisjointPerc);
-					insertStmd.execute();
-					count++;
-					rL.reportProgress(line.length() + 1);
-				}
-			}
-			c.commit();
-			c.setAutoCommit(true);
-			System.out.println(String.format("Table species2disjoint: added %,d items", count));
-			rL.reportFinish();
-			rL.reportRuntime();
+	@Override
+	public void addFactor(String genus, int n, String acc, double factor) {
+		add(getFactors(n), genus, hash(acc, factor), ps -> {
+			ps.setString(1, acc);
+			ps.setDouble(2, factor);
+		});
+		if (tabFiles != null)
+			tabFiles.addFactor(genus, n, acc, factor);
+	}
 
-			System.out.println(">Indexing SQL Table species2disjoint");
-			rL.setTime();
-			stmt.execute("DROP INDEX IF EXISTS sspecies2disjointIndex");
-			stmt.execute("CREATE INDEX species2disjointIndex ON species2disjoint (source, target)");
-			rL.reportFinish();
-			rL.reportRuntime();
+	@Override
+	public void addDominator(String genus, String acc, String dominator, String btop, int qstart, int sstart,
+			int slen) {
+		add(getDominators(), genus, hash(acc, dominator, btop, qstart, sstart, slen), ps -> {
+			ps.setString(1, acc);
+			ps.setString(2, dominator);
+			ps.setString(3, btop);
+			ps.setInt(4, qstart);
+			ps.setInt(5, sstart);
+			ps.setInt(6, slen);
+		});
+		if (tabFiles != null)
+			tabFiles.addDominator(genus, acc, dominator, btop, qstart, sstart, slen);
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+	@Override
+	public void createFactorsTable(int n) {
+		getFactors(n);
 	}
 
-	public void createFactorsTable(Map<Integer, File> weightFiles) {
-		try {
+	private TableSink getSpeciesDisjoints() {
+		return getTable("species2disjoint", "(source INTEGER, target INTEGER, min_disjoint DECIMAL)", 3,
+				"species2disjointIndex", "(source, target)", true);
+	}
+
+	private TableSink getFactors(int n) {
+		return getTable("factors_" + n, "(acc TEXT, factor REAL)", 2, "factors_" + n + "_index", "(acc)", true);
+	}
 
-			for (Entry<Integer, File> e : weightFiles.entrySet()) {
+	private TableSink getDominators() {
+		return getTable("acc2dominator",
+				"(acc TEXT, dominator TEXT, btop TEXT, qstart INTEGER, sstart INTEGER, slen INTEGER)", 6,
+				"acc2dominator_index", "(dominator)", true);
+	}
 
-				int n = e.getKey();
-				File weightFile = e.getValue();
+	private void add(TableSink table, Binder binder) {
+		if (table != null)
+			table.add(null, 0, binder);
+	}
 
-				String table = "factors_" + n;
-				String index = "factors_" + n + "_index";
+	private void add(TableSink table, String scope, long hash, Binder binder) {
+		if (table != null)
+			table.add(scope, hash, binder);
+	}
+
+	/**
+	 * 64-bit FNV-1a of the values, spread by the splitmix64 finalizer. The
+	 * digest of a genus is the sum of the hashes of its rows, so it does not
+	 * depend on the order in which the rows are added.
+	 */
+	private static long hash(Object... values) {
+		long h = 0xcbf29ce484222325L;
+		for (Object value : values) {
+			String s = value instanceof Double ? Long.toHexString(Double.doubleToLongBits((Double) value))
+					: String.valueOf(value);
+			for (int i = 0; i < s.length(); i++)
+				h = (h ^ s.charAt(i)) * 0x100000001b3L;
+			h = (h ^ '\t') * 0x100000001b3L;
+		}
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * Returns the table, creating its shard on first use. Every table is filled
+	 * in a temporary SQLite file of its own and looked up without a lock, so
+	 * producers of different tables do not wait for each other. The rows of a
+	 * scoped table are tagged with their genus in the shard.
+	 */
+	private TableSink getTable(String name, String columns, int columnCount, String index, String indexColumns,
+			boolean scoped) {
+		TableSink table = tables.get(name);
+		if (table != null)
+			return table;
+		return tables.computeIfAbsent(name, key -> {
+			try {
+				System.out.println(">Creating SQL Table " + name);
+				return new TableSink(name, columns, columnCount, index, indexColumns, scoped);
+			} catch (SQLException ex) {
+				Logger.getLogger(SQLMairaDatabase.class.getName()).log(Level.SEVERE, "Table: " + name, ex);
+				return null;
+			}
+		});
+	}
 
-				System.out.println(">Creating SQL Table " + table);
+	/**
+	 * Closes the shards in parallel, one thread per table, and assembles them
+	 * into the final database. If the database holds no other tables, the
+	 * largest unscoped shard is indexed in place and becomes the database file,
+	 * so only the smaller shards are copied and indexed. Tables of a previous
+	 * release that are no longer produced are dropped. Called once all
+	 * producers are done.
+	 */
+	public synchronized void finish() {
+		try {
+			// tables MAIRA expects even if no record was added
+			getTable("acc2taxids", "(acc TEXT, taxid integer)", 2, "acc2taxidsIndex", "(acc)", false);
+			getTable("prot_counts", "(taxid INTEGER, median INTEGER)", 2, "prot_countsIndex", "(taxid)", false);
+			getSpeciesDisjoints();
+			getDominators();
+
+			// producers create the tables in any order
+			List<TableSink> shards = new ArrayList<>(tables.values());
+			shards.sort((t1, t2) -> t1.name.compareTo(t2.name));
+			List<TableSink> unscoped = new ArrayList<>();
+			shards.stream().filter(table -> !table.scoped).forEach(unscoped::add);
+			TableSink largest = isEmpty() && !unscoped.isEmpty()
+					? Collections.max(unscoped, (t1, t2) -> Long.compare(t1.count, t2.count))
+					: null;
+			// tables of the previous release are diffed against the shards through the shard index
+			Set<String> previous = base != null ? getTableNames() : Collections.emptySet();
+			List<String> names = new ArrayList<>();
+			shards.forEach(table -> names.add(table.name));
+			System.out.println(">Closing SQL Tables " + String.join(", ", names));
+			List<Runnable> threads = new ArrayList<>();
+			for (TableSink table : shards)
+				threads.add(() -> {
+					table.close(table.scoped || table == largest || previous.contains(table.name));
+					rL.reportProgress(1);
+					rL.countDown();
+				});
+			rL.runThreads(threads.size(), threads, threads.size());
+
+			if (largest != null) {
+				System.out.println(">Moving SQL Table " + largest.name);
+				stmt.close();
+				c.close();
+				for (String suffix : new String[] { "-journal", "-wal", "-shm" })
+					new File(databaseFile + suffix).delete();
+				Files.move(largest.shardFile.toPath(), new File(databaseFile).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+				init(databaseFile, tmpDir);
+				largest.inserted = largest.count;
+				shards.remove(largest);
+			}
+			SQLiteProfile.apply(stmt, Phase.BULK_LOAD, false, getName());
+			for (TableSink table : shards) {
+				System.out.println(">Attaching SQL Table " + table.name);
 				rL.setTime();
-				stmt.execute("CREATE TABLE IF NOT EXISTS " + table + " (acc TEXT, factor REAL)");
-				stmt.execute("DELETE FROM " + table);
+				stmt.execute("ATTACH DATABASE '" + table.shardFile.getAbsolutePath() + "' AS shard");
 				c.setAutoCommit(false);
-				int count = 0;
-				rL.setMaxProgress(weightFile.length());
-				try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO " + table + " VALUES (?, ?);");
-						BufferedReader buf = new BufferedReader(new FileReader(weightFile));) {
-					String line;
-					while ((line = buf.readLine()) != null) {
-						final String[] tokens = line.split("\t");
-						final String accession = tokens[0];
-						final double weight = Double.parseDouble(tokens[1]);
-						insertStmd.setString(1, accession);
-						insertStmd.setDouble(2, weight);
-						insertStmd.execute();
-						count++;
-						rL.reportProgress(line.length() + 1);
-					}
-				}
+				boolean rebuild = !previous.contains(table.name)
+						|| (table.scoped && !previousScopes.containsKey(table.name));
+				if (rebuild)
+					rebuild(table, previous.contains(table.name));
+				else if (table.scoped)
+					applyScopedDiff(table);
+				else
+					applyDiff(table);
 				c.commit();
 				c.setAutoCommit(true);
-				System.out.println(String.format("Table " + table + ": added %,d items", count));
+				stmt.execute("DETACH DATABASE shard");
+				table.shardFile.delete();
+				if (rebuild) {
+					System.out.println(">Indexing SQL Table " + table.name);
+					stmt.execute("CREATE INDEX " + table.index + " ON " + table.name + " " + table.indexColumns);
+				}
 				rL.reportFinish();
 				rL.reportRuntime();
+			}
+			Map<String, Long> dropped = dropStaleTables(previous);
+			writeScopes();
+			if (version != null)
+				addVersion(shards, largest, dropped);
+			tables.clear();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteProfile.apply(stmt, Phase.READ, false, getName());
+			if (tabFiles != null)
+				tabFiles.close();
+		}
+	}
 
-				System.out.println(">Indexing SQL Table " + table);
-				rL.setTime();
-				stmt.execute("DROP INDEX IF EXISTS " + index);
-				stmt.execute("CREATE INDEX " + index + " ON " + table + " (acc)");
-				rL.reportFinish();
-				rL.reportRuntime();
+	/**
+	 * Replaces the table by the rows of the shard, copying the rows of a scoped
+	 * table genus by genus.
+	 */
+	private void rebuild(TableSink table, boolean existed) throws SQLException {
+		if (existed)
+			table.deleted = count("main." + table.name);
+		// unqualified names would also resolve to the attached shard
+		stmt.execute("DROP TABLE IF EXISTS main." + table.name);
+		stmt.execute("CREATE TABLE main." + table.name + " " + table.columns);
+		if (!table.scoped) {
+			table.inserted = stmt
+					.executeUpdate("INSERT INTO main." + table.name + " SELECT * FROM shard." + table.name);
+			return;
+		}
+		try (PreparedStatement copyStmd = prepareCopy(table)) {
+			for (Scope scope : new TreeMap<>(table.scopes).values()) {
+				if (scope.count > 0)
+					copyScope(table, scope, copyStmd);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the rows of the previous release whose number of copies differs
+	 * in the shard and inserts the rows of the shard that are then missing, so
+	 * rows occurring several times are compared as multisets. Rows are compared
+	 * on all columns, each side looks up the other one by its index.
+	 */
+	private void applyDiff(TableSink table) throws SQLException {
+		String[] indexed = table.indexColumns.substring(1, table.indexColumns.length() - 1).split(",\\s*");
+		String[] columns = table.getColumnNames();
+		stmt.execute("CREATE INDEX IF NOT EXISTS main." + table.index + " ON " + table.name + " "
+				+ table.indexColumns);
+		table.deleted = stmt.executeUpdate("DELETE FROM main." + table.name + " WHERE rowid IN (SELECT m.rowid FROM main."
+				+ table.name + " m WHERE (SELECT COUNT(*) FROM shard." + table.name + " s WHERE "
+				+ matches("s", "m", indexed, columns) + ") != (SELECT COUNT(*) FROM main." + table.name + " x WHERE "
+				+ matches("x", "m", indexed, columns) + "))");
+		table.inserted = stmt.executeUpdate("INSERT INTO main." + table.name + " SELECT * FROM shard." + table.name
+				+ " s WHERE NOT EXISTS (SELECT 1 FROM main." + table.name + " m WHERE "
+				+ matches("m", "s", indexed, columns) + ")");
+		System.out.println(String.format("Table " + table.name + ": %,d inserted, %,d deleted", table.inserted,
+				table.deleted));
+	}
 
+	/**
+	 * Compares indexed columns with '=', so the index can be used, and all
+	 * other columns with 'IS', which also matches NULLs.
+	 */
+	private static String matches(String alias, String other, String[] indexed, String[] columns) {
+		List<String> conditions = new ArrayList<>();
+		List<String> indexedColumns = Arrays.asList(indexed);
+		for (String column : columns)
+			conditions.add(alias + "." + column + (indexedColumns.contains(column) ? " = " : " IS ") + other + "."
+					+ column);
+		return String.join(" AND ", conditions);
+	}
+
+	/**
+	 * Keeps the row range of every genus whose rows have the same count and
+	 * digest as in the previous release, or whose inputs were unchanged.
+	 * Ranges of the other genera are deleted, first of all, and their new rows
+	 * are appended, so the work is proportional to the changed genera.
+	 */
+	private void applyScopedDiff(TableSink table) throws SQLException {
+		Map<String, Scope> previous = previousScopes.get(table.name);
+		List<Scope> changed = new ArrayList<>();
+		try (PreparedStatement deleteStmd = c
+				.prepareStatement("DELETE FROM main." + table.name + " WHERE rowid BETWEEN ? AND ?")) {
+			for (String name : new TreeSet<>(union(previous.keySet(), table.scopes.keySet()))) {
+				Scope scope = table.scopes.get(name), old = previous.get(name);
+				if (scope != null && (scope.kept
+						|| (old != null && old.count == scope.count && old.digest == scope.digest))) {
+					if (!scope.kept) {
+						scope.firstRow = old.firstRow;
+						scope.lastRow = old.lastRow;
+					}
+					continue;
+				}
+				if (old != null && old.count > 0) {
+					deleteStmd.setLong(1, old.firstRow);
+					deleteStmd.setLong(2, old.lastRow);
+					table.deleted += deleteStmd.executeUpdate();
+				}
+				if (scope != null && scope.count > 0)
+					changed.add(scope);
 			}
+		}
+		try (PreparedStatement copyStmd = prepareCopy(table)) {
+			for (Scope scope : changed)
+				copyScope(table, scope, copyStmd);
+		}
+		System.out.println(String.format("Table " + table.name + ": %,d of %,d genera changed, %,d inserted, %,d deleted",
+				changed.size(), table.scopes.size(), table.inserted, table.deleted));
+	}
 
-		} catch (Exception e) {
-			e.printStackTrace();
+	private static Set<String> union(Set<String> s1, Set<String> s2) {
+		Set<String> union = new HashSet<>(s1);
+		union.addAll(s2);
+		return union;
+	}
+
+	private PreparedStatement prepareCopy(TableSink table) throws SQLException {
+		String columns = String.join(", ", table.getColumnNames());
+		return c.prepareStatement("INSERT INTO main." + table.name + " SELECT " + columns + " FROM shard."
+				+ table.name + " WHERE scope = ?");
+	}
+
+	/**
+	 * Appends the rows of the genus in one statement, which gives them
+	 * consecutive rowids after the largest one of the table.
+	 */
+	private void copyScope(TableSink table, Scope scope, PreparedStatement copyStmd) throws SQLException {
+		scope.firstRow = maxRowid("main." + table.name) + 1;
+		copyStmd.setString(1, scope.name);
+		int inserted = copyStmd.executeUpdate();
+		scope.lastRow = maxRowid("main." + table.name);
+		if (inserted != scope.count || scope.lastRow - scope.firstRow + 1 != inserted)
+			throw new SQLException("ERROR: rows of " + scope.name + " in " + table.name + " are not contiguous");
+		table.inserted += inserted;
+	}
+
+	private long maxRowid(String table) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(rowid), 0) FROM " + table)) {
+			return rs.getLong(1);
 		}
 	}
 
-	public void createAcc2DominatorsTable(File genusDominationFile) {
-		try {
+	private long count(String table) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			return rs.getLong(1);
+		}
+	}
 
-			String table = "acc2dominator";
-			String index = "acc2dominator_index";
+	/**
+	 * Drops the tables of the previous release that were not produced again,
+	 * such as the factors of a marker database that no longer exists.
+	 */
+	private Map<String, Long> dropStaleTables(Set<String> previous) throws SQLException {
+		Map<String, Long> dropped = new TreeMap<>();
+		for (String name : previous) {
+			if (tables.containsKey(name) || INTERNAL_TABLES.contains(name) || name.startsWith("sqlite_"))
+				continue;
+			System.out.println(">Dropping SQL Table " + name);
+			dropped.put(name, count("main." + name));
+			stmt.execute("DROP TABLE main." + name);
+		}
+		return dropped;
+	}
 
-			System.out.println(">Creating SQL Table " + table);
-			rL.setTime();
-			stmt.execute("CREATE TABLE IF NOT EXISTS " + table
-					+ " (acc TEXT, dominator TEXT, btop TEXT, qstart INTEGER, sstart INTEGER, slen INTEGER)");
-			stmt.execute("DELETE FROM " + table);
-			c.setAutoCommit(false);
-			int count = 0;
-			rL.setMaxProgress(genusDominationFile.length());
-			try (PreparedStatement insertStmd = c
-					.prepareStatement("INSERT INTO " + table + " VALUES (?, ?, ?, ?, ?, ?)");
-					BufferedReader buf = new BufferedReader(new FileReader(genusDominationFile));) {
-				String line;
-				while ((line = buf.readLine()) != null) {
-					final String[] tokens = line.split("\t");
-					final String accession = tokens[0];
-					final String dominator = tokens[1];
-					final String btop = tokens[2];
-					final Integer qstart = Integer.parseInt(tokens[3]);
-					final Integer sstart = Integer.parseInt(tokens[4]);
-					final Integer slen = Integer.parseInt(tokens[5]);
-					insertStmd.setString(1, accession);
-					insertStmd.setString(2, dominator);
-					insertStmd.setString(3, btop);
-					insertStmd.setInt(4, qstart);
-					insertStmd.setInt(5, sstart);
-					insertStmd.setInt(6, slen);
+	/**
+	 * Records the row range, count, digest and fingerprint of every genus of
+	 * the scoped tables, which the next refresh diffs against.
+	 */
+	private void writeScopes() throws SQLException {
+		stmt.execute("CREATE TABLE IF NOT EXISTS table_scopes (tbl TEXT, scope TEXT, first_row INTEGER, "
+				+ "last_row INTEGER, row_count INTEGER, digest INTEGER, fingerprint TEXT)");
+		c.setAutoCommit(false);
+		stmt.execute("DELETE FROM table_scopes");
+		try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO table_scopes VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+			for (TableSink table : tables.values()) {
+				if (!table.scoped)
+					continue;
+				for (Scope scope : table.scopes.values()) {
+					if (scope.count == 0 && scope.fingerprint == null)
+						continue;
+					insertStmd.setString(1, table.name);
+					insertStmd.setString(2, scope.name);
+					insertStmd.setLong(3, scope.firstRow);
+					insertStmd.setLong(4, scope.lastRow);
+					insertStmd.setLong(5, scope.count);
+					insertStmd.setLong(6, scope.digest);
+					insertStmd.setString(7, scope.fingerprint);
 					insertStmd.execute();
-					count++;
-					rL.reportProgress(line.length() + 1);
 				}
 			}
-			c.commit();
-			c.setAutoCommit(true);
-			System.out.println(String.format("Table " + table + ": added %,d items", count));
-			rL.reportFinish();
-			rL.reportRuntime();
+		}
+		c.commit();
+		c.setAutoCommit(true);
+	}
 
-			System.out.println(">Indexing SQL Table " + table);
-			rL.setTime();
-			stmt.execute("DROP INDEX IF EXISTS " + index);
-			stmt.execute("CREATE INDEX " + index + " ON " + table + " (dominator)");
-			rL.reportFinish();
-			rL.reportRuntime();
+	private void addVersion(List<TableSink> shards, TableSink largest, Map<String, Long> dropped)
+			throws SQLException {
+		stmt.execute("CREATE TABLE IF NOT EXISTS versions (version TEXT, base TEXT, tbl TEXT, inserted INTEGER, deleted INTEGER)");
+		List<TableSink> all = new ArrayList<>(shards);
+		if (largest != null)
+			all.add(0, largest);
+		c.setAutoCommit(false);
+		try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO versions VALUES (?, ?, ?, ?, ?)")) {
+			for (TableSink table : all) {
+				insertStmd.setString(1, version);
+				insertStmd.setString(2, base);
+				insertStmd.setString(3, table.name);
+				insertStmd.setLong(4, table.inserted);
+				insertStmd.setLong(5, table.deleted);
+				insertStmd.execute();
+			}
+			for (Map.Entry<String, Long> e : dropped.entrySet()) {
+				insertStmd.setString(1, version);
+				insertStmd.setString(2, base);
+				insertStmd.setString(3, e.getKey());
+				insertStmd.setLong(4, 0);
+				insertStmd.setLong(5, e.getValue());
+				insertStmd.execute();
+			}
+		}
+		c.commit();
+		c.setAutoCommit(true);
+	}
+
+	private Set<String> getTableNames() throws SQLException {
+		Set<String> names = new HashSet<>();
+		try (ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'")) {
+			while (rs.next())
+				names.add(rs.getString(1));
+		}
+		return names;
+	}
 
+	/**
+	 * Writes the read-optimized MairaIndex of acc2taxids, factors_N and
+	 * acc2dominator next to the database.
+	 */
+	public void exportIndex() {
+		try {
+			MairaIndex.build(c, MairaIndex.getFile(databaseFile));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	private boolean isEmpty() throws SQLException {
+		try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+			return rs.getInt(1) == 0;
+		}
+	}
+
+	private interface Binder {
+		void bind(PreparedStatement ps) throws SQLException;
+	}
+
+	/**
+	 * The rows of one genus in a scoped table.
+	 */
+	private static class Scope {
+
+		private final String name;
+		private long firstRow = 0, lastRow = -1, count = 0, digest = 0;
+		private String fingerprint;
+		private boolean kept = false;
+
+		public Scope(String name) {
+			this.name = name;
+		}
+
+	}
+
+	private class TableSink {
+
+		private final String name, columns, index, indexColumns;
+		private final int columnCount;
+		private final boolean scoped;
+		private final Map<String, Scope> scopes = new HashMap<>();
+		private final File shardFile;
+		private final Connection shard;
+		private final PreparedStatement insertStmd;
+		private int pending = 0;
+		private long count = 0, inserted = 0, deleted = 0;
+
+		public TableSink(String name, String columns, int columnCount, String index, String indexColumns,
+				boolean scoped) throws SQLException {
+			this.name = name;
+			this.columns = columns;
+			this.index = index;
+			this.indexColumns = indexColumns;
+			this.columnCount = columnCount;
+			this.scoped = scoped;
+			this.shardFile = new File(tmpDir, getName() + "." + name + ".shard");
+			shardFile.delete();
+			shard = DriverManager.getConnection("jdbc:sqlite:" + shardFile.getAbsolutePath());
+			try (Statement shardStmt = shard.createStatement()) {
+				// a shard is thrown away if the run fails, so it needs neither journal nor syncs
+				shardStmt.execute("PRAGMA temp_store_directory = '" + tmpDir.getAbsolutePath() + "'");
+				shardStmt.execute("PRAGMA journal_mode = OFF");
+				shardStmt.execute("PRAGMA synchronous = OFF");
+				shardStmt.execute("CREATE TABLE " + name + " "
+						+ (scoped ? columns.substring(0, columns.length() - 1) + ", scope TEXT)" : columns));
+			}
+			shard.setAutoCommit(false);
+			String values = String.join(", ", Collections.nCopies(scoped ? columnCount + 1 : columnCount, "?"));
+			insertStmd = shard.prepareStatement("INSERT INTO " + name + " VALUES (" + values + ")");
+		}
+
+		public String[] getColumnNames() {
+			String[] definitions = columns.substring(1, columns.length() - 1).split(",");
+			String[] names = new String[definitions.length];
+			for (int i = 0; i < definitions.length; i++)
+				names[i] = definitions[i].trim().split("\\s+")[0];
+			return names;
+		}
+
+		/**
+		 * Adds a row of the given genus, which is ignored by unscoped tables.
+		 */
+		public synchronized void add(String scope, long hash, Binder binder) {
+			try {
+				binder.bind(insertStmd);
+				if (scoped) {
+					insertStmd.setString(columnCount + 1, scope);
+					Scope s = scopes.computeIfAbsent(scope, Scope::new);
+					s.count++;
+					s.digest += hash;
+				}
+				insertStmd.addBatch();
+				count++;
+				if (++pending == BATCH_SIZE)
+					flush();
+			} catch (SQLException ex) {
+				Logger.getLogger(SQLMairaDatabase.class.getName()).log(Level.SEVERE, "Table: " + name, ex);
+			}
+		}
+
+		/**
+		 * Records the fingerprint of the genus and, if the previous release holds
+		 * its rows for the same fingerprint, keeps their row range.
+		 */
+		public synchronized boolean keep(String scope, String fingerprint, Scope previous) {
+			Scope s = scopes.computeIfAbsent(scope, Scope::new);
+			s.fingerprint = fingerprint;
+			if (previous != null && s.count == 0) {
+				s.kept = true;
+				s.firstRow = previous.firstRow;
+				s.lastRow = previous.lastRow;
+				s.count = previous.count;
+				s.digest = previous.digest;
+			}
+			return s.kept;
+		}
+
+		private void flush() throws SQLException {
+			insertStmd.executeBatch();
+			shard.commit();
+			pending = 0;
+		}
+
+		public synchronized void close(boolean withIndex) {
+			try {
+				flush();
+				insertStmd.close();
+				shard.setAutoCommit(true);
+				System.out.println(String.format("Table " + name + ": added %,d items", count));
+				if (withIndex) {
+					System.out.println(">Indexing SQL Table " + name);
+					try (Statement shardStmt = shard.createStatement()) {
+						if (scoped)
+							shardStmt.execute("CREATE INDEX " + name + "_scope ON " + name + " (scope)");
+						else
+							shardStmt.execute("CREATE INDEX " + index + " ON " + name + " " + indexColumns);
+					}
+				}
+				shard.close();
+			} catch (SQLException ex) {
+				Logger.getLogger(SQLMairaDatabase.class.getName()).log(Level.SEVERE, "Table: " + name, ex);
+			}
+		}
+
+	}
+
 	public void createTree2Newick(String type, String newick) {
 		try {
 
+			SQLiteProfile.apply(stmt, Phase.BULK_LOAD, false, getName());
 			String table = "tree2newick";
 			String index = "tree2newick_index";
 
@@ -307,6 +780,8 @@ public class SQLMairaDatabase {
 
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			SQLiteProfile.apply(stmt, Phase.READ, false, getName());
 		}
 	}
 
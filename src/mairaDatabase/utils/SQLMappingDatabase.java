@@ -2,7 +2,7 @@ package mairaDatabase.utils;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -10,34 +10,80 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import mairaDatabase.utils.Acc2gcfParser.AccRow;
+import mairaDatabase.utils.Acc2gcfParser.Chunk;
+import mairaDatabase.utils.SQLiteProfile.Phase;
+
 public class SQLMappingDatabase {
 
+	private final static int INSERT_BATCH_SIZE = 100000;
+	private final static int SQLITE_OPEN_READONLY = 0x00000001;
+	private final static long MMAP_SIZE = 1L << 30;
+
 	private ResourceLoader rL = new ResourceLoader();
 
 	private String databaseFile;
 	private File tmpDir;
 	private Connection c;
 	private Statement stmt;
+	private AtomicReference<AccessionGenomeIndex> accessionIndex;
+	private boolean ownsAccessionIndex;
+	private AtomicReference<GenomeMetadata> genomeMetadata;
+	private final ConcurrentLinkedDeque<Map<String, PreparedStatement>> statementPool = new ConcurrentLinkedDeque<>();
+	private final Set<PreparedStatement> openStatements = ConcurrentHashMap.newKeySet();
 
 	public SQLMappingDatabase(String databaseFile, File tmpDir) {
-		init(databaseFile, tmpDir);
+		init(databaseFile, tmpDir, false);
+		this.accessionIndex = new AtomicReference<>();
+		this.ownsAccessionIndex = true;
+		this.genomeMetadata = new AtomicReference<>();
 	}
 
+	/**
+	 * Copies share the accession index of the given database.
+	 */
 	public SQLMappingDatabase(SQLMappingDatabase mappingDatabase) {
-		init(mappingDatabase.getDatabaseFile(), mappingDatabase.getTmpDir());
+		this(mappingDatabase, false);
 	}
 
-	private void init(String databaseFile, File tmpDir) {
+	/**
+	 * A read-only copy opens the database with memory-mapped I/O and can be
+	 * shared by all worker threads.
+	 */
+	public SQLMappingDatabase(SQLMappingDatabase mappingDatabase, boolean readOnly) {
+		init(mappingDatabase.getDatabaseFile(), mappingDatabase.getTmpDir(), readOnly);
+		this.accessionIndex = mappingDatabase.accessionIndex;
+		this.ownsAccessionIndex = false;
+		this.genomeMetadata = mappingDatabase.genomeMetadata;
+	}
+
+	private void init(String databaseFile, File tmpDir, boolean readOnly) {
 		try {
 			this.databaseFile = databaseFile;
 			this.tmpDir = tmpDir;
 			Class.forName("org.sqlite.JDBC");
-			c = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFile);
+			Properties config = new Properties();
+			if (readOnly)
+				config.setProperty("open_mode", String.valueOf(SQLITE_OPEN_READONLY));
+			c = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFile, config);
 			stmt = c.createStatement();
+			if (readOnly)
+				stmt.execute("PRAGMA mmap_size = " + MMAP_SIZE);
+			SQLiteProfile.apply(stmt, Phase.READ, readOnly, getName());
 //			stmt.execute("PRAGMA page_size = 10485760");
 //			stmt.execute("PRAGMA temp_store_directory = '" + tmpDir.getAbsolutePath() + "'");
 		} catch (ClassNotFoundException ex) {
@@ -47,27 +93,44 @@ public class SQLMappingDatabase {
 		}
 	}
 
-	public List<Integer> getTaxIdByAcc(String acc) {
-		String sql = "SELECT taxid FROM acc2gcf WHERE acc='" + acc + "'";
-		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return toIntArrayList(rs);
-		} catch (SQLException ex) {
-			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Accession: " + acc);
+	/**
+	 * Returns the accession index, mapping it on first use and building it if
+	 * acc2gcf has not been indexed yet. Only the first use takes the lock.
+	 */
+	public AccessionGenomeIndex getAccessionIndex() {
+		AccessionGenomeIndex index = accessionIndex.get();
+		if (index != null)
+			return index;
+		synchronized (accessionIndex) {
+			if (accessionIndex.get() == null) {
+				try {
+					accessionIndex.set(AccessionGenomeIndex.load(databaseFile, c));
+				} catch (IOException | SQLException ex) {
+					Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, null, ex);
+				}
+			}
+			return accessionIndex.get();
 		}
-		return null;
+	}
+
+	public List<Integer> getTaxIdByAcc(String acc) {
+		List<Integer> taxids = new ArrayList<>();
+		for (int taxid : getAccessionIndex().getTaxIds(acc))
+			taxids.add(taxid);
+		return taxids;
+	}
+
+	public int[] getGcfIdsByAcc(String acc) {
+		return getAccessionIndex().getGcfIds(acc);
 	}
 
 	public List<String> getAvgGCFsByAcc(String acc) {
-		String sql = "SELECT gcf a FROM acc2gcf" 
-				+ " JOIN gcf2taxid b USING(gcf_id)"
-				+ " JOIN species2size c ON (c.taxid=b.species_id)" 
-				+ " WHERE acc='" + acc + "'"
-				+ " AND b.size >= c.avg_size";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			List<String> arr = toStringArrayList(rs);
-			return arr;
+			return query("SELECT gcf a FROM acc2gcf"
+					+ " JOIN gcf2taxid b USING(gcf_id)"
+					+ " JOIN species2size c ON (c.taxid=b.species_id)"
+					+ " WHERE acc_key = ? AND acc IS ? AND b.size >= c.avg_size",
+					ps -> bindAccession(ps, 1, acc), this::toStringArrayList);
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Accession: " + acc);
 		}
@@ -75,12 +138,9 @@ public class SQLMappingDatabase {
 	}
 
 	public List<String> getGCFByAcc(String acc) {
-		String sql = "SELECT gcf FROM acc2gcf"
-				+ " JOIN gcf2taxid USING(gcf_id)"
-				+ " WHERE acc='" + acc + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return toStringArrayList(rs);
+			return query("SELECT gcf FROM acc2gcf JOIN gcf2taxid USING(gcf_id) WHERE acc_key = ? AND acc IS ?",
+					ps -> bindAccession(ps, 1, acc), this::toStringArrayList);
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Accession: " + acc);
 		}
@@ -88,12 +148,9 @@ public class SQLMappingDatabase {
 	}
 
 	public List<String> getAccByGCF(String gcf) {
-		String sql = "SELECT acc FROM acc2gcf "
-				+ " JOIN gcf2taxid USING(gcf_id)"
-				+ " WHERE gcf='" + gcf + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return toStringArrayList(rs);
+			return query("SELECT acc_key, acc FROM acc2gcf JOIN gcf2taxid USING(gcf_id) WHERE gcf = ?",
+					ps -> ps.setString(1, gcf), this::toAccessionList);
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Genome: " + gcf);
 		}
@@ -101,10 +158,9 @@ public class SQLMappingDatabase {
 	}
 
 	public List<String> getGCFByGenus(int genusId) {
-		String sql = "SELECT gcf FROM gcf2taxid WHERE genus_id=" + genusId;
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return toStringArrayList(rs);
+			return query("SELECT gcf FROM gcf2taxid WHERE genus_id = ?", ps -> ps.setInt(1, genusId),
+					this::toStringArrayList);
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GenusId: " + genusId);
 		}
@@ -112,10 +168,9 @@ public class SQLMappingDatabase {
 	}
 
 	public Integer getTaxIDByGCF(String gcf) {
-		String sql = "SELECT taxid FROM gcf2taxid WHERE gcf='" + gcf + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return rs.getInt(1);
+			return query("SELECT taxid FROM gcf2taxid WHERE gcf = ?", ps -> ps.setString(1, gcf),
+					rs -> rs.getInt(1));
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF: " + gcf);
 		}
@@ -123,70 +178,62 @@ public class SQLMappingDatabase {
 	}
 
 	public Integer getAvgSizeByTaxid(int taxid) {
-		String sql = "SELECT avg_size FROM species2size WHERE taxid='" + taxid + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return rs.getInt(1);
+			return query("SELECT avg_size FROM species2size WHERE taxid = ?", ps -> ps.setInt(1, taxid),
+					rs -> rs.getInt(1));
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "Taxid: " + taxid);
 		}
 		return null;
 	}
-	
+
 	public Integer getGcfId(String gcf) {
-		String sql = "SELECT gcf_id FROM gcf2taxid WHERE gcf='" + gcf + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return rs.getInt(1);
+			return query("SELECT gcf_id FROM gcf2taxid WHERE gcf = ?", ps -> ps.setString(1, gcf),
+					rs -> rs.getInt(1));
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF: " + gcf);
 		}
 		return null;
 	}
-	
+
 	public String getGcf(int gcfId) {
-		String sql = "SELECT gcf FROM gcf2taxid WHERE gcf_id='" + gcfId + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			if(rs.next())
-				return rs.getString(1);
+			return query("SELECT gcf FROM gcf2taxid WHERE gcf_id = ?", ps -> ps.setInt(1, gcfId),
+					rs -> rs.next() ? rs.getString(1) : null);
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF: " + gcfId);
 		}
 		return null;
 	}
-	
+
 	public Integer getSpeciesIdByGCF(int gcfId) {
-		String sql = "SELECT species_id FROM gcf2taxid WHERE gcf_id='" + gcfId + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			if(rs.next())
-				return rs.getInt(1);
+			return query("SELECT species_id FROM gcf2taxid WHERE gcf_id = ?", ps -> ps.setInt(1, gcfId),
+					rs -> rs.next() ? rs.getInt(1) : null);
 		} catch (SQLException ex) {
 			ex.printStackTrace();
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF: " + gcfId);
 		}
 		return null;
 	}
-	
+
 	public Integer maxSpeciesCount() {
-		String sql = "SELECT COUNT(DISTINCT species_id) AS count FROM gcf2taxid GROUP BY genus_id ORDER BY count DESC LIMIT 1";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			if(rs.next())
-				return rs.getInt(1);
+			return query("SELECT COUNT(DISTINCT species_id) AS count FROM gcf2taxid"
+					+ " GROUP BY genus_id ORDER BY count DESC LIMIT 1", ps -> {
+					}, rs -> rs.next() ? rs.getInt(1) : null);
 		} catch (SQLException ex) {
 			ex.printStackTrace();
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "");
 		}
 		return null;
 	}
-	
+
 	public List<Integer> getSpeciesIdByGenusId(int genusId) {
-		String sql = "SELECT DISTINCT species_id FROM gcf2taxid WHERE genus_id='" + genusId + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return toIntArrayList(rs);
+			return query("SELECT DISTINCT species_id FROM gcf2taxid WHERE genus_id = ?",
+					ps -> ps.setInt(1, genusId), this::toIntArrayList);
 		} catch (SQLException ex) {
 			ex.printStackTrace();
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF: " + genusId);
@@ -195,27 +242,86 @@ public class SQLMappingDatabase {
 	}
 
 	public Integer getSizeByGCF(String gcf) {
-		String sql = "SELECT size FROM gcf2taxid WHERE gcf='" + gcf + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return rs.getInt(1);
+			return query("SELECT size FROM gcf2taxid WHERE gcf = ?", ps -> ps.setString(1, gcf),
+					rs -> rs.getInt(1));
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF: " + gcf);
 		}
 		return null;
 	}
-	
+
 	public Integer getSizeByGCF(int gcfId) {
-		String sql = "SELECT size FROM gcf2taxid WHERE gcf_id='" + gcfId + "'";
 		try {
-			ResultSet rs = stmt.executeQuery(sql);
-			return rs.getInt(1);
+			return query("SELECT size FROM gcf2taxid WHERE gcf_id = ?", ps -> ps.setInt(1, gcfId),
+					rs -> rs.getInt(1));
 		} catch (SQLException ex) {
 			Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, "GCF_id: " + gcfId);
 		}
 		return null;
 	}
 
+	/**
+	 * Runs a query on a set of prepared statements taken from a pool, so each
+	 * concurrent caller, platform or virtual thread, uses its own statements
+	 * while the connection itself is serialized by SQLite. The pool only grows
+	 * to the number of concurrent callers.
+	 */
+	private <T> T query(String sql, Binder binder, Reader<T> reader) throws SQLException {
+		Map<String, PreparedStatement> statements = statementPool.pollFirst();
+		if (statements == null)
+			statements = new HashMap<>();
+		try {
+			PreparedStatement ps = statements.get(sql);
+			if (ps == null) {
+				ps = c.prepareStatement(sql);
+				statements.put(sql, ps);
+				openStatements.add(ps);
+			}
+			binder.bind(ps);
+			return reader.read(ps.executeQuery());
+		} finally {
+			statementPool.addFirst(statements);
+		}
+	}
+
+	private interface Binder {
+		void bind(PreparedStatement ps) throws SQLException;
+	}
+
+	private interface Reader<T> {
+		T read(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Binds an accession as its AccessionCodec key and side text, matching the
+	 * acc_key and acc columns of acc2gcf.
+	 */
+	private static void bindAccession(PreparedStatement ps, int index, String acc) throws SQLException {
+		ps.setLong(index, AccessionCodec.encode(acc));
+		ps.setString(index + 1, AccessionCodec.getSideText(acc));
+	}
+
+	/**
+	 * Returns the metadata of all genomes, read once from gcf2taxid and shared
+	 * with all copies of this database. Only the first use takes the lock.
+	 */
+	public GenomeMetadata getGenomeMetadata() {
+		GenomeMetadata metadata = genomeMetadata.get();
+		if (metadata != null)
+			return metadata;
+		synchronized (genomeMetadata) {
+			if (genomeMetadata.get() == null) {
+				try {
+					genomeMetadata.set(new GenomeMetadata(c));
+				} catch (SQLException ex) {
+					Logger.getLogger(SQLMappingDatabase.class.getName()).log(Level.SEVERE, null, ex);
+				}
+			}
+			return genomeMetadata.get();
+		}
+	}
+
 	private List<String> toStringArrayList(ResultSet rs) throws SQLException {
 		List<String> result = new ArrayList<>();
 		while (rs.next())
@@ -223,6 +329,13 @@ public class SQLMappingDatabase {
 		return result;
 	}
 
+	private List<String> toAccessionList(ResultSet rs) throws SQLException {
+		List<String> result = new ArrayList<>();
+		while (rs.next())
+			result.add(AccessionCodec.decode(rs.getLong(1), rs.getString(2)));
+		return result;
+	}
+
 	private List<Object[]> toGenomeInfoList(ResultSet rs) throws SQLException {
 		List<Object[]> result = new ArrayList<>();
 		while (rs.next()) {
@@ -242,6 +355,7 @@ public class SQLMappingDatabase {
 	public void createSpecies2sizeTable(File speciesSizeFile) {
 		try {
 
+			SQLiteProfile.apply(stmt, Phase.BULK_LOAD, false, getName());
 			System.out.println(">Creating SQL Table species2size");
 			rL.setTime();
 			stmt.execute("CREATE TABLE IF NOT EXISTS species2size ("
@@ -252,7 +366,7 @@ public class SQLMappingDatabase {
 			int count = 0;
 			rL.setMaxProgress(speciesSizeFile.length());
 			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO species2size VALUES (?, ?);");
-					BufferedReader buf = new BufferedReader(new FileReader(speciesSizeFile));) {
+					BufferedReader buf = InputFactory.openReader(speciesSizeFile);) {
 				String line;
 				while ((line = buf.readLine()) != null) {
 					final String[] tokens = line.split("\t");
@@ -278,12 +392,15 @@ public class SQLMappingDatabase {
 
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			SQLiteProfile.apply(stmt, Phase.READ, false, getName());
 		}
 	}
 
 	public void createGcf2size2taxidTable(File gcf2size2taxidFile) {
 		try {
 
+			SQLiteProfile.apply(stmt, Phase.BULK_LOAD, false, getName());
 			System.out.println(">Creating SQL Table gcf2taxid");
 			rL.setTime();
 			stmt.execute(
@@ -299,7 +416,7 @@ public class SQLMappingDatabase {
 			int count = 0;
 			rL.setMaxProgress(gcf2size2taxidFile.length());
 			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO gcf2taxid VALUES (?, ?, ?, ?, ?, ?);");
-					BufferedReader buf = new BufferedReader(new FileReader(gcf2size2taxidFile));) {
+					BufferedReader buf = InputFactory.openReader(gcf2size2taxidFile);) {
 				String line;
 				while ((line = buf.readLine()) != null) {
 					final String[] tokens = line.split("\t");
@@ -321,6 +438,8 @@ public class SQLMappingDatabase {
 			}
 			c.commit();
 			c.setAutoCommit(true);
+			genomeMetadata.set(null);
+			getGenomeMetadata();
 			System.out.println(String.format("Table gcf2taxid: added %,d items", count));
 			rL.reportFinish();
 			rL.reportRuntime();
@@ -336,62 +455,107 @@ public class SQLMappingDatabase {
 
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			SQLiteProfile.apply(stmt, Phase.READ, false, getName());
 		}
 	}
 
 	public void createAcc2gcf2taxidTable(File acc2gcf2taxidFile) {
+		createAcc2gcf2taxidTable(acc2gcf2taxidFile, null);
+	}
+
+	/**
+	 * Also hands every parsed row to the given sink, which fills acc2taxids of
+	 * maira.db without parsing the file a second time.
+	 */
+	public void createAcc2gcf2taxidTable(File acc2gcf2taxidFile, MairaSink mairaSink) {
 		try {
 
+			SQLiteProfile.apply(stmt, Phase.BULK_LOAD, false, getName());
 			System.out.println(">Creating SQL Table acc2gcf");
 			rL.setTime();
-			stmt.execute("CREATE TABLE IF NOT EXISTS acc2gcf ("
+			// accessions are keyed by their AccessionCodec key, acc only holds
+			// the text of accessions that cannot be packed
+			stmt.execute("DROP TABLE IF EXISTS acc2gcf");
+			stmt.execute("CREATE TABLE acc2gcf ("
 					+ "acc_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+					+ "acc_key INTEGER, "
 					+ "acc TEXT, "
 					+ "gcf_id INTEGER, "
 					+ "taxid integer)");
-			stmt.execute("DELETE FROM acc2gcf");
+			AccessionIdMap gcf2id = getGenomeMetadata().getGcfIds();
+			int cores = Runtime.getRuntime().availableProcessors();
+			ExecutorService reader = Executors.newSingleThreadExecutor();
 			c.setAutoCommit(false);
-			int count = 0;
+			long count = 0;
 			rL.setMaxProgress(acc2gcf2taxidFile.length());
-			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO acc2gcf VALUES (?, ?, ?, ?);");
-					BufferedReader buf = new BufferedReader(new FileReader(acc2gcf2taxidFile));) {
-				String line;
-				while ((line = buf.readLine()) != null) {
-					final String[] tokens = line.split("\t");
-					final String accession = tokens[0];
-					final int gcf_id = getGcfId(tokens[1]);
-					final int taxid = Integer.parseInt(tokens[2]);
-					insertStmd.setObject(1, null);
-					insertStmd.setString(2, accession);
-					insertStmd.setInt(3, gcf_id);
-					insertStmd.setInt(4, taxid);
-					insertStmd.execute();
-					count++;
-					rL.reportProgress(line.length() + 1);
+			try (PreparedStatement insertStmd = c.prepareStatement("INSERT INTO acc2gcf (acc_key, acc, gcf_id, taxid) VALUES (?, ?, ?, ?);");
+					Acc2gcfParser parser = new Acc2gcfParser(acc2gcf2taxidFile, gcf2id,
+							Acc2gcfParser.DEFAULT_CHUNK_BYTES, cores)) {
+				// parsing the next chunk while the current one is inserted
+				Future<Chunk> next = reader.submit(parser::nextChunk);
+				Chunk chunk;
+				while ((chunk = next.get()) != null) {
+					next = reader.submit(parser::nextChunk);
+					int batch = 0;
+					for (AccRow row : chunk.getRows()) {
+						insertStmd.setLong(1, row.getKey());
+						insertStmd.setString(2, row.getSideText());
+						insertStmd.setInt(3, row.getGcfId());
+						insertStmd.setInt(4, row.getTaxid());
+						insertStmd.addBatch();
+						if (mairaSink != null)
+							mairaSink.addAccessionTaxid(row.getAcc(), row.getTaxid());
+						if (++batch == INSERT_BATCH_SIZE) {
+							insertStmd.executeBatch();
+							batch = 0;
+						}
+					}
+					insertStmd.executeBatch();
+					count += chunk.getRows().length;
+					rL.reportProgress(chunk.getBytes(), count);
 				}
+			} finally {
+				reader.shutdown();
 			}
 			c.commit();
 			c.setAutoCommit(true);
-			System.out.println(String.format("Table acc2gcf2taxid: added %,d items", count));
+			long millis = Math.max(1, System.currentTimeMillis() - rL.getTime());
+			System.out.println(String.format("Table acc2gcf2taxid: added %,d items (%,d rows/s)", count,
+					count * 1000 / millis));
 			rL.reportFinish();
 			rL.reportRuntime();
 
 			System.out.println(">Indexing SQL Table acc2gcf2taxid");
 			rL.setTime();
-			stmt.execute("DROP INDEX IF EXISTS acc2gcf_accIndex");
-			stmt.execute("CREATE INDEX acc2gcf_accIndex ON acc2gcf (acc)");
-			stmt.execute("DROP INDEX IF EXISTS acc2gcf_gcfIndex");
+			stmt.execute("CREATE INDEX acc2gcf_accKeyIndex ON acc2gcf (acc_key)");
 			stmt.execute("CREATE INDEX acc2gcf_gcfIndex ON acc2gcf (gcf_id)");
-			stmt.execute("DROP INDEX IF EXISTS acc2gcf_taxidIndex");
 			stmt.execute("CREATE INDEX acc2gcf_taxidIndex ON acc2gcf (taxid)");
 			rL.reportFinish();
 			rL.reportRuntime();
 
+			System.out.println(">Mapping accession index of acc2gcf");
+			rL.setTime();
+			synchronized (accessionIndex) {
+				if (accessionIndex.get() != null)
+					accessionIndex.getAndSet(null).close();
+				AccessionGenomeIndex.build(c, AccessionGenomeIndex.getFile(databaseFile));
+			}
+			getAccessionIndex();
+			rL.reportFinish();
+			rL.reportRuntime();
+
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			SQLiteProfile.apply(stmt, Phase.READ, false, getName());
 		}
 	}
 
+	private String getName() {
+		return new File(databaseFile).getName();
+	}
+
 	public String getDatabaseFile() {
 		return databaseFile;
 	}
@@ -402,8 +566,14 @@ public class SQLMappingDatabase {
 
 	public void close() {
 		try {
+			for (PreparedStatement ps : openStatements)
+				ps.close();
+			openStatements.clear();
+			statementPool.clear();
 			c.close();
-		} catch (SQLException e) {
+			if (ownsAccessionIndex && accessionIndex.get() != null)
+				accessionIndex.getAndSet(null).close();
+		} catch (SQLException | IOException e) {
 			e.printStackTrace();
 		}
 	}
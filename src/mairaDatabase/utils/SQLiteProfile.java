@@ -0,0 +1,155 @@
+package mairaDatabase.utils;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SQLite tuning presets. Each profile holds the PRAGMA settings for bulk-load
+ * phases (table creation and alignment ingest) and for read-heavy phases
+ * (clustering, filtering); unset values keep the SQLite default. The profile
+ * used by all connections is selected once, e.g. from the command line.
+ *
+ * DEFAULT leaves SQLite untouched (rollback journal, synchronous=FULL, 2MB
+ * cache). BALANCED uses WAL with synchronous=NORMAL, which stays consistent if
+ * the process dies. FAST disables journal and syncs while loading and holds an
+ * exclusive lock until the phase ends, so a crash during a bulk load can leave
+ * a corrupt database that has to be recomputed.
+ */
+public enum SQLiteProfile {
+
+	DEFAULT(new Settings(), new Settings()),
+
+	BALANCED(new Settings().journalMode("WAL").synchronous("NORMAL").cacheSize(256 << 10).tempStore("FILE"),
+			new Settings().journalMode("WAL").synchronous("NORMAL").cacheSize(64 << 10).mmapSize(1L << 30)),
+
+	FAST(new Settings().journalMode("OFF").synchronous("OFF").cacheSize(1 << 20).tempStore("MEMORY")
+			.lockingMode("EXCLUSIVE"),
+			new Settings().journalMode("DELETE").synchronous("NORMAL").cacheSize(256 << 10).mmapSize(4L << 30)
+					.tempStore("MEMORY").lockingMode("NORMAL"));
+
+	public enum Phase {
+		BULK_LOAD, READ;
+	}
+
+	private static volatile SQLiteProfile selected = DEFAULT;
+
+	private final Settings bulkLoad, read;
+
+	private SQLiteProfile(Settings bulkLoad, Settings read) {
+		this.bulkLoad = bulkLoad;
+		this.read = read;
+	}
+
+	public static SQLiteProfile parse(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	public static void select(SQLiteProfile profile) {
+		selected = profile;
+	}
+
+	public static SQLiteProfile getSelected() {
+		return selected;
+	}
+
+	/**
+	 * Applies the settings of the selected profile for the given phase to a
+	 * connection. Journal and sync settings are skipped on read-only
+	 * connections.
+	 */
+	public static void apply(Statement stmt, Phase phase, boolean readOnly, String name) {
+		SQLiteProfile profile = selected;
+		Settings settings = phase == Phase.BULK_LOAD ? profile.bulkLoad : profile.read;
+		List<String> applied = settings.apply(stmt, readOnly);
+		if (!applied.isEmpty())
+			System.err.println("SQL>Profile " + profile.name().toLowerCase() + " ("
+					+ phase.name().toLowerCase().replace('_', '-') + ") for " + name + ": " + String.join(", ", applied));
+	}
+
+	public static class Settings {
+
+		private String journalMode, synchronous, tempStore, lockingMode;
+		private Integer cacheSizeKiB;
+		private Long mmapSize;
+
+		public Settings journalMode(String journalMode) {
+			this.journalMode = journalMode;
+			return this;
+		}
+
+		public Settings synchronous(String synchronous) {
+			this.synchronous = synchronous;
+			return this;
+		}
+
+		public Settings cacheSize(int cacheSizeKiB) {
+			this.cacheSizeKiB = cacheSizeKiB;
+			return this;
+		}
+
+		public Settings mmapSize(long mmapSize) {
+			this.mmapSize = mmapSize;
+			return this;
+		}
+
+		public Settings tempStore(String tempStore) {
+			this.tempStore = tempStore;
+			return this;
+		}
+
+		public Settings lockingMode(String lockingMode) {
+			this.lockingMode = lockingMode;
+			return this;
+		}
+
+		private List<String> apply(Statement stmt, boolean readOnly) {
+			List<String> applied = new ArrayList<>();
+			if (journalMode != null && !readOnly)
+				pragma(stmt, "journal_mode", journalMode, applied);
+			if (synchronous != null && !readOnly)
+				pragma(stmt, "synchronous", synchronous, applied);
+			if (cacheSizeKiB != null)
+				pragma(stmt, "cache_size", String.valueOf(-cacheSizeKiB), applied);
+			if (mmapSize != null)
+				pragma(stmt, "mmap_size", String.valueOf(mmapSize), applied);
+			if (tempStore != null)
+				pragma(stmt, "temp_store", tempStore, applied);
+			if (lockingMode != null && pragma(stmt, "locking_mode", lockingMode, applied))
+				releaseLock(stmt);
+			return applied;
+		}
+
+		/**
+		 * A setting that cannot be applied, e.g. a journal mode change while
+		 * another connection holds a lock, is logged and skipped.
+		 */
+		private static boolean pragma(Statement stmt, String name, String value, List<String> applied) {
+			try {
+				stmt.execute("PRAGMA " + name + " = " + value);
+				applied.add(name + "=" + value);
+				return true;
+			} catch (SQLException ex) {
+				Logger.getLogger(SQLiteProfile.class.getName()).log(Level.WARNING, "PRAGMA " + name + " = " + value, ex);
+			}
+			return false;
+		}
+
+		/**
+		 * An exclusive lock is only given up with the next access after switching
+		 * back to locking_mode=NORMAL.
+		 */
+		private static void releaseLock(Statement stmt) {
+			try {
+				stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master").close();
+			} catch (SQLException ex) {
+				Logger.getLogger(SQLiteProfile.class.getName()).log(Level.WARNING, null, ex);
+			}
+		}
+
+	}
+
+}
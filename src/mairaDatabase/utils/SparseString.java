@@ -10,6 +10,13 @@ public class SparseString implements Comparable<SparseString> {
 		this.data = s.getBytes();
 	}
 
+	/**
+	 * Wraps the given bytes without copying them.
+	 */
+	public SparseString(byte[] data) {
+		this.data = data;
+	}
+
 	public SparseString(SparseString s) {
 		this.data = s.getData().clone();
 	}
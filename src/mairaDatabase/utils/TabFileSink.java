@@ -0,0 +1,83 @@
+package mairaDatabase.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the maira.db records as tab files named after their tables, one line
+ * per record. Only used as debug output.
+ */
+public class TabFileSink implements MairaSink {
+
+	private final File folder;
+	private final Map<String, BufferedWriter> writers = new HashMap<>();
+
+	public TabFileSink(File folder) {
+		this.folder = folder;
+		folder.mkdirs();
+	}
+
+	@Override
+	public void addAccessionTaxid(String acc, int taxid) {
+		write("acc2taxids", acc + "\t" + taxid);
+	}
+
+	@Override
+	public void addProteinCount(int taxid, int median) {
+		write("prot_counts", taxid + "\t" + median);
+	}
+
+	@Override
+	public void addSpeciesDisjoint(String genus, int source, int target, double minDisjoint) {
+		write("species2disjoint", source + "\t" + target + "\t" + minDisjoint);
+	}
+
+	@Override
+	public boolean keepSpeciesDisjoints(String genus, String fingerprint) {
+		return false;
+	}
+
+	@Override
+	public void createFactorsTable(int n) {
+	}
+
+	@Override
+	public void addFactor(String genus, int n, String acc, double factor) {
+		write("factors_" + n, acc + "\t" + factor);
+	}
+
+	@Override
+	public void addDominator(String genus, String acc, String dominator, String btop, int qstart, int sstart,
+			int slen) {
+		write("acc2dominator", acc + "\t" + dominator + "\t" + btop + "\t" + qstart + "\t" + sstart + "\t" + slen);
+	}
+
+	private synchronized void write(String table, String line) {
+		try {
+			BufferedWriter writer = writers.get(table);
+			if (writer == null) {
+				writer = new BufferedWriter(new FileWriter(new File(folder, table + ".tab")));
+				writers.put(table, writer);
+			}
+			writer.write(line + "\n");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void close() {
+		for (BufferedWriter writer : writers.values()) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		writers.clear();
+	}
+
+}
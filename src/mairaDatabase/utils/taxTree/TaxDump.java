@@ -10,6 +10,8 @@ import java.util.HashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import mairaDatabase.utils.InputFactory;
+
 /**
  * @author bagci
  */
@@ -25,7 +27,7 @@ public class TaxDump {
         HashMap<Integer, String> id2Name = parseNamesFile(namesPath);
         TaxTree tree = new TaxTree();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(new File(nodesPath)));
+            BufferedReader br = InputFactory.openReader(new File(nodesPath));
             String line = br.readLine();
             while ((line = br.readLine()) != null) {
                 String[] lineSplit = line.split("\t");
@@ -84,7 +86,7 @@ public class TaxDump {
         HashMap<Integer, String> id2Name = new HashMap<>();
         try {
 
-            BufferedReader br = new BufferedReader(new FileReader(new File(namesPath)));
+            BufferedReader br = InputFactory.openReader(new File(namesPath));
             String line;
             while ((line = br.readLine()) != null) {
                 String[] lineSplit = line.split("\t");
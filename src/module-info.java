@@ -12,6 +12,7 @@ module MAIRA_database {
 	exports mairaDatabase.refseq.step1_clustering;
 
 	requires java.logging;
+	requires jdk.unsupported;
 	requires transitive java.sql;
 	requires transitive jloda;
 	